@@ -1,10 +1,17 @@
 package com.semantria;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.semantria.auth.AuthService;
 import com.semantria.auth.CredentialException;
+import com.semantria.auth.OAuthSigner;
+import com.semantria.interfaces.IAsyncTransport;
+import com.semantria.interfaces.IBodyWriter;
 import com.semantria.interfaces.ICallbackHandler;
+import com.semantria.interfaces.IRequestEvent;
+import com.semantria.interfaces.IRequestListener;
 import com.semantria.interfaces.ISerializer;
+import com.semantria.interfaces.ITransport;
 import com.semantria.mapping.Batch;
 import com.semantria.mapping.Collection;
 import com.semantria.mapping.Document;
@@ -37,26 +44,55 @@ import com.semantria.mapping.output.stub.StatisticsGroupedList;
 import com.semantria.mapping.output.stub.StatisticsOverallList;
 import com.semantria.serializer.JsonSerializer;
 import com.semantria.serializer.XmlSerializer;
+import com.semantria.transport.ConnectionPool;
+import com.semantria.transport.PooledTransport;
+import com.semantria.transport.RequestTiming;
+import com.semantria.transport.RequestTimingStats;
+import com.semantria.transport.TlsContext;
+import com.semantria.transport.UnixSocketTransport;
 import com.semantria.utils.AuthRequest;
+import com.semantria.utils.CallbackDispatcher;
+import com.semantria.utils.CallResult;
+import com.semantria.utils.Deadline;
+import com.semantria.utils.Endpoints;
 import com.semantria.utils.ObjProxy;
 import com.semantria.utils.RequestArgs;
+import com.semantria.utils.RequestCategory;
 import com.semantria.utils.ResponseArgs;
+import com.semantria.utils.ValueResult;
+import com.semantria.utils.VirtualThreads;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * A Semantria Session contains authentication credentials for accessing
@@ -66,44 +102,114 @@ import java.util.Map;
  * You create a session providing either key and secret, or username and password.
  * If key, secret, username, and password are supplied then key/secret takes precedence.
  * <p/>
+ * Requests go over a {@link PooledTransport}, which keeps connections alive between
+ * requests in a {@link ConnectionPool} of the session's own, or in one shared by several
+ * sessions set with {@link #withConnectionPool(ConnectionPool)}; call {@link #close()} when
+ * the session is no longer needed to release them. A different HTTP stack can be plugged in
+ * with {@link #withTransport(ITransport)}.
+ * <p/>
+ * Every call has to finish within the timeout of its {@link RequestCategory}, including
+ * a renewal of the auth session and the retried request. A shorter deadline for a group
+ * of calls can be set with {@link Deadline#within(long, TimeUnit)}.
+ * <p/>
+ * <b>Thread safety.</b> Once configured with the {@code withXxx} methods, a session can
+ * be shared by any number of threads; configure it before sharing it. The credentials of
+ * the auth session are an immutable snapshot that is replaced atomically when the auth
+ * session is renewed. {@link #getLastRequestStatus()} and {@link #getLastRequestErrorMessage()}
+ * describe the last call the session finished, made by any thread; with concurrent calls
+ * use the {@link CallResult} returned by {@link #queueDocumentForResult(Document, String)},
+ * {@link #queueBatchForResult(List, String)} and {@link #queueCollectionForResult(Collection, String)}
+ * or {@link #queueBatchForResultAsync(List, String)} instead, and the {@link ValueResult} of
+ * {@link #getSubscriptionForResult()}, {@link #getProcessedDocumentsForResult(String)} and
+ * {@link #getProcessedDocumentsByJobIdForResult(String)}.
+ * <p/>
+ * With username and password, only one thread at a time creates a new auth session; other
+ * threads that need one wait for its result. Auth sessions can also be renewed in the
+ * background before they expire, see {@link #withAuthSessionRenewal(long, TimeUnit)}.
+ * <p/>
+ * The {@code xxxAsync} methods return a {@link CompletableFuture} instead of blocking. With a
+ * transport that implements {@link IAsyncTransport}, such as
+ * {@link com.semantria.transport.HttpClientTransport}, no thread waits while the request is
+ * in flight; with other transports the request runs on the executor set with
+ * {@link #withAsyncExecutor(Executor)}.
+ * <p/>
  * See exammples such as {@code DetailedModeTestApp}.
  */
-public class Session {
+public class Session implements Closeable {
 
     //<editor-fold desc="Private fields">
 
     // If the user provides key and secret then they are never changed by the
     // SDK. However, if the user provides username and password, then the
-    // 'session key' and 'session secret' from auth are saved in key and
-    // secret. The auth session will expire after a period of time and the SDK
-    // will attempt to get another auth session (thus another key & secret).
-    // So the key and secret may change value during the course of a Semantria
-    // session's lifetime.
-
-    private String key = null;
-    private String secret = null;
-    private String username = null;
-    private String password = null;
-    private boolean reuseCachedSession = false;
-    private String apiVersion = "4.2";
-    private ISerializer serializer = null;
-    private String requestFormat = null;
-    private ICallbackHandler callback = null;
-    private String serviceUrl = "https://api.semantria.com";    // API URL prefix without trailing slash
-    private boolean useCompression = false;
-    private Integer lastRequestStatus = 0;
-    private String lastRequestErrorMessage = null;
-
-    private String authUrl = "https://semantria.com/auth";      // Auth URL prefix without trailing slash
-    private Map<String, String> httpHeaders = new HashMap<>();
+    // 'session key' and 'session secret' from auth are used instead. The auth
+    // session will expire after a period of time and the SDK will attempt to
+    // get another auth session (thus another key & secret). The key and secret
+    // in use are held in 'credentials', an immutable signer that is swapped
+    // atomically, so concurrent requests always sign with a matching pair.
+
+    private volatile String key = null;
+    private volatile String secret = null;
+    private volatile String username = null;
+    private volatile String password = null;
+    private volatile boolean reuseCachedSession = false;
+    private volatile String apiVersion = "4.2";
+    private volatile ISerializer serializer = null;
+    private volatile String requestFormat = null;
+    private volatile ICallbackHandler callback = null;
+    private volatile CallbackDispatcher callbackDispatcher = null;
+    private volatile IRequestListener requestListener = null;
+    private volatile String serviceUrl = "https://api.semantria.com";    // API URL prefix without trailing slash
+    private volatile boolean useCompression = false;
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private volatile Boolean requestCompressionSupported = null;
+    // The compression check in flight, that other requests with a body wait for
+    private final AtomicReference<CompletableFuture<Boolean>> compressionProbe = new AtomicReference<>();
+    private volatile long compressionProbeRetryTime = 0;    // System.nanoTime() before which a failed check isn't repeated
+    private final AtomicLong compressibleBodyBytes = new AtomicLong();
+    private final AtomicLong compressedBodyBytes = new AtomicLong();
+    private volatile CallResult lastResult = null;
+
+    private volatile String authUrl = "https://semantria.com/auth";      // Auth URL prefix without trailing slash
+    private final Map<String, String> httpHeaders = new ConcurrentHashMap<>();
+    private volatile ConnectionPool connectionPool = null;
+    private volatile TlsContext tlsContext = new TlsContext();
+    private volatile ITransport transport = null;
+    private volatile Executor asyncExecutor = null;
+    private volatile String unixSocketPath = null;
+    private volatile Endpoints endpoints = null;
+    private final AtomicReference<OAuthSigner> credentials = new AtomicReference<>();
+    private final Object renewalLock = new Object();
+    private CompletableFuture<OAuthSigner> renewalInFlight = null;    // guarded by renewalLock
+    private volatile long authSessionLifetime = 0;                    // milliseconds, 0 = no background renewal
+    private volatile ScheduledFuture<?> scheduledRenewal = null;
+    private volatile boolean closed = false;
+    private volatile boolean customTransport = false;
+    private final Map<RequestCategory, Long> timeouts = new ConcurrentHashMap<>();
+    private final Map<String, RequestTimingStats> timingStats = new ConcurrentHashMap<>();
+
+    // GET calls in flight, by URL and parameters, that identical concurrent calls wait for
+    private final Map<String, CompletableFuture<GetResponse>> sharedGets = new ConcurrentHashMap<>();
+    private volatile boolean coalesceGets = false;
 
     private static Logger log = LoggerFactory.getLogger(Session.class);
 
+    /**
+     * Request bodies shorter than this many bytes are sent uncompressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    // Delay before a failed background renewal or compression check is tried again
+    private static final long DEFAULT_RETRY_DELAY = 30000;
+    private volatile long retryDelay = DEFAULT_RETRY_DELAY;
+
     //</editor-fold>
 
     //<editor-fold desc="Constructor">
 
     public Session() {
+        for (RequestCategory category : RequestCategory.values()) {
+            timeouts.put(category, category.getDefaultTimeout(TimeUnit.MILLISECONDS));
+        }
         registerSerializer(new JsonSerializer());
     }
 
@@ -153,11 +259,13 @@ public class Session {
 
     public Session withKey(String key) {
         this.key = key;
+        credentials.set(null);
         return this;
     }
 
     public Session withSecret(String secret) {
         this.secret = secret;
+        credentials.set(null);
         return this;
     }
 
@@ -171,6 +279,44 @@ public class Session {
         return this;
     }
 
+    /**
+     * Whether identical calls to {@link #getStatus()}, {@link #getSubscription()},
+     * {@link #getConfigurations()} and {@link #getSupportedFeatures(String)} made while one
+     * is in flight wait for its response instead of making their own request. Each caller
+     * still gets objects of its own, read from that response, but the callback handler only
+     * hears about the one request. A call made after a configuration change through this
+     * session never waits for a request sent before the change. Off by default.
+     */
+    public Session withGetCoalescing(boolean coalesceGets) {
+        this.coalesceGets = coalesceGets;
+        return this;
+    }
+
+    /**
+     * Sets how long to wait before trying again a background renewal of the auth session or
+     * a check for request compression support that failed. Request bodies are sent
+     * uncompressed until the check succeeds. 30 seconds by default.
+     */
+    public Session withRetryDelay(long delay, TimeUnit unit) {
+        this.retryDelay = unit.toMillis(delay);
+        return this;
+    }
+
+    /**
+     * Renews the auth session in the background shortly before it expires, so that requests
+     * rarely have to wait for a new one. {@code lifetime} is how long the auth service keeps an
+     * auth session valid; renewal happens at 90% of it, counted from when the auth session
+     * was created, also for a reused cached one. A lifetime of 0 turns renewal off,
+     * which is the default. Only applies to username/password authentication.
+     */
+    public Session withAuthSessionRenewal(long lifetime, TimeUnit unit) {
+        this.authSessionLifetime = unit.toMillis(lifetime);
+        if (authSessionLifetime == 0) {
+            cancelScheduledRenewal();
+        }
+        return this;
+    }
+
     /**
      * Whether to attempt to reuse username/password session.
      */
@@ -181,12 +327,61 @@ public class Session {
 
     /**
      * Sets whether to use HTTP compression or not.
+     * <p/>
+     * Responses to GET requests are requested gzip-encoded. Request bodies of POST, PUT and
+     * DELETE requests are gzip-compressed if the service lists gzip in
+     * {@link ServiceStatus#getSupportedCompression()} and the body is at least
+     * {@link #withCompressionThreshold(int) the threshold} long.
      */
     public Session withCompression(boolean useCompression) {
         this.useCompression = useCompression;
         return this;
     }
 
+    /**
+     * Sets the minimum size in bytes of a request body to be compressed. Smaller bodies
+     * gain little and are sent as they are. Default is {@value #DEFAULT_COMPRESSION_THRESHOLD}.
+     */
+    public Session withCompressionThreshold(int bytes) {
+        this.compressionThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * Returns the ratio of original to sent size over all request bodies compressed
+     * by this session so far, e.g. 4.0 for 4:1, or 0 if none has been compressed.
+     */
+    public double getRequestCompressionRatio() {
+        long compressed = compressedBodyBytes.get();
+        return (compressed == 0) ? 0 : (double) compressibleBodyBytes.get() / compressed;
+    }
+
+    /**
+     * Returns the request timings of this session added up per endpoint, keyed by method and
+     * path, e.g. "GET document/processed" or "GET document/{id}". See {@link RequestTiming}
+     * for the phases.
+     */
+    public Map<String, RequestTimingStats> getTimingStats() {
+        return Collections.unmodifiableMap(timingStats);
+    }
+
+    public void resetTimingStats() {
+        timingStats.clear();
+    }
+
+    /**
+     * Sets how long calls of a category may take end to end, retries included.
+     * A timeout of 0 means no limit. See {@link RequestCategory} for the defaults.
+     */
+    public Session withTimeout(RequestCategory category, long timeout, TimeUnit unit) {
+        timeouts.put(category, unit.toMillis(timeout));
+        return this;
+    }
+
+    public long getTimeout(RequestCategory category, TimeUnit unit) {
+        return unit.convert(timeouts.get(category), TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Sets host to use for Semantria API service.
      */
@@ -198,6 +393,9 @@ public class Session {
             new_url = new_url.substring(0, new_url.length() - 1);
         }
         serviceUrl = new_url;
+        endpoints = null;
+        requestCompressionSupported = null;
+        compressionProbeRetryTime = 0;
         return this;
     }
 
@@ -242,10 +440,158 @@ public class Session {
      * properties to be appended into a single property.
      */
     public Session setHttpHeader(String key, String value) {
-        httpHeaders.put(key, value);
+        if (value == null) {
+            httpHeaders.remove(key);
+        } else {
+            httpHeaders.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Hands callback handler calls to {@code dispatcher} instead of making them on the thread
+     * that did the HTTP call, so that a slow handler doesn't hold up requests. The arguments
+     * are prepared before the call is dispatched. Pass null to call the handler directly,
+     * which is the default. The dispatcher may be shared by sessions; closing the session
+     * doesn't close it.
+     */
+    public Session withCallbackDispatcher(CallbackDispatcher dispatcher) {
+        this.callbackDispatcher = dispatcher;
+        return this;
+    }
+
+    public CallbackDispatcher getCallbackDispatcher() {
+        return callbackDispatcher;
+    }
+
+    /**
+     * Sets a listener that is told about each finished request: endpoint, status, sizes and
+     * timing. It is cheaper than a callback handler because bodies are only decoded if the
+     * listener asks for them. Like the callback handler, it runs on the callback dispatcher
+     * if one is set. Pass null to remove it.
+     */
+    public Session withRequestListener(IRequestListener listener) {
+        this.requestListener = listener;
+        return this;
+    }
+
+    public IRequestListener getRequestListener() {
+        return requestListener;
+    }
+
+    /**
+     * Sends this session's requests over connections kept in {@code pool}, with a
+     * {@link PooledTransport}. Several sessions may share one pool. Pass null, the default,
+     * to keep them in a pool with the default limits of the session's own.
+     */
+    public Session withConnectionPool(ConnectionPool pool) {
+        this.connectionPool = pool;
+        if (!customTransport) {
+            transport = null;
+        }
+        return this;
+    }
+
+    /**
+     * Returns the connection pool set with {@link #withConnectionPool(ConnectionPool)}, or null.
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Sets the TLS context used by this session's https connections. The context is
+     * created once and caches TLS sessions so that new connections can resume them.
+     */
+    public Session withTlsContext(TlsContext tlsContext) {
+        this.tlsContext = tlsContext;
+        if (!customTransport) {
+            transport = null;
+        }
+        return this;
+    }
+
+    public TlsContext getTlsContext() {
+        return tlsContext;
+    }
+
+    /**
+     * Sends requests over the Unix domain socket at {@code socketPath} to a local proxy that
+     * makes the TLS connections to the service, reusing connections from the session's pool
+     * or, without one, from a pool of the transport's own.
+     * Requires Java 16 or later. Pass null to connect directly again.
+     *
+     * @see UnixSocketTransport
+     */
+    public Session withUnixSocket(String socketPath) {
+        if ((socketPath != null) && !UnixSocketTransport.isSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+        }
+        this.unixSocketPath = socketPath;
+        if (!customTransport) {
+            transport = null;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the transport that sends this session's HTTP requests, for example an
+     * {@link com.semantria.transport.HttpClientTransport} for HTTP/2 on Java 11+.
+     * Pass null to go back to the default transport built on the session's
+     * TLS context and connection pool, if any.
+     */
+    public Session withTransport(ITransport transport) {
+        this.transport = transport;
+        this.customTransport = (transport != null);
         return this;
     }
 
+    /**
+     * Sets the executor that runs the blocking parts of asynchronous calls: requests over a
+     * transport that isn't an {@link IAsyncTransport}, setting up and renewing the auth
+     * session. Pass null to use the shared default: a new virtual thread per task on Java 21
+     * and later, a pool of daemon threads before that.
+     */
+    public Session withAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Returns the transport used by this session's requests.
+     */
+    public ITransport getTransport() {
+        if (transport == null) {
+            if (unixSocketPath != null) {
+                transport = new UnixSocketTransport(unixSocketPath, connectionPool);
+            } else {
+                // Not left to HttpURLConnection, whose cache keeps only http.maxConnections (5)
+                // idle connections per host, so busier sessions keep opening new ones
+                transport = new PooledTransport((connectionPool != null) ? connectionPool : new ConnectionPool(), tlsContext);
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Closes the idle connections held by this session's connection pool, or by the pool
+     * of the default transport.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        cancelScheduledRenewal();
+        ITransport transport = this.transport;
+        if (!customTransport && (transport instanceof PooledTransport)) {
+            ((PooledTransport) transport).getConnectionPool().close();
+            // Used again after all, the session builds a new transport, with a new pool unless one was set
+            this.transport = null;
+        }
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+    }
+
     // Compatibility with earlier non-fluent names ...
 
     /**
@@ -285,22 +631,26 @@ public class Session {
         this.serializer = serializer;
         if (null != serializer) {
             requestFormat = serializer.getType();
+            endpoints = null;
         }
         return this;
     }
 
     /**
-     * Returns the error message, if any, from the last request; return null if there was no error.
+     * Returns the error message, if any, from the last request the session finished; return
+     * null if there was no error.
      */
     public String getLastRequestErrorMessage() {
-        return lastRequestErrorMessage;
+        CallResult result = lastResult;
+        return (result == null) ? null : result.getErrorMessage();
     }
 
     /**
-     * Returns HTTP status of last request.
+     * Returns HTTP status of the last request the session finished.
      */
     public Integer getLastRequestStatus() {
-        return lastRequestStatus;
+        CallResult result = lastResult;
+        return (result == null) ? 0 : result.getStatus();
     }
 
     //</editor-fold>
@@ -313,16 +663,18 @@ public class Session {
      * @return Status object with a bunch of fields related to the API status.
      */
     public ServiceStatus getStatus() {
-        try {
-            AuthRequest req = makeAuthRequest("status", "GET");
-            Integer status = doRequest(req);
-            if (status <= 202) {
-                return (ServiceStatus) serializer.deserialize(req.getResponse(), ServiceStatus.class);
-            } else {
-                return null;
+        return coalesceGet("status", null, null, this::readStatus);
+    }
+
+    private ServiceStatus readStatus(GetResponse response) {
+        if (response.status <= 202) {
+            ServiceStatus serviceStatus = (ServiceStatus) response.parse(ServiceStatus.class);
+            if (serviceStatus != null) {
+                String supported = serviceStatus.getSupportedCompression();
+                requestCompressionSupported = (supported != null) && supported.toLowerCase().contains("gzip");
             }
-        } catch (CredentialException e) {
-            handleError(e.getStatus(), e.toString());
+            return serviceStatus;
+        } else {
             return null;
         }
     }
@@ -333,17 +685,23 @@ public class Session {
      * @return Subscription object with a bunch of subscription related fields.
      */
     public Subscription getSubscription() {
-        try {
-            AuthRequest req = makeAuthRequest("subscription", "GET");
-            Integer status = doRequest(req);
-            if (status < 300) {
-                return (Subscription) serializer.deserialize(req.getResponse(), Subscription.class);
-            } else {
-                return null;  // assume the error has been handled earlier
-            }
-        } catch (CredentialException e) {
-            handleError(e.getStatus(), e.toString());
-            return null;
+        return coalesceGet("subscription", null, null, this::readSubscription);
+    }
+
+    /**
+     * Like {@link #getSubscription()}, but also returns the outcome of this call, including
+     * the service's error message if the subscription couldn't be retrieved.
+     */
+    public ValueResult<Subscription> getSubscriptionForResult() {
+        return coalesceGet("subscription", null, null,
+                response -> new ValueResult<>(readSubscription(response), response.result));
+    }
+
+    private Subscription readSubscription(GetResponse response) {
+        if (response.status < 300) {
+            return (Subscription) response.parse(Subscription.class);
+        } else {
+            return null;  // assume the error has been handled earlier
         }
     }
 
@@ -407,7 +765,7 @@ public class Session {
                 return null;
             }
 
-            StatisticsOverallList statisticsList = (StatisticsOverallList) serializer.deserialize(req.getResponse(), StatisticsOverallList.class);
+            StatisticsOverallList statisticsList = (StatisticsOverallList) deserialize(req, StatisticsOverallList.class);
             List<StatisticsOverall> result = statisticsList.getStatistics();
 
             if (!result.isEmpty()) {
@@ -428,7 +786,7 @@ public class Session {
             if (status >= 300) {
                 return Collections.emptyList();
             }
-            StatisticsGroupedList statisticsList = (StatisticsGroupedList) serializer.deserialize(req.getResponse(), StatisticsGroupedList.class);
+            StatisticsGroupedList statisticsList = (StatisticsGroupedList) deserialize(req, StatisticsGroupedList.class);
             return statisticsList.getStatistics();
         } catch (CredentialException e) {
             handleError(e.getStatus(), e.toString());
@@ -460,19 +818,15 @@ public class Session {
      * @return list of supported features for each language offered by Semantria
      */
     public List<FeaturesSet> getSupportedFeatures(final String language) {
-        try {
-            AuthRequest req = makeAuthRequest("features", "GET")
-                    .language(language);
-            Integer status = doRequest(req);
-            if (status >= 300) {
-                return Collections.emptyList();
-            }
-            FeaturesList supportedFeatures = (FeaturesList) serializer.deserialize(req.getResponse(), FeaturesList.class);
-            return supportedFeatures.getFeatures();
-        } catch (CredentialException e) {
-            handleError(e.getStatus(), e.toString());
+        return coalesceGet("features", "language=" + language, req -> req.language(language), this::readSupportedFeatures);
+    }
+
+    private List<FeaturesSet> readSupportedFeatures(GetResponse response) {
+        if (response.status >= 300) {
             return Collections.emptyList();
         }
+        FeaturesList supportedFeatures = (FeaturesList) response.parse(FeaturesList.class);
+        return supportedFeatures.getFeatures();
     }
 
     //</editor-fold>
@@ -492,7 +846,7 @@ public class Session {
             if (status >= 300) {
                 return Collections.emptyList();
             }
-            Categories list = (Categories) serializer.deserialize(req.getResponse(), Categories.class);
+            Categories list = (Categories) deserialize(req, Categories.class);
             if (list != null) {
                 return list.getCategories();
             }
@@ -513,7 +867,7 @@ public class Session {
     public List<Category> addCategories(List<Category> categories, String config_id) {
         try {
             AuthRequest req = add(categories, "categories", config_id, Categories.class);
-            Categories list = (Categories) serializer.deserialize(req.getResponse(), Categories.class);
+            Categories list = (Categories) deserialize(req, Categories.class);
             if (list != null) {
                 return list.getCategories();
             } else {
@@ -535,7 +889,7 @@ public class Session {
     public List<Category> updateCategories(List<Category> categories, String config_id) {
         try {
             AuthRequest req = update(categories, "categories", config_id, Categories.class, "PUT");
-            Categories list = (Categories) serializer.deserialize(req.getResponse(), Categories.class);
+            Categories list = (Categories) deserialize(req, Categories.class);
             if (list != null) {
                 return list.getCategories();
             } else {
@@ -575,7 +929,7 @@ public class Session {
             if (status >= 300) {
                 return Collections.emptyList();
             }
-            Queries list = (Queries) serializer.deserialize(req.getResponse(), Queries.class);
+            Queries list = (Queries) deserialize(req, Queries.class);
 
             if (list != null) {
                 return list.getQueries();
@@ -598,7 +952,7 @@ public class Session {
     public List<Query> addQueries(List<Query> queries, String config_id) {
         try {
             AuthRequest req = add(queries, "queries", config_id, Queries.class);
-            Queries list = (Queries) serializer.deserialize(req.getResponse(), Queries.class);
+            Queries list = (Queries) deserialize(req, Queries.class);
             if (list != null) {
                 return list.getQueries();
             }
@@ -619,7 +973,7 @@ public class Session {
     public List<Query> updateQueries(List<Query> queries, String config_id) {
         try {
             AuthRequest req = update(queries, "queries", config_id, Queries.class, "PUT");
-            Queries list = (Queries) serializer.deserialize(req.getResponse(), Queries.class);
+            Queries list = (Queries) deserialize(req, Queries.class);
             if (list != null) {
                 return list.getQueries();
             }
@@ -658,7 +1012,7 @@ public class Session {
             if (status >= 300) {
                 return Collections.emptyList();
             }
-            SentimentPhrases list = (SentimentPhrases) serializer.deserialize(req.getResponse(), SentimentPhrases.class);
+            SentimentPhrases list = (SentimentPhrases) deserialize(req, SentimentPhrases.class);
             if (list != null) {
                 return list.getSentimentPhrases();
             }
@@ -679,7 +1033,7 @@ public class Session {
     public List<SentimentPhrase> addSentimentPhrases(List<SentimentPhrase> phrases, String config_id) {
         try {
             AuthRequest req = add(phrases, "phrases", config_id, SentimentPhrases.class);
-            SentimentPhrases list = (SentimentPhrases) serializer.deserialize(req.getResponse(), SentimentPhrases.class);
+            SentimentPhrases list = (SentimentPhrases) deserialize(req, SentimentPhrases.class);
             if (list != null) {
                 return list.getSentimentPhrases();
             }
@@ -700,7 +1054,7 @@ public class Session {
     public List<SentimentPhrase> updateSentimentPhrases(List<SentimentPhrase> phrases, String config_id) {
         try {
             AuthRequest req = update(phrases, "phrases", config_id, SentimentPhrases.class, "PUT");
-            SentimentPhrases list = (SentimentPhrases) serializer.deserialize(req.getResponse(), SentimentPhrases.class);
+            SentimentPhrases list = (SentimentPhrases) deserialize(req, SentimentPhrases.class);
             if (list != null) {
                 return list.getSentimentPhrases();
             }
@@ -739,7 +1093,7 @@ public class Session {
             if (status >= 300) {
                 return Collections.emptyList();
             }
-            Blacklists list = (Blacklists) serializer.deserialize(req.getResponse(), Blacklists.class);
+            Blacklists list = (Blacklists) deserialize(req, Blacklists.class);
 
             if (list != null) {
                 return list.getBlacklist();
@@ -761,7 +1115,7 @@ public class Session {
     public List<BlacklistItem> addBlacklist(List<BlacklistItem> blacklistItems, String config_id) {
         try {
             AuthRequest req = add(blacklistItems, "blacklist", config_id, Blacklists.class);
-            Blacklists list = (Blacklists) serializer.deserialize(req.getResponse(), Blacklists.class);
+            Blacklists list = (Blacklists) deserialize(req, Blacklists.class);
             if (list != null) {
                 return list.getBlacklist();
             }
@@ -782,7 +1136,7 @@ public class Session {
     public List<BlacklistItem> updateBlacklist(List<BlacklistItem> blacklistItems, String config_id) {
         try {
             AuthRequest req = update(blacklistItems, "blacklist", config_id, Blacklists.class, "PUT");
-            Blacklists list = (Blacklists) serializer.deserialize(req.getResponse(), Blacklists.class);
+            Blacklists list = (Blacklists) deserialize(req, Blacklists.class);
             if (list != null) {
                 return list.getBlacklist();
             }
@@ -821,7 +1175,7 @@ public class Session {
             if (status >= 300) {
                 return Collections.emptyList();
             }
-            UserEntities list = (UserEntities) serializer.deserialize(req.getResponse(), UserEntities.class);
+            UserEntities list = (UserEntities) deserialize(req, UserEntities.class);
 
             if (list != null) {
                 return list.getEntities();
@@ -843,7 +1197,7 @@ public class Session {
     public List<UserEntity> addEntities(List<UserEntity> entities, String config_id) {
         try {
             AuthRequest req = add(entities, "entities", config_id, UserEntities.class);
-            UserEntities list = (UserEntities) serializer.deserialize(req.getResponse(), UserEntities.class);
+            UserEntities list = (UserEntities) deserialize(req, UserEntities.class);
             if (list != null) {
                 return list.getEntities();
             }
@@ -864,7 +1218,7 @@ public class Session {
     public List<UserEntity> updateEntities(List<UserEntity> entities, String config_id) {
         try {
             AuthRequest req = update(entities, "entities", config_id, UserEntities.class, "PUT");
-            UserEntities list = (UserEntities) serializer.deserialize(req.getResponse(), UserEntities.class);
+            UserEntities list = (UserEntities) deserialize(req, UserEntities.class);
             if (list != null) {
                 return list.getEntities();
             }
@@ -903,7 +1257,7 @@ public class Session {
             if (status >= 300) {
                 return Collections.emptyList();
             }
-            Taxonomies list = (Taxonomies) serializer.deserialize(req.getResponse(), Taxonomies.class);
+            Taxonomies list = (Taxonomies) deserialize(req, Taxonomies.class);
 
             if (list != null) {
                 return list.getTaxonomies();
@@ -925,7 +1279,7 @@ public class Session {
     public List<TaxonomyNode> addTaxonomy(List<TaxonomyNode> nodes, String config_id) {
         try {
             AuthRequest req = add(nodes, "taxonomy", config_id, Taxonomies.class);
-            Taxonomies list = (Taxonomies) serializer.deserialize(req.getResponse(), Taxonomies.class);
+            Taxonomies list = (Taxonomies) deserialize(req, Taxonomies.class);
             if (list != null) {
                 return list.getTaxonomies();
             }
@@ -946,7 +1300,7 @@ public class Session {
     public List<TaxonomyNode> updateTaxonomy(List<TaxonomyNode> nodes, String config_id) {
         try {
             AuthRequest req = update(nodes, "taxonomy", config_id, Taxonomies.class, "PUT");
-            Taxonomies list = (Taxonomies) serializer.deserialize(req.getResponse(), Taxonomies.class);
+            Taxonomies list = (Taxonomies) deserialize(req, Taxonomies.class);
             if (list != null) {
                 return list.getTaxonomies();
             }
@@ -978,22 +1332,19 @@ public class Session {
      * @return The list of configurations.
      */
     public List<Configuration> getConfigurations() {
-        try {
-            AuthRequest req = makeAuthRequest("configurations", "GET");
-            Integer status = doRequest(req);
-            if (status >= 300) {
-                return Collections.emptyList();
-            }
-            Configurations list = (Configurations) serializer.deserialize(req.getResponse(), Configurations.class);
+        return coalesceGet("configurations", null, null, this::readConfigurations);
+    }
 
-            if (list != null) {
-                return list.getConfigurations();
-            }
-            return Collections.emptyList();
-        } catch (CredentialException e) {
-            handleError(e.getStatus(), e.toString());
+    private List<Configuration> readConfigurations(GetResponse response) {
+        if (response.status >= 300) {
             return Collections.emptyList();
         }
+        Configurations list = (Configurations) response.parse(Configurations.class);
+
+        if (list != null) {
+            return list.getConfigurations();
+        }
+        return Collections.emptyList();
     }
 
     /**
@@ -1013,7 +1364,7 @@ public class Session {
             }
 
             AuthRequest req = add(configurations, "configurations", null, Configurations.class);
-            Configurations list = (Configurations) serializer.deserialize(req.getResponse(), Configurations.class);
+            Configurations list = (Configurations) deserialize(req, Configurations.class);
             if (list != null) {
                 return list.getConfigurations();
             }
@@ -1041,7 +1392,7 @@ public class Session {
             configurations.add(configuration);
 
             AuthRequest req = add(configurations, "configurations", null, Configurations.class);
-            Configurations list = (Configurations) serializer.deserialize(req.getResponse(), Configurations.class);
+            Configurations list = (Configurations) deserialize(req, Configurations.class);
             if (list != null) {
                 return list.getConfigurations().get(0);
             } else {
@@ -1062,7 +1413,7 @@ public class Session {
     public List<Configuration> updateConfigurations(List<Configuration> configurations) {
         try {
             AuthRequest req = update(configurations, "configurations", null, Configurations.class, "PUT");
-            Configurations list = (Configurations) serializer.deserialize(req.getResponse(), Configurations.class);
+            Configurations list = (Configurations) deserialize(req, Configurations.class);
             if (list != null) {
                 return list.getConfigurations();
             }
@@ -1095,15 +1446,21 @@ public class Session {
      * @return Operation execution result, actually HTTP status code.
      */
     public Integer queueDocument(Document task, String config_id) {
+        return queueDocumentForResult(task, config_id).getStatus();
+    }
+
+    /**
+     * Like {@link #queueDocument(Document, String)}, but returns the outcome of this call,
+     * including the service's error message if the document was rejected.
+     */
+    public CallResult queueDocumentForResult(Document task, String config_id) {
         try {
             String body = serializer.serialize(task);
             AuthRequest req = makeAuthRequest("document", "POST", config_id)
                     .body(body);
-            Integer status = doRequest(req, body, true, false);
-            return status;
+            return call(req, body, true, false);
         } catch (CredentialException e) {
-            handleError(e.getStatus(), e.toString());
-            return e.getStatus();
+            return credentialFailure("POST document", e);
         }
     }
 
@@ -1116,12 +1473,11 @@ public class Session {
      */
     public DocAnalyticData getDocument(String id, String config_id) {
         try {
-            String path = generateRequestPathWithId("document", id);
-            AuthRequest req = makeAuthRequest(path, "GET", config_id);
+            AuthRequest req = makeAuthRequestForId("document", id, "GET", config_id);
             Integer status = doRequest(req);
             DocAnalyticData result = null;
             if (200 == status) {
-                result = (DocAnalyticData) serializer.deserialize(req.getResponse(), DocAnalyticData.class);
+                result = (DocAnalyticData) deserialize(req, DocAnalyticData.class);
             }
             return result;
         } catch (CredentialException e) {
@@ -1139,8 +1495,7 @@ public class Session {
      */
     public Integer cancelDocument(String id, String config_id) {
         try {
-            String path = generateRequestPathWithId("document", id);
-            AuthRequest req = makeAuthRequest(path, "DELETE", config_id);
+            AuthRequest req = makeAuthRequestForId("document", id, "DELETE", config_id);
             Integer status = doRequest(req);
             return status;
         } catch (CredentialException e) {
@@ -1157,6 +1512,14 @@ public class Session {
      * @return Operation execution result, actually HTTP status code.
      */
     public Integer QueueBatchOfDocuments(List<Document> tasks, String config_id) {
+        return queueBatchForResult(tasks, config_id).getStatus();
+    }
+
+    /**
+     * Like {@link #QueueBatchOfDocuments(List, String)}, but returns the outcome of this call,
+     * including the service's error message if the batch was rejected.
+     */
+    public CallResult queueBatchForResult(List<Document> tasks, String config_id) {
         try {
             String body = null;
             if (serializer instanceof JsonSerializer) {
@@ -1167,7 +1530,43 @@ public class Session {
 
             AuthRequest req = makeAuthRequest("document/batch", "POST", config_id)
                     .body(body);
-            Integer status = doRequest(req, body, true, false);
+            return call(req, body, true, false);
+        } catch (CredentialException e) {
+            return credentialFailure("POST document/batch", e);
+        }
+    }
+
+    /**
+     * Queues a batch of documents for analysis, serializing them straight to the connection.
+     * Unlike {@link #QueueBatchOfDocuments(List, String)} the batch is never held in memory
+     * as a whole, so {@code tasks} may be a lazy view that produces documents on demand.
+     * <p/>
+     * {@code tasks} is iterated once per attempt; a request that is retried after the
+     * session is renewed iterates it again. The request callback receives no message body.
+     * XML batches need a list and are collected before they are written.
+     *
+     * @param tasks     Documents to be analyzed.
+     * @param config_id Optional configuration ID. If not provided, primary configuration will be used for analysis.
+     * @return Operation execution result, actually HTTP status code.
+     */
+    public Integer queueBatchStreaming(final Iterable<Document> tasks, String config_id) {
+        try {
+            AuthRequest req = makeAuthRequest("document/batch", "POST", config_id)
+                    .body(new IBodyWriter() {
+                        @Override
+                        public void writeTo(OutputStream out) throws IOException {
+                            if (serializer instanceof XmlSerializer) {
+                                List<Document> list = new ArrayList<>();
+                                for (Document task : tasks) {
+                                    list.add(task);
+                                }
+                                serializer.serialize(ObjProxy.wrap(list, Batch.class, "POST"), out);
+                            } else {
+                                serializer.serialize(tasks, out);
+                            }
+                        }
+                    });
+            Integer status = doRequest(req, null, true, false);
             return status;
         } catch (CredentialException e) {
             handleError(e.getStatus(), e.toString());
@@ -1182,20 +1581,20 @@ public class Session {
      * @return The list of document analysis results retrieved from the server for recently queued documents.
      */
     public List<DocAnalyticData> getProcessedDocuments(String config_id) {
+        return getProcessedDocumentsForResult(config_id).getValue();
+    }
+
+    /**
+     * Like {@link #getProcessedDocuments(String)}, but also returns the outcome of this call,
+     * so that an empty list can be told apart from a failed poll.
+     */
+    public ValueResult<List<DocAnalyticData>> getProcessedDocumentsForResult(String config_id) {
         try {
             AuthRequest req = makeAuthRequest("document/processed", "GET", config_id);
-            Integer status = doRequest(req);
-
-            if (200 == status) {
-                DocsAnalyticData taskList = (DocsAnalyticData) serializer.deserialize(req.getResponse(), DocsAnalyticData.class);
-                if (taskList != null) {
-                    return taskList.getDocuments();
-                }
-            }
-            return Collections.emptyList();
+            CallResult result = call(req, null, false, false);
+            return new ValueResult<>(getProcessedDocuments(req), result);
         } catch (CredentialException e) {
-            handleError(e.getStatus(), e.toString());
-            return Collections.emptyList();
+            return new ValueResult<>(Collections.<DocAnalyticData>emptyList(), credentialFailure("GET document/processed", e));
         }
     }
 
@@ -1206,21 +1605,21 @@ public class Session {
      * @return The list of document analysis results retrieved from the server for the given Job ID.
      */
     public List<DocAnalyticData> getProcessedDocumentsByJobId(final String jobId) {
+        return getProcessedDocumentsByJobIdForResult(jobId).getValue();
+    }
+
+    /**
+     * Like {@link #getProcessedDocumentsByJobId(String)}, but also returns the outcome of this
+     * call, so that an empty list can be told apart from a failed poll.
+     */
+    public ValueResult<List<DocAnalyticData>> getProcessedDocumentsByJobIdForResult(final String jobId) {
         try {
             AuthRequest req = makeAuthRequest("document/processed", "GET")
                     .job_id(jobId);
-            Integer status = doRequest(req);
-
-            if (200 == status) {
-                DocsAnalyticData taskList = (DocsAnalyticData) serializer.deserialize(req.getResponse(), DocsAnalyticData.class);
-                if (taskList != null) {
-                    return taskList.getDocuments();
-                }
-            }
-            return Collections.emptyList();
+            CallResult result = call(req, null, false, false);
+            return new ValueResult<>(getProcessedDocuments(req), result);
         } catch (CredentialException e) {
-            handleError(e.getStatus(), e.toString());
-            return Collections.emptyList();
+            return new ValueResult<>(Collections.<DocAnalyticData>emptyList(), credentialFailure("GET document/processed", e));
         }
     }
 
@@ -1236,11 +1635,43 @@ public class Session {
      * @return Operation execution result, actually HTTP status code.
      */
     public Integer queueCollection(Collection collection, String config_id) {
+        return queueCollectionForResult(collection, config_id).getStatus();
+    }
+
+    /**
+     * Like {@link #queueCollection(Collection, String)}, but returns the outcome of this call,
+     * including the service's error message if the collection was rejected.
+     */
+    public CallResult queueCollectionForResult(Collection collection, String config_id) {
         try {
             String body = serializer.serialize(collection);
             AuthRequest req = makeAuthRequest("collection", "POST", config_id)
                     .body(body);
-            Integer status = doRequest(req, body, true, true);
+            return call(req, body, true, true);
+        } catch (CredentialException e) {
+            return credentialFailure("POST collection", e);
+        }
+    }
+
+    /**
+     * Queues the collection for analysis, serializing it straight to the connection. The
+     * collection's documents may come from a lazy view; they are read once per attempt
+     * while the request is being sent. The request callback receives no message body.
+     *
+     * @param collection Collection to be analyzed.
+     * @param config_id  Optional configuration ID. If not provided, primary configuration will be used for analysis.
+     * @return Operation execution result, actually HTTP status code.
+     */
+    public Integer queueCollectionStreaming(final Collection collection, String config_id) {
+        try {
+            AuthRequest req = makeAuthRequest("collection", "POST", config_id)
+                    .body(new IBodyWriter() {
+                        @Override
+                        public void writeTo(OutputStream out) throws IOException {
+                            serializer.serialize(collection, out);
+                        }
+                    });
+            Integer status = doRequest(req, null, true, true);
             return status;
         } catch (CredentialException e) {
             handleError(e.getStatus(), e.toString());
@@ -1257,12 +1688,11 @@ public class Session {
      */
     public CollAnalyticData getCollection(String id, String config_id) {
         try {
-            String path = generateRequestPathWithId("collection", id);
-            AuthRequest req = makeAuthRequest(path, "GET", config_id);
+            AuthRequest req = makeAuthRequestForId("collection", id, "GET", config_id);
             Integer status = doRequest(req);
             CollAnalyticData result = null;
             if (200 == status) {
-                result = (CollAnalyticData) serializer.deserialize(req.getResponse(), CollAnalyticData.class);
+                result = (CollAnalyticData) deserialize(req, CollAnalyticData.class);
 
             }
             return result;
@@ -1281,8 +1711,7 @@ public class Session {
      */
     public Integer cancelCollection(String id, String config_id) {
         try {
-            String path = generateRequestPathWithId("collection", id);
-            AuthRequest req = makeAuthRequest(path, "DELETE", config_id);
+            AuthRequest req = makeAuthRequestForId("collection", id, "DELETE", config_id);
             Integer status = doRequest(req);
             return status;
         } catch (CredentialException e) {
@@ -1303,7 +1732,7 @@ public class Session {
             Integer status = doRequest(req);
 
             if (200 == status) {
-                CollsAnalyticData taskList = (CollsAnalyticData) serializer.deserialize(req.getResponse(), CollsAnalyticData.class);
+                CollsAnalyticData taskList = (CollsAnalyticData) deserialize(req, CollsAnalyticData.class);
                 if (taskList != null) {
                     return taskList.getDocuments();
                 }
@@ -1329,7 +1758,7 @@ public class Session {
             Integer status = doRequest(req);
 
             if (200 == status) {
-                CollsAnalyticData taskList = (CollsAnalyticData) serializer.deserialize(req.getResponse(), CollsAnalyticData.class);
+                CollsAnalyticData taskList = (CollsAnalyticData) deserialize(req, CollsAnalyticData.class);
                 if (taskList != null) {
                     return taskList.getDocuments();
                 }
@@ -1412,53 +1841,355 @@ public class Session {
     }
 
     public Integer doRequest(AuthRequest req, String message, boolean do_autoresponse, boolean is_collection) throws CredentialException {
+        return call(req, message, do_autoresponse, is_collection).getStatus();
+    }
+
+    // Sends the request and returns the outcome of this call, which concurrent calls can't overwrite.
+    private CallResult call(AuthRequest req, String message, boolean do_autoresponse, boolean is_collection) throws CredentialException {
         handleRequest(req, message);
-        Integer status = doRequestWithRetry(req);
-        lastRequestStatus = status;
-        if (do_autoresponse) {
-            onAutoResponse(status, req, is_collection);
-        } else {
-            handleResponse(status, req);
+        doRequestWithRetry(req);
+        requestFinished(req);
+        CallResult result = getCallResult(req);
+        lastResult = result;
+        completeRequest(req, do_autoresponse, is_collection);
+        return result;
+    }
+
+    private CallResult credentialFailure(String endpoint, CredentialException e) {
+        handleError(e.getStatus(), e.toString());
+        CallResult result = new CallResult(endpoint, e.getStatus(), e.toString(), null);
+        lastResult = result;
+        return result;
+    }
+
+
+    //</editor-fold>
+
+    //<editor-fold desc="Asynchronous methods">
+
+    // Each of these does the same as its blocking counterpart and returns the same result
+    // through the future. Errors are reported to the callback handler's onError as usual and
+    // the future then completes with the status, null or an empty list. The future completes
+    // on the thread that finished the request unless a callback executor is given. Like the
+    // blocking calls they update getLastRequestStatus(), which concurrent callers can't rely
+    // on; queueBatchForResultAsync completes with the outcome of its own call instead.
+
+    /**
+     * Asynchronous {@link #queueDocument(Document, String)}.
+     */
+    public CompletableFuture<Integer> queueDocumentAsync(Document task, String config_id) {
+        return queueDocumentAsync(task, config_id, null);
+    }
+
+    /**
+     * Asynchronous {@link #queueDocument(Document, String)}.
+     *
+     * @param callbackExecutor Executor to complete the future and run the callback handler on, or null.
+     */
+    public CompletableFuture<Integer> queueDocumentAsync(Document task, final String config_id, Executor callbackExecutor) {
+        final String body = serializer.serialize(task);
+        CompletableFuture<AuthRequest> call = makeAuthRequestAsync("document", "POST")
+                .thenCompose(req -> doRequestAsync(req.config_id(config_id).body(body), body));
+        return completeAsync(call, true, AuthRequest::getStatus, status -> status, callbackExecutor);
+    }
+
+    /**
+     * Asynchronous {@link #QueueBatchOfDocuments(List, String)}.
+     */
+    public CompletableFuture<Integer> queueBatchAsync(List<Document> tasks, String config_id) {
+        return queueBatchAsync(tasks, config_id, null);
+    }
+
+    /**
+     * Asynchronous {@link #QueueBatchOfDocuments(List, String)}.
+     *
+     * @param callbackExecutor Executor to complete the future and run the callback handler on, or null.
+     */
+    public CompletableFuture<Integer> queueBatchAsync(List<Document> tasks, final String config_id, Executor callbackExecutor) {
+        return completeAsync(sendBatchAsync(tasks, config_id), true, AuthRequest::getStatus, status -> status, callbackExecutor);
+    }
+
+    /**
+     * Like {@link #queueBatchAsync(List, String)}, but completes with the outcome of the call,
+     * including the service's error message if the batch was rejected.
+     */
+    public CompletableFuture<CallResult> queueBatchForResultAsync(List<Document> tasks, String config_id) {
+        return completeAsync(sendBatchAsync(tasks, config_id), true, Session::getCallResult,
+                status -> new CallResult("POST document/batch", status, "Request failed with status " + status, null), null);
+    }
+
+    private CompletableFuture<AuthRequest> sendBatchAsync(List<Document> tasks, final String config_id) {
+        String serialized = null;
+        if (serializer instanceof JsonSerializer) {
+            serialized = serializer.serialize(tasks);
+        } else if (serializer instanceof XmlSerializer) {
+            serialized = serializer.serialize(ObjProxy.wrap(tasks, Batch.class, "POST"));
         }
-        lastRequestErrorMessage = (status < 300) ? null : req.getErrorMessage();
-        return status;
+        final String body = serialized;
+        return makeAuthRequestAsync("document/batch", "POST")
+                .thenCompose(req -> doRequestAsync(req.config_id(config_id).body(body), body));
     }
 
+    /**
+     * Asynchronous {@link #getDocument(String, String)}.
+     */
+    public CompletableFuture<DocAnalyticData> getDocumentAsync(String id, String config_id) {
+        return getDocumentAsync(id, config_id, null);
+    }
+
+    /**
+     * Asynchronous {@link #getDocument(String, String)}.
+     *
+     * @param callbackExecutor Executor to complete the future, run the callback handler and deserialize on, or null.
+     */
+    public CompletableFuture<DocAnalyticData> getDocumentAsync(String id, final String config_id, Executor callbackExecutor) {
+        CompletableFuture<AuthRequest> call = makeAuthRequestForIdAsync("document", id, "GET")
+                .thenCompose(req -> doRequestAsync(req.config_id(config_id), null));
+        return completeAsync(call, false,
+                req -> (200 == req.getStatus()) ? (DocAnalyticData) deserialize(req, DocAnalyticData.class) : null,
+                status -> null, callbackExecutor);
+    }
+
+    /**
+     * Asynchronous {@link #getProcessedDocuments(String)}.
+     */
+    public CompletableFuture<List<DocAnalyticData>> getProcessedDocumentsAsync(String config_id) {
+        return getProcessedDocumentsAsync(config_id, null);
+    }
+
+    /**
+     * Asynchronous {@link #getProcessedDocuments(String)}.
+     *
+     * @param callbackExecutor Executor to complete the future, run the callback handler and deserialize on, or null.
+     */
+    public CompletableFuture<List<DocAnalyticData>> getProcessedDocumentsAsync(final String config_id, Executor callbackExecutor) {
+        CompletableFuture<AuthRequest> call = makeAuthRequestAsync("document/processed", "GET")
+                .thenCompose(req -> doRequestAsync(req.config_id(config_id), null));
+        return completeAsync(call, false, this::getProcessedDocuments, status -> Collections.<DocAnalyticData>emptyList(), callbackExecutor);
+    }
+
+    /**
+     * Asynchronous {@link #getProcessedDocumentsByJobId(String)}.
+     */
+    public CompletableFuture<List<DocAnalyticData>> getProcessedDocumentsByJobIdAsync(String jobId) {
+        return getProcessedDocumentsByJobIdAsync(jobId, null);
+    }
+
+    /**
+     * Asynchronous {@link #getProcessedDocumentsByJobId(String)}.
+     *
+     * @param callbackExecutor Executor to complete the future, run the callback handler and deserialize on, or null.
+     */
+    public CompletableFuture<List<DocAnalyticData>> getProcessedDocumentsByJobIdAsync(final String jobId, Executor callbackExecutor) {
+        CompletableFuture<AuthRequest> call = makeAuthRequestAsync("document/processed", "GET")
+                .thenCompose(req -> doRequestAsync(req.job_id(jobId), null));
+        return completeAsync(call, false, this::getProcessedDocuments, status -> Collections.<DocAnalyticData>emptyList(), callbackExecutor);
+    }
+
+    /**
+     * Asynchronous {@link #getCollection(String, String)}.
+     */
+    public CompletableFuture<CollAnalyticData> getCollectionAsync(String id, String config_id) {
+        return getCollectionAsync(id, config_id, null);
+    }
+
+    /**
+     * Asynchronous {@link #getCollection(String, String)}.
+     *
+     * @param callbackExecutor Executor to complete the future, run the callback handler and deserialize on, or null.
+     */
+    public CompletableFuture<CollAnalyticData> getCollectionAsync(String id, final String config_id, Executor callbackExecutor) {
+        CompletableFuture<AuthRequest> call = makeAuthRequestForIdAsync("collection", id, "GET")
+                .thenCompose(req -> doRequestAsync(req.config_id(config_id), null));
+        return completeAsync(call, false,
+                req -> (200 == req.getStatus()) ? (CollAnalyticData) deserialize(req, CollAnalyticData.class) : null,
+                status -> null, callbackExecutor);
+    }
 
     //</editor-fold>
 
     //<editor-fold desc="Private methods">
 
+    // The retry shares the request's deadline, so renewing the session can't extend the call.
     private Integer doRequestWithRetry(AuthRequest req) throws CredentialException {
         Integer status = req.doRequest();
-        if ((status >= 400) && (req.getErrorMessage().contains("E0100202"))) {
-            refreshSession();
-            req.key(key).secret(secret);
+        if (isAuthSessionExpired(req, status)) {
+            req.signer(renewAuthSession(req.getSigner(), req.getDeadline(), reuseCachedSession));
             status = req.doRequest();
         }
         return status;
     }
 
+    private static CallResult getCallResult(AuthRequest req) {
+        int status = req.getStatus();
+        return new CallResult(req.getEndpoint(), status, (status < 300) ? null : req.getErrorMessage(), req.getTiming());
+    }
+
+    private static boolean isAuthSessionExpired(AuthRequest req, Integer status) {
+        return (status >= 400) && (req.getErrorMessage() != null) && (req.getErrorMessage().contains("E0100202"))
+                && ((req.getDeadline() == null) || !req.getDeadline().isExpired());
+    }
+
+    // Records the outcome of a finished request and hands it to the callback handler.
+    private void completeRequest(AuthRequest req, boolean do_autoresponse, boolean is_collection) {
+        Integer status = req.getStatus();
+        if (req.isBodyCompressed()) {
+            compressibleBodyBytes.addAndGet(req.getBodySize());
+            compressedBodyBytes.addAndGet(req.getSentBodySize());
+        }
+        if (do_autoresponse) {
+            onAutoResponse(status, req, is_collection);
+        } else {
+            handleResponse(status, req);
+        }
+    }
+
+    // Sends the request, retrying it once with a new auth session like doRequestWithRetry.
+    private CompletableFuture<AuthRequest> doRequestAsync(final AuthRequest req, String message) {
+        handleRequest(req, message);
+        final Executor executor = getAsyncExecutor();
+        return req.doRequestAsync(executor).thenCompose(status -> {
+            if (!isAuthSessionExpired(req, status)) {
+                return CompletableFuture.completedFuture(status);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return renewAuthSession(req.getSigner(), req.getDeadline(), reuseCachedSession);
+                } catch (CredentialException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor).thenCompose(signer -> req.signer(signer).doRequestAsync(executor));
+        }).thenApply(status -> req);
+    }
+
+    /**
+     * Turns the outcome of an asynchronous call into its result, in one step that runs on
+     * {@code callbackExecutor} if there is one. Like the blocking methods, the future
+     * completes normally when the call fails: the error goes to the callback handler's
+     * onError and {@code onFailure} provides the result.
+     */
+    private <T> CompletableFuture<T> completeAsync(CompletableFuture<AuthRequest> call,
+                                                   final boolean do_autoresponse,
+                                                   final Function<AuthRequest, T> onResponse,
+                                                   final Function<Integer, T> onFailure,
+                                                   Executor callbackExecutor) {
+        BiFunction<AuthRequest, Throwable, T> complete = (req, e) -> {
+            if (e == null) {
+                requestFinished(req);
+                lastResult = getCallResult(req);
+                completeRequest(req, do_autoresponse, false);
+                return onResponse.apply(req);
+            }
+            Throwable cause = ((e instanceof CompletionException) && (e.getCause() != null)) ? e.getCause() : e;
+            if (cause instanceof CredentialException) {
+                CredentialException ce = (CredentialException) cause;
+                handleError(ce.getStatus(), ce.toString());
+                return onFailure.apply(ce.getStatus());
+            }
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new CompletionException(cause);
+        };
+        return (callbackExecutor == null) ? call.handle(complete) : call.handleAsync(complete, callbackExecutor);
+    }
+
+    // Also used by SessionPool to poll its sessions side by side
+    Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return (executor != null) ? executor : AsyncExecutor.INSTANCE;
+    }
+
+    /**
+     * Returns the signer for the credentials in use. It is created once and replaced only
+     * when the credentials change, e.g. after the auth session is renewed.
+     */
+    private OAuthSigner getSigner() {
+        OAuthSigner current = credentials.get();
+        if (current == null) {
+            current = new OAuthSigner(key, secret);
+            if (!credentials.compareAndSet(null, current)) {
+                current = credentials.get();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Body compression needs gzip support on the service side, which is looked up once
+     * with a status request the first time a request with a body is made.
+     */
+    private boolean isRequestCompressionEnabled(String method, Deadline deadline) {
+        if (!useCompression || "GET".equalsIgnoreCase(method)) {
+            return false;
+        }
+        Boolean supported = requestCompressionSupported;
+        return (supported != null) ? supported : probeRequestCompression(deadline);
+    }
+
+    // Whether a request with a body can be built without waiting for the compression check
+    private boolean isRequestCompressionKnown(String method) {
+        return !useCompression || "GET".equalsIgnoreCase(method) || (requestCompressionSupported != null)
+                || (System.nanoTime() - compressionProbeRetryTime < 0);
+    }
+
+    // Asks the service, under the caller's deadline, whether it takes gzip request bodies.
+    // Only one caller asks at a time; the others wait for its answer as long as their own
+    // deadline allows. The request is internal: it doesn't reach the callback handler or the
+    // request listener. A failed one means no compression until it's tried again after the
+    // retry delay.
+    private boolean probeRequestCompression(Deadline deadline) {
+        while (true) {
+            Boolean known = requestCompressionSupported;
+            if (known != null) {
+                return known;
+            }
+            if (System.nanoTime() - compressionProbeRetryTime < 0) {
+                return false;
+            }
+            CompletableFuture<Boolean> inFlight = compressionProbe.get();
+            if (inFlight != null) {
+                return Boolean.TRUE.equals(awaitShared(inFlight, deadline));
+            }
+            CompletableFuture<Boolean> own = new CompletableFuture<>();
+            if (compressionProbe.compareAndSet(null, own)) {
+                boolean supported = false;
+                try {
+                    Boolean answer = sendCompressionProbe(deadline);
+                    if (answer != null) {
+                        requestCompressionSupported = answer;
+                        supported = answer;
+                    } else {
+                        compressionProbeRetryTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelay);
+                    }
+                    return supported;
+                } finally {
+                    compressionProbe.set(null);
+                    own.complete(supported);
+                }
+            }
+        }
+    }
+
+    // Returns null if the status request failed
+    private Boolean sendCompressionProbe(Deadline deadline) {
+        try {
+            AuthRequest req = buildAuthRequest(getEndpoints().url("status"), "GET", "status", deadline);
+            if (doRequestWithRetry(req) <= 202) {
+                ServiceStatus status = (ServiceStatus) deserialize(req, ServiceStatus.class);
+                String compression = (status != null) ? status.getSupportedCompression() : null;
+                return (compression != null) && compression.toLowerCase().contains("gzip");
+            }
+            log.debug("Status request failed with {}, sending request bodies uncompressed for now", req.getStatus());
+        } catch (CredentialException | RuntimeException e) {
+            log.debug("Status request failed, sending request bodies uncompressed for now", e);
+        }
+        return null;
+    }
+
     public AuthRequest makeAuthRequestLiteral(String path, String method) throws CredentialException {
-        String url = generateRequestUrl(path, null);
-        ensureKeyAndSecret();
-        return AuthRequest.getInstance(url, method)
-                .key(key)
-                .secret(secret)
-                .apiVersion(apiVersion)
-                .headers(httpHeaders)
-                .useCompression(useCompression);
+        return newAuthRequest(generateRequestUrl(path, null), method, RequestCategory.OTHER, path);
     }
 
     public AuthRequest makeAuthRequest(String path, String method) throws CredentialException {
-        String url = generateRequestUrl(path, requestFormat);
-        ensureKeyAndSecret();
-        return AuthRequest.getInstance(url, method)
-                .key(key)
-                .secret(secret)
-                .apiVersion(apiVersion)
-                .headers(httpHeaders)
-                .useCompression(useCompression);
+        return newAuthRequest(getEndpoints().url(path), method, RequestCategory.of(path, method), path);
     }
 
     public AuthRequest makeAuthRequest(String path, String method, String config_id) throws CredentialException {
@@ -1466,6 +2197,187 @@ public class Session {
                 .config_id(config_id);
     }
 
+    private AuthRequest makeAuthRequestForId(String path, String id, String method, String config_id) throws CredentialException {
+        return newAuthRequest(getEndpoints().url(path, id), method, RequestCategory.of(path, method), path + "/{id}")
+                .config_id(config_id);
+    }
+
+    private CompletableFuture<AuthRequest> makeAuthRequestAsync(String path, String method) {
+        return newAuthRequestAsync(getEndpoints().url(path), method, RequestCategory.of(path, method), path);
+    }
+
+    private CompletableFuture<AuthRequest> makeAuthRequestForIdAsync(String path, String id, String method) {
+        return newAuthRequestAsync(getEndpoints().url(path, id), method, RequestCategory.of(path, method), path + "/{id}");
+    }
+
+    // The deadline starts here, before an auth session may have to be set up for the call
+    private AuthRequest newAuthRequest(String url, String method, RequestCategory category, String path) throws CredentialException {
+        Deadline deadline = newDeadline(category);
+        ensureKeyAndSecret(deadline);
+        return buildAuthRequest(url, method, path, deadline);
+    }
+
+    // Builds the request on the calling thread unless an auth session or the compression
+    // check needs a blocking call first, which then runs on the async executor.
+    private CompletableFuture<AuthRequest> newAuthRequestAsync(final String url, final String method,
+                                                               RequestCategory category, final String path) {
+        final Deadline deadline = newDeadline(category);
+        boolean ready = ((credentials.get() != null) || (!Strings.isNullOrEmpty(key) && !Strings.isNullOrEmpty(secret)))
+                && isRequestCompressionKnown(method);
+        if (ready) {
+            return CompletableFuture.completedFuture(buildAuthRequest(url, method, path, deadline));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ensureKeyAndSecret(deadline);
+            } catch (CredentialException e) {
+                throw new CompletionException(e);
+            }
+            return buildAuthRequest(url, method, path, deadline);
+        }, getAsyncExecutor());
+    }
+
+    private AuthRequest buildAuthRequest(String url, String method, String path, Deadline deadline) {
+        AuthRequest req = AuthRequest.getInstance(url, method);
+        return req.endpoint(req.getMethod() + " " + path)
+                .deadline(deadline)
+                .signer(getSigner())
+                .apiVersion(apiVersion)
+                .headers(httpHeaders)
+                .useCompression(useCompression)
+                .compressBody(isRequestCompressionEnabled(method, deadline), compressionThreshold)
+                .transport(getTransport());
+    }
+
+    // Records the timing of a request that has finished and tells the request listener.
+    private void requestFinished(final AuthRequest req) {
+        getTimingStats(req).record(req.getTiming());
+        final IRequestListener listener = requestListener;
+        if (listener != null) {
+            // The request itself goes on being used by this thread, e.g. to record PARSE
+            final IRequestEvent event = req.toEvent();
+            if (callbackDispatcher == null) {
+                listener.onRequestCompleted(this, event);
+            } else {
+                dispatch(() -> listener.onRequestCompleted(this, event));
+            }
+        }
+    }
+
+    /**
+     * Sends the GET request for {@code path} and reads the result from its response, unless
+     * an identical request is already in flight, in which case this waits for that one's
+     * response and reads its own result from it. A caller whose deadline passes while
+     * waiting gets the result of a call failed with status 408, which is reported to the
+     * callback handler.
+     *
+     * @param prepare Sets the request's parameters, or null.
+     */
+    private <T> T coalesceGet(String path, String query, Function<AuthRequest, AuthRequest> prepare,
+                              Function<GetResponse, T> read) {
+        if (!coalesceGets) {
+            return read.apply(sendGet(path, prepare));
+        }
+        String key = (query == null) ? getEndpoints().url(path) : getEndpoints().url(path) + "?" + query;
+        CompletableFuture<GetResponse> own = new CompletableFuture<>();
+        CompletableFuture<GetResponse> inFlight = sharedGets.putIfAbsent(key, own);
+        if (inFlight != null) {
+            GetResponse shared = awaitShared(inFlight, newDeadline(RequestCategory.of(path, "GET")));
+            if (shared == null) {
+                String message = "Deadline exceeded while waiting for an identical GET " + path + " request";
+                handleError(AuthRequest.STATUS_DEADLINE_EXCEEDED, message);
+                CallResult result = new CallResult("GET " + path, AuthRequest.STATUS_DEADLINE_EXCEEDED, message, null);
+                return read.apply(new GetResponse(result, null, null));
+            }
+            return read.apply(shared);
+        }
+        GetResponse response;
+        try {
+            response = sendGet(path, prepare);
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            sharedGets.remove(key, own);
+        }
+        own.complete(response.share());
+        return read.apply(response);
+    }
+
+    private GetResponse sendGet(String path, Function<AuthRequest, AuthRequest> prepare) {
+        try {
+            AuthRequest req = makeAuthRequest(path, "GET");
+            if (prepare != null) {
+                req = prepare.apply(req);
+            }
+            return new GetResponse(call(req, null, false, false), req, null);
+        } catch (CredentialException e) {
+            return new GetResponse(credentialFailure("GET " + path, e), null, null);
+        }
+    }
+
+    // Returns null if the deadline passes first
+    private static <T> T awaitShared(CompletableFuture<T> inFlight, Deadline deadline) {
+        try {
+            return (deadline == null) ? inFlight.get() : inFlight.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private RequestTimingStats getTimingStats(AuthRequest req) {
+        RequestTimingStats stats = timingStats.get(req.getEndpoint());
+        if (stats == null) {
+            stats = timingStats.computeIfAbsent(req.getEndpoint(), k -> new RequestTimingStats());
+        }
+        return stats;
+    }
+
+    // Deserializes the response body, recording the time taken as the request's PARSE phase.
+    private Object deserialize(AuthRequest req, Class<?> type) {
+        long start = System.nanoTime();
+        try {
+            return serializer.deserialize(req.getResponseData(), type);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            req.getTiming().record(RequestTiming.Phase.PARSE, elapsed);
+            getTimingStats(req).recordParse(elapsed);
+        }
+    }
+
+    private Deadline newDeadline(RequestCategory category) {
+        long timeout = timeouts.get(category);
+        Deadline deadline = (timeout > 0) ? Deadline.after(timeout, TimeUnit.MILLISECONDS) : null;
+        return Deadline.earliest(deadline, Deadline.current());
+    }
+
+    /**
+     * Returns the endpoint URLs for the current service URL and format.
+     */
+    private Endpoints getEndpoints() {
+        Endpoints current = endpoints;
+        if (current == null) {
+            current = new Endpoints(serviceUrl, requestFormat);
+            endpoints = current;
+        }
+        return current;
+    }
+
+    private List<DocAnalyticData> getProcessedDocuments(AuthRequest req) {
+        if (200 == req.getStatus()) {
+            DocsAnalyticData taskList = (DocsAnalyticData) deserialize(req, DocsAnalyticData.class);
+            if (taskList != null) {
+                return taskList.getDocuments();
+            }
+        }
+        return Collections.emptyList();
+    }
+
     private <T> AuthRequest update(List<?> items, String action, String config_id, Class<?> type) throws CredentialException {
         return update(items, action, config_id, type, "POST");
     }
@@ -1501,24 +2413,185 @@ public class Session {
                 .config_id(config_id);
 
         handleRequest(req, body);
-        Integer status = req.doRequest();
+        Integer status;
+        try {
+            status = req.doRequest();
+        } finally {
+            // GET calls from now on must not wait for one sent before the change
+            sharedGets.clear();
+        }
+        requestFinished(req);
         handleResponse(status, req);
 
         return req;
     }
 
-    // Ensures that session key and session secret are valid if we're
-    // using username/password authentication. If not using
-    // username/password authentication this is a no-op.
-    private void refreshSession() throws CredentialException {
-        if ((!Strings.isNullOrEmpty(username)) && (!Strings.isNullOrEmpty(password))) {
-            AuthService authService = new AuthService().withAuthUrl(authUrl);
-            authService.getSession(username, password, reuseCachedSession);
-            key = authService.getKey();
-            secret = authService.getSecret();
+    // Gets a new auth session if we're using username/password authentication
+    // and returns the signer to use from now on. If not using username/password
+    // authentication this returns the current signer.
+    //
+    // Only one thread renews at a time. Threads that find a renewal under way
+    // wait for its outcome rather than starting their own, and a thread whose
+    // credentials were already replaced since it used them takes the new ones.
+    private OAuthSigner renewAuthSession(OAuthSigner used, Deadline deadline, boolean reuseExisting) throws CredentialException {
+        if (Strings.isNullOrEmpty(username) || Strings.isNullOrEmpty(password)) {
+            return getSigner();
+        }
+        CompletableFuture<OAuthSigner> renewal;
+        boolean leader = false;
+        synchronized (renewalLock) {
+            OAuthSigner current = credentials.get();
+            if ((current != null) && (current != used)) {
+                return current;
+            }
+            renewal = renewalInFlight;
+            if (renewal == null) {
+                renewal = new CompletableFuture<>();
+                renewalInFlight = renewal;
+                leader = true;
+            }
+        }
+        if (leader) {
+            try {
+                AuthService authService = new AuthService().withAuthUrl(authUrl).withDeadline(deadline)
+                        .withTransport(getTransport());
+                authService.getSession(username, password, reuseExisting);
+                OAuthSigner renewed = new OAuthSigner(authService.getKey(), authService.getSecret());
+                credentials.set(renewed);
+                scheduleRenewal(getRenewalDelay(authService.getCreated()));
+                renewal.complete(renewed);
+                return renewed;
+            } catch (CredentialException | RuntimeException e) {
+                renewal.completeExceptionally(e);
+                throw e;
+            } finally {
+                synchronized (renewalLock) {
+                    renewalInFlight = null;
+                }
+            }
+        }
+        return awaitRenewal(renewal, deadline);
+    }
+
+    private OAuthSigner awaitRenewal(CompletableFuture<OAuthSigner> renewal, Deadline deadline) throws CredentialException {
+        try {
+            if (deadline == null) {
+                return renewal.get();
+            }
+            return renewal.get(deadline.remaining(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CredentialException) {
+                CredentialException ce = (CredentialException) cause;
+                throw new CredentialException(ce.getStatus(), ce.getMessage(), ce);
+            }
+            throw new CredentialException("Auth session renewal failed", cause);
+        } catch (TimeoutException e) {
+            throw new CredentialException(AuthRequest.STATUS_DEADLINE_EXCEEDED,
+                    "Deadline exceeded while waiting for a new auth session");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CredentialException("Interrupted while waiting for a new auth session", e);
+        }
+    }
+
+    // Renewal is due at 90% of the lifetime, counted from when the auth session was created,
+    // which for a reused cached session may be long ago. A session of unknown age is
+    // renewed right away.
+    private long getRenewalDelay(long created) {
+        long lifetime = authSessionLifetime;
+        if (lifetime == 0) {
+            return 0;
+        }
+        long age = (created > 0) ? Math.max(0, System.currentTimeMillis() - created) : lifetime;
+        return Math.max(1, (lifetime * 9 / 10) - age);
+    }
+
+    private void scheduleRenewal(long delay) {
+        cancelScheduledRenewal();
+        if ((delay > 0) && !closed) {
+            scheduledRenewal = RenewalScheduler.INSTANCE.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    renewInBackground();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelScheduledRenewal() {
+        ScheduledFuture<?> renewal = scheduledRenewal;
+        if (renewal != null) {
+            renewal.cancel(false);
         }
     }
 
+    // Requests keep signing with the current credentials while a new auth session is created.
+    private void renewInBackground() {
+        try {
+            renewAuthSession(credentials.get(), newDeadline(RequestCategory.OTHER), false);
+            log.debug("Renewed auth session in the background");
+        } catch (CredentialException | RuntimeException e) {
+            log.warn("Background renewal of the auth session failed, retrying in {} ms", retryDelay, e);
+            scheduleRenewal(retryDelay);
+        }
+    }
+
+    // Status and body of a GET response. Callers that share a response each parse the body
+    // into objects of their own.
+    private final class GetResponse {
+        final int status;
+        final CallResult result;
+        private final AuthRequest req;    // the request made, for its timing, or null
+        private final byte[] data;
+
+        GetResponse(CallResult result, AuthRequest req, byte[] data) {
+            this.status = result.getStatus();
+            this.result = result;
+            this.req = req;
+            this.data = data;
+        }
+
+        Object parse(Class<?> type) {
+            if (req != null) {
+                return deserialize(req, type);
+            }
+            return (data != null) ? serializer.deserialize(data, type) : null;
+        }
+
+        // The response as the waiting callers see it; the body is only ever read
+        GetResponse share() {
+            return new GetResponse(result, null, (req != null) ? req.getResponseData() : data);
+        }
+    }
+
+    // One daemon thread renews the auth sessions of all sessions.
+    private static class RenewalScheduler {
+        static final ScheduledExecutorService INSTANCE =
+                Executors.newSingleThreadScheduledExecutor(daemonThreads("semantria-auth-renewal"));
+    }
+
+    // Runs the blocking parts of asynchronous calls for sessions without an executor of their own.
+    private static class AsyncExecutor {
+        static final Executor INSTANCE = VirtualThreads.isSupported()
+                ? VirtualThreads.newThreadPerTaskExecutor("semantria-async")
+                : Executors.newCachedThreadPool(daemonThreads("semantria-async"));
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                int n = count.incrementAndGet();
+                Thread thread = new Thread(r, (n == 1) ? name : name + "-" + n);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
     /**
      * Attempts to authenticate using username/password. Does not consume an auth session.
      * Returns without error if the authentication request succeeds.
@@ -1527,7 +2600,9 @@ public class Session {
      */
     public void authenticate() throws CredentialException {
         if ((!Strings.isNullOrEmpty(username)) && (!Strings.isNullOrEmpty(password))) {
-            AuthService authService = new AuthService().withAuthUrl(authUrl);
+            AuthService authService = new AuthService().withAuthUrl(authUrl)
+                    .withDeadline(newDeadline(RequestCategory.OTHER))
+                    .withTransport(getTransport());
             authService.authenticate(username, password);
         }
     }
@@ -1538,44 +2613,45 @@ public class Session {
     // When using username/password authentication, if key and secret
     // are not set it will call the auth service to get/refresh a
     // session. If key and secret are set, this will not check that they are valid.
-    private void ensureKeyAndSecret() throws CredentialException {
-        if ((!Strings.isNullOrEmpty(key)) && (!Strings.isNullOrEmpty(secret))) {
+    private void ensureKeyAndSecret(Deadline deadline) throws CredentialException {
+        if ((credentials.get() != null) || ((!Strings.isNullOrEmpty(key)) && (!Strings.isNullOrEmpty(secret)))) {
             return;
         }
         if (Strings.isNullOrEmpty(username) && Strings.isNullOrEmpty(password)) {
             throw new CredentialException("No access credentials found." +
                     " You must provide key/secret or username/password.");
         }
-        refreshSession();
+        renewAuthSession(null, deadline, reuseCachedSession);
     }
 
+    // The response is only decoded into a String for the callback handler or the log.
     private void onAutoResponse(Integer status, AuthRequest req, Boolean isCollection) {
-        String message = req.getResponse();
-        if (message == null) {
+        if (req.getResponseData() == null) {
             log.info("AutoResponse message is null. request: {}", req);
-            message = "";
         }
+        final ICallbackHandler handler = callback;
         if (status <= 202) {
-            if (callback != null) {
-                callback.onResponse(this, new ResponseArgs(status, message));
+            if (handler != null) {
+                final ResponseArgs args = new ResponseArgs(status, Strings.nullToEmpty(req.getResponse()), req.getTiming());
+                dispatch(() -> handler.onResponse(this, args));
             }
         } else {
             String error_message = req.getErrorMessage();
             if (Strings.isNullOrEmpty(error_message)) {
-                error_message = message;
+                error_message = Strings.nullToEmpty(req.getResponse());
             }
             handleError(status, error_message);
         }
-        if (!message.isEmpty() && status < 202) {
-            if (callback == null) {
-                log.warn("Autoresponse received, but no callback handler set. response: {}", message);
+        if ((req.getResponseSize() > 0) && status < 202) {
+            if (handler == null) {
+                log.warn("Autoresponse received, but no callback handler set. response: {}", req.getResponse());
             } else {
                 if (isCollection) {
-                    CollsAnalyticData taskList = (CollsAnalyticData) serializer.deserialize(message, CollsAnalyticData.class);
-                    callback.onCollsAutoResponse(this, taskList.getDocuments());
+                    final CollsAnalyticData taskList = (CollsAnalyticData) deserialize(req, CollsAnalyticData.class);
+                    dispatch(() -> handler.onCollsAutoResponse(this, taskList.getDocuments()));
                 } else {
-                    DocsAnalyticData taskList = (DocsAnalyticData) serializer.deserialize(message, DocsAnalyticData.class);
-                    callback.onDocsAutoResponse(this, taskList.getDocuments());
+                    final DocsAnalyticData taskList = (DocsAnalyticData) deserialize(req, DocsAnalyticData.class);
+                    dispatch(() -> handler.onDocsAutoResponse(this, taskList.getDocuments()));
                 }
             }
         }
@@ -1590,37 +2666,47 @@ public class Session {
         return url;
     }
 
-    private String generateRequestPathWithId(String path, String id) {
-        try {
-            return path + "/" + URLEncoder.encode(id, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            log.error("Error generating URL for {}: {}. Attempting to continue.", path, e.toString());
-            return path + "/" + id;
-        }
-    }
-
     private void handleResponse(Integer status, AuthRequest req) {
         if (status < 300) {
-            if (callback != null) {
-                callback.onResponse(this, new ResponseArgs(status, req.getResponse()));
+            final ICallbackHandler handler = callback;
+            if (handler != null) {
+                final ResponseArgs args = new ResponseArgs(status, req.getResponse(), req.getTiming());
+                dispatch(() -> handler.onResponse(this, args));
             }
         } else {
             handleError(status, req.getErrorMessage());
         }
     }
 
+    // Reports an error that happened outside a request, e.g. in a SessionPool, like one of the session's own
+    void reportError(Integer status, String message) {
+        handleError(status, message);
+    }
+
     private void handleError(Integer status, String message) {
-        if (callback == null) {
+        final ICallbackHandler handler = callback;
+        if (handler == null) {
             log.error("status: {}, message: ", status, message);
         } else {
-            callback.onError(this, new ResponseArgs(status, message));
+            final ResponseArgs args = new ResponseArgs(status, message);
+            dispatch(() -> handler.onError(this, args));
         }
     }
 
     private void handleRequest(AuthRequest req, String message) {
-        if (callback != null) {
-            callback.onRequest(this, new RequestArgs(
-                    req.getMethod(), req.getRequestUrl(), message));
+        final ICallbackHandler handler = callback;
+        if (handler != null) {
+            final RequestArgs args = new RequestArgs(req.getMethod(), req.getRequestUrl(), message);
+            dispatch(() -> handler.onRequest(this, args));
+        }
+    }
+
+    private void dispatch(Runnable call) {
+        CallbackDispatcher dispatcher = callbackDispatcher;
+        if (dispatcher == null) {
+            call.run();
+        } else {
+            dispatcher.dispatch(call);
         }
     }
 
@@ -0,0 +1,389 @@
+package com.semantria;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.RateLimiter;
+import com.semantria.mapping.Collection;
+import com.semantria.mapping.Document;
+import com.semantria.mapping.output.CollAnalyticData;
+import com.semantria.mapping.output.DocAnalyticData;
+import com.semantria.utils.AuthRequest;
+import com.semantria.utils.Deadline;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Spreads documents and collections over several sessions, typically one per API key, and
+ * collects their results.
+ * <p/>
+ * Every queuing call goes to one session, chosen by the {@link Balancing} policy among those
+ * with room left in their request budget. When all budgets are used up the call waits for
+ * the preferred session's budget, up to the calling thread's {@link Deadline}; if that passes
+ * first, the call fails with status 408, which is reported to the session's callback handler.
+ * Polling calls ask every session at the same time, since results can only be retrieved with
+ * the key that queued the documents, and return the combined results. A session whose budget
+ * doesn't allow a poll before the deadline is left out of it, again with status 408.
+ * <p/>
+ * The sessions are expected to share the configurations passed as {@code config_id}; with
+ * null each account's primary configuration is used. A pool is safe for concurrent use once
+ * its sessions have been added.
+ */
+public class SessionPool implements Closeable {
+
+    public enum Balancing {
+        /**
+         * Picks the session with the fewest requests in flight relative to its weight.
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * Takes turns between the sessions in proportion to their weights.
+         */
+        WEIGHTED_ROUND_ROBIN
+    }
+
+    private final Balancing balancing;
+    private final List<Member> members = new CopyOnWriteArrayList<>();
+
+    public SessionPool() {
+        this(Balancing.LEAST_OUTSTANDING);
+    }
+
+    public SessionPool(Balancing balancing) {
+        this.balancing = balancing;
+    }
+
+    /**
+     * Adds a session with weight 1 and no request budget.
+     */
+    public SessionPool withSession(Session session) {
+        return withSession(session, 1, 0);
+    }
+
+    /**
+     * Adds a session.
+     *
+     * @param weight            Share of the queuing calls relative to the other sessions.
+     * @param requestsPerSecond Requests per second this session's key may make, polling
+     *                          included, or 0 for no limit.
+     */
+    public SessionPool withSession(Session session, int weight, double requestsPerSecond) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1");
+        }
+        members.add(new Member(session, weight, requestsPerSecond));
+        return this;
+    }
+
+    public Balancing getBalancing() {
+        return balancing;
+    }
+
+    public List<Member> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    //<editor-fold desc="Queuing methods">
+
+    /**
+     * Queues the document with one of the sessions, see {@link Session#queueDocument(Document, String)}.
+     */
+    public Integer queueDocument(final Document task, final String config_id) {
+        return queue(session -> session.queueDocument(task, config_id));
+    }
+
+    /**
+     * Queues the batch with one of the sessions, see {@link Session#QueueBatchOfDocuments(List, String)}.
+     */
+    public Integer QueueBatchOfDocuments(final List<Document> tasks, final String config_id) {
+        return queue(session -> session.QueueBatchOfDocuments(tasks, config_id));
+    }
+
+    /**
+     * Queues the collection with one of the sessions, see {@link Session#queueCollection(Collection, String)}.
+     */
+    public Integer queueCollection(final Collection collection, final String config_id) {
+        return queue(session -> session.queueCollection(collection, config_id));
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Polling methods">
+
+    /**
+     * Retrieves the processed documents of every session.
+     */
+    public List<DocAnalyticData> getProcessedDocuments(final String config_id) {
+        return collect(session -> session.getProcessedDocuments(config_id));
+    }
+
+    /**
+     * Retrieves the processed documents of the job from every session.
+     */
+    public List<DocAnalyticData> getProcessedDocumentsByJobId(final String jobId) {
+        return collect(session -> session.getProcessedDocumentsByJobId(jobId));
+    }
+
+    /**
+     * Retrieves the processed collections of every session.
+     */
+    public List<CollAnalyticData> getProcessedCollections(final String config_id) {
+        return collect(session -> session.getProcessedCollections(config_id));
+    }
+
+    /**
+     * Retrieves the processed collections of the job from every session.
+     */
+    public List<CollAnalyticData> getProcessedCollectionsByJobId(final String jobId) {
+        return collect(session -> session.getProcessedCollectionsByJobId(jobId));
+    }
+
+    //</editor-fold>
+
+    /**
+     * Closes all sessions of the pool.
+     */
+    @Override
+    public void close() {
+        for (Member member : members) {
+            member.session.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("balancing", balancing)
+                .add("members", members)
+                .toString();
+    }
+
+    private Integer queue(Function<Session, Integer> call) {
+        Deadline deadline = Deadline.current();
+        Member member = select(deadline);
+        if (member == null) {
+            return AuthRequest.STATUS_DEADLINE_EXCEEDED;
+        }
+        return member.call(call);
+    }
+
+    // Polls the sessions side by side, each on its own session's async executor. A session
+    // whose poll fails is left out, and the failure goes to that session's callback handler
+    // like any failed request, so the results of the others aren't lost.
+    private <T> List<T> collect(final Function<Session, List<T>> poll) {
+        final Deadline deadline = Deadline.current();
+        List<Member> candidates = members;
+        if (candidates.size() == 1) {
+            return poll(candidates.get(0), poll, deadline);
+        }
+        List<CompletableFuture<List<T>>> polls = new ArrayList<>(candidates.size());
+        for (final Member member : candidates) {
+            polls.add(CompletableFuture.supplyAsync(() -> {
+                // The deadline belongs to the calling thread, so it is carried over
+                Deadline.Scope scope = (deadline == null) ? null
+                        : Deadline.within(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+                try {
+                    return poll(member, poll, deadline);
+                } finally {
+                    if (scope != null) {
+                        scope.close();
+                    }
+                }
+            }, member.session.getAsyncExecutor()));
+        }
+        List<T> result = new ArrayList<>();
+        for (int i = 0; i < polls.size(); i++) {
+            try {
+                result.addAll(polls.get(i).join());
+            } catch (CompletionException e) {
+                // As for a request that failed without a response
+                candidates.get(i).session.reportError(0, "Polling failed: " + e.getCause());
+            }
+        }
+        return result;
+    }
+
+    private static <T> List<T> poll(Member member, Function<Session, List<T>> poll, Deadline deadline) {
+        if (!member.acquire(deadline)) {
+            return Collections.emptyList();
+        }
+        member.reserve();
+        List<T> results = member.call(poll);
+        return (results != null) ? results : Collections.<T>emptyList();
+    }
+
+    /**
+     * Picks the session for a queuing call and reserves a slot in its outstanding count, so
+     * that concurrent calls see the load straight away. Prefers the session the policy
+     * picks, then the others, whichever has budget left first. Returns null, having told
+     * the preferred session's callback handler, if no budget frees up before the deadline.
+     */
+    private Member select(Deadline deadline) {
+        Member preferred;
+        synchronized (this) {
+            List<Member> candidates = members;
+            if (candidates.isEmpty()) {
+                throw new IllegalStateException("The pool has no sessions");
+            }
+            List<Member> order = (balancing == Balancing.LEAST_OUTSTANDING) ? byLoad(candidates) : byTurn(candidates);
+            for (Member member : order) {
+                if (member.tryAcquire()) {
+                    member.reserve();
+                    return member;
+                }
+            }
+            preferred = order.get(0);
+            preferred.reserve();
+        }
+        if (!preferred.acquire(deadline)) {
+            preferred.release();
+            return null;
+        }
+        return preferred;
+    }
+
+    private static List<Member> byLoad(List<Member> candidates) {
+        List<Member> order = new ArrayList<>(candidates);
+        Collections.sort(order, new Comparator<Member>() {
+            @Override
+            public int compare(Member a, Member b) {
+                // outstanding / weight, compared without dividing
+                return Long.compare((long) a.getOutstanding() * b.weight, (long) b.getOutstanding() * a.weight);
+            }
+        });
+        return order;
+    }
+
+    // Smooth weighted round robin: the member with the highest current weight takes the
+    // turn and gives up the total weight, so heavier members go more often but not in a row.
+    // Called with the pool locked
+    private static List<Member> byTurn(List<Member> candidates) {
+        Member next = null;
+        int total = 0;
+        for (Member member : candidates) {
+            member.currentWeight += member.weight;
+            total += member.weight;
+            if ((next == null) || (member.currentWeight > next.currentWeight)) {
+                next = member;
+            }
+        }
+        next.currentWeight -= total;
+        List<Member> order = new ArrayList<>(candidates.size());
+        order.add(next);
+        for (Member member : candidates) {
+            if (member != next) {
+                order.add(member);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * One session of the pool with its weight, request budget and load.
+     */
+    public static final class Member {
+
+        private final Session session;
+        private final int weight;
+        private final double requestsPerSecond;
+        private final RateLimiter budget;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private int currentWeight = 0;  // guarded by the pool
+
+        private Member(Session session, int weight, double requestsPerSecond) {
+            this.session = session;
+            this.weight = weight;
+            this.requestsPerSecond = requestsPerSecond;
+            this.budget = (requestsPerSecond > 0) ? RateLimiter.create(requestsPerSecond) : null;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Requests per second the session may make, or 0 for no limit.
+         */
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        /**
+         * Returns the number of calls through the pool this session is making right now.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * Returns the number of calls the pool has made through this session.
+         */
+        public long getRequestCount() {
+            return requests.get();
+        }
+
+        private boolean tryAcquire() {
+            return (budget == null) || budget.tryAcquire();
+        }
+
+        // Waits for the budget, but no longer than the deadline. On timeout the session's
+        // callback handler is told, as for a request that missed its deadline.
+        private boolean acquire(Deadline deadline) {
+            if (budget == null) {
+                return true;
+            }
+            if (deadline == null) {
+                budget.acquire();
+                return true;
+            }
+            if (budget.tryAcquire(Math.max(0, deadline.remaining(TimeUnit.MICROSECONDS)), TimeUnit.MICROSECONDS)) {
+                return true;
+            }
+            session.reportError(AuthRequest.STATUS_DEADLINE_EXCEEDED,
+                    "Deadline exceeded while waiting for the request budget of " + requestsPerSecond + " requests per second");
+            return false;
+        }
+
+        private void reserve() {
+            outstanding.incrementAndGet();
+        }
+
+        private void release() {
+            outstanding.decrementAndGet();
+        }
+
+        // Makes the call in a slot reserved before
+        private <T> T call(Function<Session, T> call) {
+            requests.incrementAndGet();
+            try {
+                return call.apply(session);
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("weight", weight)
+                    .add("requestsPerSecond", requestsPerSecond)
+                    .add("outstanding", outstanding.get())
+                    .add("requests", requests.get())
+                    .toString();
+        }
+    }
+}
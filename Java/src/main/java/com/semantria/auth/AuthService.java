@@ -2,7 +2,9 @@ package com.semantria.auth;
 
 import com.google.common.base.Strings;
 import com.google.gson.Gson;
+import com.semantria.interfaces.ITransport;
 import com.semantria.utils.AuthRequest;
+import com.semantria.utils.Deadline;
 import com.semantria.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,8 +25,11 @@ public class AuthService {
 
     private String key;
     private String secret;
+    private long created = 0;
     private File cookieDir = null;
     private String cookieFileName = "semantria-session.dat";
+    private Deadline deadline = null;
+    private ITransport transport = null;
 
     public AuthService() {
     }
@@ -34,6 +39,23 @@ public class AuthService {
         return this;
     }
 
+    /**
+     * Sets the time by which auth requests have to be finished, or null for none.
+     */
+    public AuthService withDeadline(Deadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Sets the transport that sends the auth requests, such as the session's, or null for
+     * a {@link com.semantria.transport.UrlConnectionTransport} of their own.
+     */
+    public AuthService withTransport(ITransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
     public String getKey() {
         return key;
     }
@@ -42,6 +64,14 @@ public class AuthService {
         return secret;
     }
 
+    /**
+     * Returns when the auth session was created, in milliseconds since the epoch, or 0 if it
+     * is a reused session cached by a version that didn't record it.
+     */
+    public long getCreated() {
+        return created;
+    }
+
     /**
      * Attempt to authenticate using username/password. Does not consume an auth session.
      * @throws CredentialException if username/password are invalid
@@ -49,7 +79,7 @@ public class AuthService {
     public void authenticate(String username, String password) throws CredentialException {
         String requestData = getRequestData(username, password);
         String url = authUrl + "/session.json?appkey=" + appKey;
-        AuthRequest req = AuthRequest.getInstance(url, "POST").body(requestData);
+        AuthRequest req = AuthRequest.getInstance(url, "POST").body(requestData).deadline(deadline).transport(transport);
         req.doRequest();
         if (req.getStatus() != 200) {
             throw new CredentialException(req.getStatus(),
@@ -64,16 +94,17 @@ public class AuthService {
      * @throws CredentialException if username/password are invalid
      */
     public void getSession(String username, String password, boolean reuseExisting) throws CredentialException {
-        String sessionId = reuseExisting ? loadCookieData(username) : null;
+        String[] cached = reuseExisting ? loadCookieData(username) : null;
+        String sessionId = (cached != null) ? cached[1] : null;
         String requestData = getRequestData(username, password);
         AuthRequest req;
 
         if (sessionId != null) {
             String url = authUrl + "/session/" + sessionId +".json?appkey=" + appKey;
-            req = AuthRequest.getInstance(url, "GET");
+            req = AuthRequest.getInstance(url, "GET").deadline(deadline).transport(transport);
         } else {
             String url = authUrl + "/session.json?appkey=" + appKey;
-            req = AuthRequest.getInstance(url, "POST").body(requestData);
+            req = AuthRequest.getInstance(url, "POST").body(requestData).deadline(deadline).transport(transport);
         }
 
         req.doRequest();
@@ -83,7 +114,8 @@ public class AuthService {
             sessionId = sessionData.id;
             key = sessionData.custom_params.get("key");
             secret = sessionData.custom_params.get("secret");
-            saveCookieData(sessionId, username);
+            created = (cached == null) ? System.currentTimeMillis() : parseCreated(cached);
+            saveCookieData(sessionId, username, created);
         } else if ((sessionId != null) && (req.getStatus() == 404)) {
             // Probably session expired, lets try again and create new one
             getSession(username, password, false);
@@ -130,7 +162,8 @@ public class AuthService {
 		return false;
     }
 
-    private String loadCookieData(String username) {
+    // Returns the cached username, session id and, if recorded, creation time
+    private String[] loadCookieData(String username) {
 		if (! initializeCookieDir()) {
 			return null;
 		}
@@ -145,7 +178,10 @@ public class AuthService {
                 if ((parts.length < 2) || (! username.equals(parts[0].trim()))) {
                     return null;
                 }
-                return parts[1].trim();
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = parts[i].trim();
+                }
+                return parts;
             }
         } catch (IOException e) {
 			log.debug("Error reading session data", e);
@@ -154,12 +190,24 @@ public class AuthService {
         return null;
     }
 
-    private void saveCookieData(String sessionId, String username) {
+    private static long parseCreated(String[] cached) {
+        if (cached.length < 3) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(cached[2]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void saveCookieData(String sessionId, String username, long created) {
         if (! initializeCookieDir()) {
             return;
         }
         try {
-            String sessionData = String.format("%s\n%s\n", username, sessionId);
+            String sessionData = (created > 0) ? String.format("%s\n%s\n%d\n", username, sessionId, created)
+                    : String.format("%s\n%s\n", username, sessionId);
             File sessionFile = new File(cookieDir, cookieFileName);
             if (!sessionFile.exists()) {
                 sessionFile.createNewFile();
@@ -0,0 +1,198 @@
+package com.semantria.auth;
+
+import com.google.common.base.MoreObjects;
+import com.semantria.utils.VirtualThreads;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Signs API requests for one key/secret pair.
+ * <p/>
+ * Everything that depends only on the credentials is computed once: the MD5-hashed secret
+ * and the HMAC-SHA1 signing key. Each thread gets its own initialized {@link Mac} and
+ * scratch buffer, so signing a request allocates little and needs no locking. Virtual
+ * threads, which are created per task, borrow them from a shared pool instead.
+ * A signer is thread-safe and is meant to be shared by all requests made with its credentials.
+ */
+public final class OAuthSigner {
+
+    private static final String HMAC_SHA1 = "HmacSHA1";
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final String key;
+    private final String secret;
+    private final SecretKeySpec signingKey;
+    private final ThreadLocal<SigningState> state = new ThreadLocal<SigningState>() {
+        @Override
+        protected SigningState initialValue() {
+            return new SigningState(signingKey);
+        }
+    };
+    private final ConcurrentLinkedQueue<SigningState> sharedStates = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param key    API key.
+     * @param secret API secret, as given by the user; it is hashed here.
+     */
+    public OAuthSigner(String key, String secret) {
+        this.key = key;
+        this.secret = secret;
+        try {
+            this.signingKey = new SecretKeySpec(hashMD5(secret).getBytes(StandardCharsets.US_ASCII), HMAC_SHA1);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Can't create hash from secret", e);
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Whether this signer was created for the given credentials.
+     */
+    public boolean matches(String key, String secret) {
+        return this.key.equals(key) && this.secret.equals(secret);
+    }
+
+    /**
+     * Returns a new oauth_nonce value: a random unsigned 32-bit number.
+     */
+    public static String newNonce() {
+        return Long.toString(ThreadLocalRandom.current().nextLong() & 0xffffffffL);
+    }
+
+    /**
+     * Returns the Authorization header for a request to {@code fullUrl}, which must already
+     * carry the OAuth parameters in its query string.
+     */
+    public String getAuthorizationHeader(String fullUrl) {
+        byte[] signature = Base64.getEncoder().encode(signature(fullUrl));
+        StringBuilder sb = new StringBuilder(64 + key.length());
+        sb.append("OAuth,oauth_consumer_key=\"").append(key).append("\",oauth_signature=\"");
+        // Base64 output is ASCII; only '+', '/' and '=' need escaping, as URLEncoder does
+        for (byte b : signature) {
+            if ((b == '+') || (b == '/') || (b == '=')) {
+                sb.append('%').append((char) HEX[(b >> 4) & 0xF]).append((char) HEX[b & 0xF]);
+            } else {
+                sb.append((char) b);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Returns the Base64 HMAC-SHA1 signature of the URL-encoded {@code fullUrl}.
+     */
+    public String sign(String fullUrl) {
+        return Base64.getEncoder().encodeToString(signature(fullUrl));
+    }
+
+    private byte[] signature(String fullUrl) {
+        if (!VirtualThreads.isVirtual(Thread.currentThread())) {
+            return state.get().sign(fullUrl);
+        }
+        SigningState s = sharedStates.poll();
+        if (s == null) {
+            s = new SigningState(signingKey);
+        }
+        try {
+            return s.sign(fullUrl);
+        } finally {
+            sharedStates.offer(s);
+        }
+    }
+
+    /**
+     * Returns the lowercase hex MD5 digest of {@code value}, the form in which the API
+     * expects the secret to be used as signing key.
+     */
+    public static String hashMD5(String value) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        byte[] array = md.digest(value.getBytes());
+        StringBuilder sb = new StringBuilder(32);
+        for (int i = 0; i < array.length; ++i) {
+            sb.append(Integer.toHexString((array[i] & 0xFF) | 0x100).substring(1, 3));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("key", key)
+                .toString();
+    }
+
+    /**
+     * Per-thread Mac and buffer for the URL-encoded request URL.
+     */
+    private static class SigningState {
+        private final Mac mac;
+        private byte[] buffer = new byte[1024];
+
+        SigningState(SecretKeySpec signingKey) {
+            try {
+                mac = Mac.getInstance(HMAC_SHA1);
+                mac.init(signingKey);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("Can't initialize " + HMAC_SHA1, e);
+            }
+        }
+
+        byte[] sign(String fullUrl) {
+            int length = urlEncode(fullUrl);
+            if (length < 0) {
+                // Non-ASCII URL: leave the exact UTF-8 handling to URLEncoder
+                try {
+                    return mac.doFinal(URLEncoder.encode(fullUrl, "UTF-8").getBytes(StandardCharsets.US_ASCII));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            mac.update(buffer, 0, length);
+            return mac.doFinal();
+        }
+
+        /**
+         * Encodes an ASCII string into {@code buffer} exactly like
+         * {@code URLEncoder.encode(s, "UTF-8")}.
+         *
+         * @return the encoded length, or -1 if {@code s} has non-ASCII characters
+         */
+        private int urlEncode(String s) {
+            int n = s.length();
+            if (buffer.length < n * 3) {
+                buffer = new byte[n * 3];
+            }
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    return -1;
+                }
+                if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9'))
+                        || (c == '.') || (c == '-') || (c == '*') || (c == '_')) {
+                    buffer[pos++] = (byte) c;
+                } else if (c == ' ') {
+                    buffer[pos++] = '+';
+                } else {
+                    buffer[pos++] = '%';
+                    buffer[pos++] = HEX[(c >> 4) & 0xF];
+                    buffer[pos++] = HEX[c & 0xF];
+                }
+            }
+            return pos;
+        }
+    }
+}
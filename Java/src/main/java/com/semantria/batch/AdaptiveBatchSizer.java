@@ -0,0 +1,168 @@
+package com.semantria.batch;
+
+import com.google.common.base.MoreObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the batch size from how the service has been answering. Safe for concurrent use.
+ * <p/>
+ * The sizer keeps moving averages of the latency of batch requests and of the share of
+ * them that failed. The size grows step by step while the average latency stays well below
+ * the target and batches actually fill up, shrinks to three quarters of a batch that took
+ * longer than the target, and to half of it when requests fail more often than the error
+ * rate allows. One slow answer thus costs one decrease, while the average it pushed up
+ * holds off growth until fast answers have brought it down again. It never
+ * goes above the maximum, normally the subscription's incoming_batch_limit, or below 1.
+ * {@link #getBatchSize()} is the current decision.
+ */
+public class AdaptiveBatchSizer {
+
+    private static Logger log = LoggerFactory.getLogger(AdaptiveBatchSizer.class);
+
+    public static final double DEFAULT_MAX_ERROR_RATE = 0.1;
+
+    // Weight of the newest observation in the moving averages
+    private static final double ALPHA = 0.2;
+    // Grow only while the latency is below this share of the target
+    private static final double GROW_BELOW = 0.75;
+
+    private final int maxSize;
+    private final long targetNanos;
+    private final double maxErrorRate;
+
+    // guarded by this
+    private double latencyNanos = 0;
+    private double errorRate = 0;
+    private long observations = 0;
+    private long increases = 0;
+    private long decreases = 0;
+
+    private volatile int batchSize;
+
+    /**
+     * @param maxSize       Largest batch size, usually the subscription's incoming_batch_limit.
+     * @param targetLatency Latency of a batch request to stay under.
+     */
+    public AdaptiveBatchSizer(int maxSize, long targetLatency, TimeUnit unit) {
+        this(maxSize, targetLatency, unit, DEFAULT_MAX_ERROR_RATE);
+    }
+
+    /**
+     * @param maxSize       Largest batch size, usually the subscription's incoming_batch_limit.
+     * @param targetLatency Latency of a batch request to stay under.
+     * @param maxErrorRate  Share of failed batch requests, between 0 and 1, above which the
+     *                      size is halved.
+     */
+    public AdaptiveBatchSizer(int maxSize, long targetLatency, TimeUnit unit, double maxErrorRate) {
+        if ((maxSize <= 0) || (targetLatency <= 0)) {
+            throw new IllegalArgumentException("maxSize and targetLatency must be positive");
+        }
+        if ((maxErrorRate < 0) || (maxErrorRate > 1)) {
+            throw new IllegalArgumentException("maxErrorRate must be between 0 and 1: " + maxErrorRate);
+        }
+        this.maxSize = maxSize;
+        this.targetNanos = unit.toNanos(targetLatency);
+        this.maxErrorRate = maxErrorRate;
+        // Start low and grow, rather than find out the hard way that full batches are too slow
+        this.batchSize = Math.max(1, maxSize / 4);
+    }
+
+    /**
+     * Returns the batch size to use now.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTargetLatency(TimeUnit unit) {
+        return unit.convert(targetNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Adds the outcome of one batch request.
+     *
+     * @param size    Documents in the batch.
+     * @param latency Time from sending the batch to the answer.
+     * @param failed  Whether the request failed for a reason other than the documents,
+     *                e.g. a timeout, throttling or a server error.
+     */
+    public synchronized void record(int size, long latency, TimeUnit unit, boolean failed) {
+        long nanos = unit.toNanos(latency);
+        latencyNanos = (observations == 0) ? nanos : (ALPHA * nanos) + ((1 - ALPHA) * latencyNanos);
+        errorRate = (ALPHA * (failed ? 1 : 0)) + ((1 - ALPHA) * errorRate);
+        observations++;
+
+        // Decreases go from the size of the batch answered, so that several batches in flight
+        // answering badly at once bring the size down once rather than once each. They follow
+        // this answer's latency rather than the average, which stays up for a while after
+        // a single slow one.
+        int current = batchSize;
+        int next = current;
+        if (failed && (errorRate > maxErrorRate)) {
+            next = Math.min(current, size / 2);
+        } else if (nanos > targetNanos) {
+            next = Math.min(current, (size * 3) / 4);
+        } else if (!failed && (size >= current) && (latencyNanos < GROW_BELOW * targetNanos)) {
+            next = current + Math.max(1, current / 10);
+        }
+        next = Math.max(1, Math.min(maxSize, next));
+        if (next != current) {
+            if (next > current) {
+                increases++;
+            } else {
+                decreases++;
+            }
+            log.debug("Batch size {} -> {} (latency {} ms, error rate {})", current, next,
+                    TimeUnit.NANOSECONDS.toMillis((long) latencyNanos), errorRate);
+            batchSize = next;
+        }
+    }
+
+    /**
+     * Returns the moving average of the batch request latency.
+     */
+    public synchronized long getLatency(TimeUnit unit) {
+        return unit.convert((long) latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the moving average of the share of failed batch requests.
+     */
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Number of times the batch size went up.
+     */
+    public synchronized long getIncreaseCount() {
+        return increases;
+    }
+
+    /**
+     * Number of times the batch size went down.
+     */
+    public synchronized long getDecreaseCount() {
+        return decreases;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("batchSize", batchSize)
+                .add("maxSize", maxSize)
+                .add("targetMillis", getTargetLatency(TimeUnit.MILLISECONDS))
+                .add("latencyMillis", getLatency(TimeUnit.MILLISECONDS))
+                .add("errorRate", String.format("%.3f", errorRate))
+                .add("increases", increases)
+                .add("decreases", decreases)
+                .toString();
+    }
+}
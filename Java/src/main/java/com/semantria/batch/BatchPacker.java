@@ -0,0 +1,150 @@
+package com.semantria.batch;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Utf8;
+import com.semantria.mapping.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides how many documents go in a batch from both their number and their size.
+ * <p/>
+ * The size of a document is the UTF-8 size of its fields plus the JSON around them, without
+ * escapes, so a byte budget should leave some room below a hard limit. A document larger
+ * than the budget on its own still gets a batch of its own. Immutable.
+ */
+public class BatchPacker {
+
+    // {"id":"","text":"","tag":"","job_id":"","metadata":},
+    private static final int DOCUMENT_OVERHEAD = 56;
+
+    /**
+     * Status of a document rejected before it was sent, as the service would answer it.
+     */
+    public static final int STATUS_INVALID = 400;
+
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final int documentLength;
+
+    /**
+     * @param maxDocuments   Documents per batch, usually the subscription's incoming_batch_limit.
+     * @param maxBytes       Byte budget of a batch, or 0 for no budget.
+     * @param documentLength Longest text accepted, in characters, usually the subscription's
+     *                       document_length, or 0 not to check.
+     */
+    public BatchPacker(int maxDocuments, long maxBytes, int documentLength) {
+        if (maxDocuments <= 0) {
+            throw new IllegalArgumentException("maxDocuments must be positive: " + maxDocuments);
+        }
+        if ((maxBytes < 0) || (documentLength < 0)) {
+            throw new IllegalArgumentException("maxBytes and documentLength must not be negative");
+        }
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.documentLength = documentLength;
+    }
+
+    public int getMaxDocuments() {
+        return maxDocuments;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getDocumentLength() {
+        return documentLength;
+    }
+
+    /**
+     * Returns the size of the document in a batch, in bytes.
+     */
+    public static long measure(Document document) {
+        long size = DOCUMENT_OVERHEAD + utf8Length(document.getId()) + utf8Length(document.getText())
+                + utf8Length(document.getTag()) + utf8Length(document.getJobId());
+        if (document.getMetadata() != null) {
+            size += utf8Length(document.getMetadata().toString());
+        }
+        return size;
+    }
+
+    /**
+     * Checks that the service would accept the document's text.
+     *
+     * @throws DocumentRejectedException if it is longer than document_length.
+     */
+    public void validate(Document document) {
+        String text = document.getText();
+        // A String has at least as many chars as code points, so most texts need no counting
+        if ((documentLength > 0) && (text != null) && (text.length() > documentLength)
+                && (text.codePointCount(0, text.length()) > documentLength)) {
+            throw new DocumentRejectedException(STATUS_INVALID, document.getId(), String.format(
+                    "Document is %d characters long, document_length is %d",
+                    text.codePointCount(0, text.length()), documentLength));
+        }
+    }
+
+    /**
+     * Whether a document of {@code size} bytes can join a batch of {@code count} documents
+     * and {@code bytes} bytes.
+     */
+    public boolean fits(int count, long bytes, long size) {
+        return (count == 0) || ((count < maxDocuments) && ((maxBytes == 0) || (bytes + size <= maxBytes)));
+    }
+
+    /**
+     * Whether a batch of {@code count} documents and {@code bytes} bytes has no room left.
+     */
+    public boolean isFull(int count, long bytes) {
+        return (count >= maxDocuments) || ((maxBytes > 0) && (bytes >= maxBytes));
+    }
+
+    /**
+     * Splits the documents into batches, keeping their order.
+     *
+     * @throws DocumentRejectedException for the first document that doesn't validate.
+     */
+    public List<List<Document>> pack(List<Document> documents) {
+        List<List<Document>> batches = new ArrayList<>();
+        List<Document> batch = new ArrayList<>();
+        long bytes = 0;
+        for (Document document : documents) {
+            validate(document);
+            long size = measure(document);
+            if (!fits(batch.size(), bytes, size)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                bytes = 0;
+            }
+            batch.add(document);
+            bytes += size;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static long utf8Length(String s) {
+        if (s == null) {
+            return 0;
+        }
+        try {
+            return Utf8.encodedLength(s);
+        } catch (IllegalArgumentException e) {
+            // unpaired surrogate, which the serializer replaces; count the worst case
+            return 3L * s.length();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("maxDocuments", maxDocuments)
+                .add("maxBytes", maxBytes)
+                .add("documentLength", documentLength)
+                .toString();
+    }
+}
@@ -0,0 +1,102 @@
+package com.semantria.batch;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sizes of the batches a {@link DocumentBatcher} has sent, added up. Safe for concurrent use.
+ * <p/>
+ * The histogram counts batches in power-of-two buckets: 1, 2-3, 4-7, 8-15 and so on. Parts
+ * of rejected batches sent again ({@link FlushReason#RETRY}) count as batches of their own.
+ */
+public class BatchSizeStats {
+
+    private static final FlushReason[] REASONS = FlushReason.values();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong maxSize = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(Integer.SIZE);
+    private final AtomicLongArray reasons = new AtomicLongArray(REASONS.length);
+
+    /**
+     * Adds a batch of {@code size} documents that was sent for {@code reason}.
+     */
+    public void record(int size, FlushReason reason) {
+        batches.incrementAndGet();
+        documents.addAndGet(size);
+        buckets.incrementAndGet(bucket(size));
+        reasons.incrementAndGet(reason.ordinal());
+        long max;
+        while ((size > (max = maxSize.get())) && !maxSize.compareAndSet(max, size)) {
+            // retry
+        }
+    }
+
+    /**
+     * Number of batches sent.
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Number of documents sent in all batches.
+     */
+    public long getDocumentCount() {
+        return documents.get();
+    }
+
+    public double getMeanSize() {
+        long n = batches.get();
+        return (n == 0) ? 0 : (double) documents.get() / n;
+    }
+
+    public long getMaxSize() {
+        return maxSize.get();
+    }
+
+    /**
+     * Number of batches that were sent for {@code reason}.
+     */
+    public long getCount(FlushReason reason) {
+        return reasons.get(reason.ordinal());
+    }
+
+    /**
+     * Returns the number of batches per size bucket, keyed by the smallest size in the bucket.
+     * Empty buckets are left out.
+     */
+    public SortedMap<Integer, Long> getHistogram() {
+        SortedMap<Integer, Long> histogram = new TreeMap<>();
+        for (int i = 0; i < buckets.length(); i++) {
+            long n = buckets.get(i);
+            if (n > 0) {
+                histogram.put(1 << i, n);
+            }
+        }
+        return Collections.unmodifiableSortedMap(histogram);
+    }
+
+    private static int bucket(int size) {
+        return (size <= 1) ? 0 : 31 - Integer.numberOfLeadingZeros(size);
+    }
+
+    @Override
+    public String toString() {
+        MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper(this)
+                .add("batches", getBatchCount())
+                .add("documents", getDocumentCount())
+                .add("meanSize", String.format("%.1f", getMeanSize()))
+                .add("maxSize", getMaxSize());
+        for (FlushReason reason : REASONS) {
+            helper.add(reason.name().toLowerCase(), getCount(reason));
+        }
+        return helper.add("histogram", getHistogram()).toString();
+    }
+}
@@ -0,0 +1,314 @@
+package com.semantria.batch;
+
+import com.semantria.mapping.output.DocAnalyticData;
+import com.semantria.mapping.output.DocCategory;
+import com.semantria.mapping.output.DocEntity;
+import com.semantria.mapping.output.DocIntention;
+import com.semantria.mapping.output.DocPhrase;
+import com.semantria.mapping.output.DocTheme;
+import com.semantria.mapping.output.DocTopic;
+import com.semantria.mapping.output.Location;
+import com.semantria.mapping.output.Mention;
+import com.semantria.mapping.output.Opinion;
+import com.semantria.mapping.output.Relation;
+import com.semantria.mapping.output.Sentence;
+import com.semantria.mapping.output.TaskStatus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Merges the results of the parts of a split document into one result.
+ * <p/>
+ * The document sentiment is the average of the parts' weighted by their length. Entities,
+ * themes and topics with the same title (and type) become one, with evidence or hit counts
+ * added up and sentiment averaged by evidence. Details, phrases, intentions, relations and
+ * opinions are concatenated in order. Offsets and sentence indexes of mentions and phrases
+ * are moved to where the part starts in the whole text. A polarity is kept only where all
+ * parts agree. The parts' objects are reused and changed.
+ */
+public final class DocAnalyticDataMerger {
+
+    private DocAnalyticDataMerger() {
+    }
+
+    /**
+     * @param id      ID of the whole document.
+     * @param parts   Results of the parts, in text order.
+     * @param offsets Where each part starts in the whole text, in characters.
+     * @param lengths Length of each part, in characters.
+     */
+    public static DocAnalyticData merge(String id, List<DocAnalyticData> parts, int[] offsets, int[] lengths) {
+        if (parts.isEmpty() || (parts.size() != offsets.length) || (parts.size() != lengths.length)) {
+            throw new IllegalArgumentException("Need an offset and a length for each of at least one part");
+        }
+        DocAnalyticData first = parts.get(0);
+        int longest = 0;
+        for (int i = 1; i < parts.size(); i++) {
+            if (lengths[i] > lengths[longest]) {
+                longest = i;
+            }
+        }
+
+        DocAnalyticData merged = new DocAnalyticData();
+        merged.setId(id);
+        merged.setConfigId(first.getConfigId());
+        merged.setTag(first.getTag());
+        merged.setMetadata(first.getMetadata());
+        // Taken from the longest part, as these can't be combined
+        merged.setLanguage(parts.get(longest).getLanguage());
+        merged.setLanguageScore(parts.get(longest).getLanguageScore());
+        merged.setModelSentiment(parts.get(longest).getModelSentiment());
+
+        Weighted sentiment = new Weighted();
+        String polarity = first.getSentimentPolarity();
+        TaskStatus status = TaskStatus.PROCESSED;
+        StringBuilder summary = new StringBuilder();
+        StringBuilder sourceText = new StringBuilder();
+        Map<String, DocEntity> entities = new LinkedHashMap<>();
+        Map<String, DocTheme> themes = new LinkedHashMap<>();
+        Map<String, DocTopic> topics = new LinkedHashMap<>();
+        Map<String, DocTopic> taxonomy = new LinkedHashMap<>();
+        Map<String, DocCategory> categories = new LinkedHashMap<>();
+        List<Sentence> details = new ArrayList<>();
+        List<DocPhrase> phrases = new ArrayList<>();
+        List<DocIntention> intentions = new ArrayList<>();
+        List<Relation> relations = new ArrayList<>();
+        List<Opinion> opinions = new ArrayList<>();
+
+        int sentences = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            DocAnalyticData part = parts.get(i);
+            if (part.getStatus() != TaskStatus.PROCESSED) {
+                status = (part.getStatus() != null) ? part.getStatus() : TaskStatus.FAILED;
+            }
+            sentiment.add(part.getSentimentScore(), lengths[i]);
+            polarity = agreed(polarity, part.getSentimentPolarity());
+            append(summary, part.getSummary());
+            if (part.getSourceText() != null) {
+                sourceText.append(part.getSourceText());
+            }
+
+            if (part.getEntities() != null) {
+                for (DocEntity entity : part.getEntities()) {
+                    shift(entity.getMentions(), offsets[i], sentences);
+                    if (entity.getThemes() != null) {
+                        for (DocTheme theme : entity.getThemes()) {
+                            shift(theme.getMentions(), offsets[i], sentences);
+                        }
+                    }
+                    mergeEntity(entities, entity);
+                }
+            }
+            if (part.getThemes() != null) {
+                for (DocTheme theme : part.getThemes()) {
+                    shift(theme.getMentions(), offsets[i], sentences);
+                    mergeTheme(themes, theme);
+                }
+            }
+            mergeTopics(topics, part.getTopics());
+            mergeTopics(taxonomy, part.getTaxonomy());
+            if (part.getAutoCategories() != null) {
+                for (DocCategory category : part.getAutoCategories()) {
+                    String key = key(category.getTitle(), category.getType());
+                    DocCategory known = categories.get(key);
+                    if ((known == null) || (strength(category.getStrengthScore()) > strength(known.getStrengthScore()))) {
+                        categories.put(key, category);
+                    }
+                }
+            }
+            if (part.getPhrases() != null) {
+                for (DocPhrase phrase : part.getPhrases()) {
+                    if (phrase.getOffset() != null) {
+                        phrase.setOffset(phrase.getOffset() + offsets[i]);
+                    }
+                    phrases.add(phrase);
+                }
+            }
+            addAll(intentions, part.getIntentions());
+            addAll(relations, part.getRelations());
+            addAll(opinions, part.getOpinions());
+            if (part.getDetails() != null) {
+                details.addAll(part.getDetails());
+                sentences += part.getDetails().size();
+            }
+        }
+
+        merged.setStatus(status);
+        merged.setSentimentScore(sentiment.get());
+        merged.setSentimentPolarity(polarity);
+        merged.setSummary((summary.length() > 0) ? summary.toString() : null);
+        merged.setSourceText((sourceText.length() > 0) ? sourceText.toString() : null);
+        merged.setEntities(entities.isEmpty() ? null : new ArrayList<>(entities.values()));
+        merged.setThemes(themes.isEmpty() ? null : new ArrayList<>(themes.values()));
+        merged.setTopics(topics.isEmpty() ? null : new ArrayList<>(topics.values()));
+        merged.setTaxonomy(taxonomy.isEmpty() ? null : new ArrayList<>(taxonomy.values()));
+        merged.setAutoCategories(categories.isEmpty() ? null : new ArrayList<>(categories.values()));
+        merged.setDetails(details.isEmpty() ? null : details);
+        merged.setPhrases(phrases.isEmpty() ? null : phrases);
+        merged.setIntentions(intentions.isEmpty() ? null : intentions);
+        merged.setRelations(relations.isEmpty() ? null : relations);
+        merged.setOpinions(opinions.isEmpty() ? null : opinions);
+        return merged;
+    }
+
+    private static void mergeEntity(Map<String, DocEntity> entities, DocEntity entity) {
+        String key = key(entity.getTitle(), entity.getEntityType());
+        DocEntity known = entities.get(key);
+        if (known == null) {
+            entities.put(key, entity);
+            return;
+        }
+        Weighted sentiment = new Weighted();
+        sentiment.add(known.getSentimentScore(), evidence(known.getEvidence()));
+        sentiment.add(entity.getSentimentScore(), evidence(entity.getEvidence()));
+        known.setSentimentScore(sentiment.get());
+        known.setEvidence(sum(known.getEvidence(), entity.getEvidence()));
+        known.setSentimentPolarity(agreed(known.getSentimentPolarity(), entity.getSentimentPolarity()));
+        known.setIsAbout(or(known.getIsAbout(), entity.getIsAbout()));
+        known.setConfident(or(known.getConfident(), entity.getConfident()));
+        known.setMentions(concat(known.getMentions(), entity.getMentions()));
+        if (entity.getThemes() != null) {
+            Map<String, DocTheme> themes = new LinkedHashMap<>();
+            if (known.getThemes() != null) {
+                for (DocTheme theme : known.getThemes()) {
+                    mergeTheme(themes, theme);
+                }
+            }
+            for (DocTheme theme : entity.getThemes()) {
+                mergeTheme(themes, theme);
+            }
+            known.setThemes(new ArrayList<>(themes.values()));
+        }
+    }
+
+    private static void mergeTheme(Map<String, DocTheme> themes, DocTheme theme) {
+        String key = key(theme.getTitle(), null);
+        DocTheme known = themes.get(key);
+        if (known == null) {
+            themes.put(key, theme);
+            return;
+        }
+        Weighted sentiment = new Weighted();
+        sentiment.add(known.getSentimentScore(), evidence(known.getEvidence()));
+        sentiment.add(theme.getSentimentScore(), evidence(theme.getEvidence()));
+        known.setSentimentScore(sentiment.get());
+        known.setEvidence(sum(known.getEvidence(), theme.getEvidence()));
+        known.setSentimentPolarity(agreed(known.getSentimentPolarity(), theme.getSentimentPolarity()));
+        known.setIsAbout(or(known.getIsAbout(), theme.getIsAbout()));
+        if (strength(theme.getStrengthScore()) > strength(known.getStrengthScore())) {
+            known.setStrengthScore(theme.getStrengthScore());
+        }
+        known.setMentions(concat(known.getMentions(), theme.getMentions()));
+    }
+
+    private static void mergeTopics(Map<String, DocTopic> topics, List<DocTopic> add) {
+        if (add == null) {
+            return;
+        }
+        for (DocTopic topic : add) {
+            String key = key(topic.getTitle(), topic.getType());
+            DocTopic known = topics.get(key);
+            if (known == null) {
+                topics.put(key, topic);
+                continue;
+            }
+            Weighted sentiment = new Weighted();
+            sentiment.add(known.getSentimentScore(), evidence(known.getHitCount()));
+            sentiment.add(topic.getSentimentScore(), evidence(topic.getHitCount()));
+            known.setSentimentScore(sentiment.get());
+            known.setHitCount(sum(known.getHitCount(), topic.getHitCount()));
+            known.setSentimentPolarity(agreed(known.getSentimentPolarity(), topic.getSentimentPolarity()));
+            if (strength(topic.getStrengthScore()) > strength(known.getStrengthScore())) {
+                known.setStrengthScore(topic.getStrengthScore());
+            }
+        }
+    }
+
+    private static void shift(List<Mention> mentions, int offset, int sentences) {
+        if (mentions == null) {
+            return;
+        }
+        for (Mention mention : mentions) {
+            if (mention.getLocations() == null) {
+                continue;
+            }
+            for (Location location : mention.getLocations()) {
+                if (location.getOffset() != null) {
+                    location.setOffset(location.getOffset() + offset);
+                }
+                if (location.getIndex() != null) {
+                    location.setIndex(location.getIndex() + sentences);
+                }
+            }
+        }
+    }
+
+    private static String key(String title, String type) {
+        return ((title != null) ? title.toLowerCase() : "") + '\u0000' + ((type != null) ? type : "");
+    }
+
+    private static String agreed(String a, String b) {
+        return Objects.equals(a, b) ? a : null;
+    }
+
+    private static Boolean or(Boolean a, Boolean b) {
+        return ((a == null) && (b == null)) ? null : (Boolean.TRUE.equals(a) || Boolean.TRUE.equals(b));
+    }
+
+    private static Integer sum(Integer a, Integer b) {
+        return ((a == null) && (b == null)) ? null : (((a != null) ? a : 0) + ((b != null) ? b : 0));
+    }
+
+    private static int evidence(Integer evidence) {
+        return ((evidence != null) && (evidence > 0)) ? evidence : 1;
+    }
+
+    private static float strength(Float score) {
+        return (score != null) ? score : Float.NEGATIVE_INFINITY;
+    }
+
+    private static <T> List<T> concat(List<T> a, List<T> b) {
+        if (b == null) {
+            return a;
+        }
+        List<T> all = (a != null) ? new ArrayList<>(a) : new ArrayList<T>();
+        all.addAll(b);
+        return all;
+    }
+
+    private static <T> void addAll(List<T> all, List<T> add) {
+        if (add != null) {
+            all.addAll(add);
+        }
+    }
+
+    private static void append(StringBuilder sb, String s) {
+        if ((s != null) && !s.isEmpty()) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(s);
+        }
+    }
+
+    // Average of the scores present, weighted
+    private static final class Weighted {
+        private double sum = 0;
+        private double weights = 0;
+
+        void add(Float score, double weight) {
+            if (score != null) {
+                sum += score * weight;
+                weights += weight;
+            }
+        }
+
+        Float get() {
+            return (weights > 0) ? (float) (sum / weights) : null;
+        }
+    }
+}
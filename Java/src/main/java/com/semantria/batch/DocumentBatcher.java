@@ -0,0 +1,611 @@
+package com.semantria.batch;
+
+import com.google.common.base.MoreObjects;
+import com.semantria.Session;
+import com.semantria.mapping.Document;
+import com.semantria.mapping.output.Subscription;
+import com.semantria.mapping.output.subscription.BasicSettings;
+import com.semantria.utils.AuthRequest;
+import com.semantria.utils.CallResult;
+import com.semantria.utils.ValueResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects documents from any number of threads and queues them in batches.
+ * <p/>
+ * Documents are buffered per configuration. A buffer is sent with
+ * {@link Session#queueBatchForResultAsync(List, String)} as soon as it holds a batch's worth of
+ * documents, by default the subscription's incoming_batch_limit, or once its first document
+ * has waited for the linger time. Adding a document never waits for the service; the
+ * returned future completes with the status of the batch the document went in.
+ * <p/>
+ * With a byte budget ({@link #withMaxBatchBytes(long)}) a batch is also sent once the next
+ * document wouldn't fit in it; see {@link BatchPacker} for how documents are measured.
+ * Documents longer than the subscription's document_length are never sent; their futures
+ * fail with a {@link DocumentRejectedException}. With {@link #withSplitting(boolean)} they
+ * are split into parts instead, which go out in whatever batches have room; pass the
+ * processed documents through {@link #getSplitter()}'s {@link DocumentSplitter#merge(List)}
+ * to get one result per document.
+ * <p/>
+ * With {@link #withAdaptiveSizing(long, TimeUnit)} the batch size follows the latency and
+ * failures of the batch requests instead of being fixed; see {@link AdaptiveBatchSizer}.
+ * <p/>
+ * {@link #getStats()} reports the batch sizes achieved. Close the batcher to send what is
+ * still buffered.
+ */
+public class DocumentBatcher implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(DocumentBatcher.class);
+
+    public static final long DEFAULT_LINGER = 100;  // milliseconds
+
+    // Key of the buffer for documents without a configuration ID; can't be a real ID
+    private static final String PRIMARY_CONFIG = "\u0000primary";
+
+    // Levels in a row whose halves must be rejected like their batch before bisecting stops
+    private static final int MAX_UNCHANGED_LEVELS = 2;
+
+    private final Session session;
+    private volatile BatchPacker packer;
+    private volatile DocumentSplitter splitter = null;
+    private volatile boolean bisect = false;
+    private volatile AdaptiveBatchSizer sizer = null;
+    private final Map<String, Buffer> buffers = new ConcurrentHashMap<>();
+    private final Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicLong rejected = new AtomicLong();
+    private final BatchSizeStats stats = new BatchSizeStats();
+    private volatile long lingerNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LINGER);
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a batcher that sends batches of the subscription's incoming_batch_limit and
+     * checks documents against its document_length. Fetches the subscription from the service.
+     *
+     * @throws IllegalStateException if the subscription can't be retrieved.
+     */
+    public DocumentBatcher(Session session) {
+        this(session, getBasicSettings(session));
+    }
+
+    /**
+     * Creates a batcher that doesn't check the length of documents.
+     *
+     * @param batchSize Documents per batch; at most the subscription's incoming_batch_limit.
+     */
+    public DocumentBatcher(Session session, int batchSize) {
+        this.session = session;
+        this.packer = new BatchPacker(batchSize, 0, 0);
+    }
+
+    private DocumentBatcher(Session session, BasicSettings settings) {
+        this.session = session;
+        this.packer = new BatchPacker(settings.getIncomingBatchLimit(), 0,
+                (settings.getDocumentLength() != null) ? settings.getDocumentLength() : 0);
+    }
+
+    /**
+     * Sets how long the first document of a batch may wait for the batch to fill up before
+     * the batch is sent anyway. 0 sends every document right away unless others are
+     * being added at the same moment.
+     */
+    public DocumentBatcher withLinger(long linger, TimeUnit unit) {
+        if (linger < 0) {
+            throw new IllegalArgumentException("linger must not be negative: " + linger);
+        }
+        this.lingerNanos = unit.toNanos(linger);
+        return this;
+    }
+
+    public long getLinger(TimeUnit unit) {
+        return unit.convert(lingerNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the most bytes a batch may hold, or 0 for no budget, the default.
+     */
+    public DocumentBatcher withMaxBatchBytes(long maxBytes) {
+        this.packer = new BatchPacker(packer.getMaxDocuments(), maxBytes, packer.getDocumentLength());
+        return this;
+    }
+
+    /**
+     * Sets the longest text, in characters, a document may have to be sent, or 0 not to check.
+     * When documents are being split, the splitter is replaced by one for the new length.
+     */
+    public DocumentBatcher withDocumentLength(int documentLength) {
+        if ((splitter != null) && (documentLength == 0)) {
+            throw new IllegalStateException("Splitting needs a document length");
+        }
+        this.packer = new BatchPacker(packer.getMaxDocuments(), packer.getMaxBytes(), documentLength);
+        if (splitter != null) {
+            this.splitter = new DocumentSplitter(documentLength);
+        }
+        return this;
+    }
+
+    /**
+     * Whether to split documents longer than document_length into parts rather than reject
+     * them. Needs a document_length.
+     */
+    public DocumentBatcher withSplitting(boolean split) {
+        if (split && (packer.getDocumentLength() == 0)) {
+            throw new IllegalStateException("Splitting needs a document length");
+        }
+        this.splitter = split ? new DocumentSplitter(packer.getDocumentLength()) : null;
+        return this;
+    }
+
+    /**
+     * Returns the splitter that splits long documents, or null if they aren't split.
+     */
+    public DocumentSplitter getSplitter() {
+        return splitter;
+    }
+
+    /**
+     * Whether to find the documents at fault when the service rejects a batch with status 400
+     * or 413, by sending the halves of the batch again until the rejected documents are on
+     * their own. Their futures then fail with a {@link DocumentRejectedException} carrying
+     * the service's error, while the other documents are queued. If the halves of a batch
+     * are rejected with the batch's own status and error, and so are their halves in turn,
+     * the error is taken to concern the whole batch, e.g. an unknown config_id, and
+     * bisecting stops there: the documents' futures complete with the status, as they do
+     * without bisecting. Off by default.
+     */
+    public DocumentBatcher withBisectOnRejection(boolean bisect) {
+        this.bisect = bisect;
+        return this;
+    }
+
+    /**
+     * Returns the number of documents the service rejected on their own.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Lets the batch size follow the service: it grows while batch requests are answered
+     * well within {@code targetLatency} and shrinks when they take longer or fail, never
+     * above the batch size the batcher was created with. 0 turns it off, the default.
+     */
+    public DocumentBatcher withAdaptiveSizing(long targetLatency, TimeUnit unit) {
+        this.sizer = (targetLatency > 0) ? new AdaptiveBatchSizer(packer.getMaxDocuments(), targetLatency, unit) : null;
+        return this;
+    }
+
+    /**
+     * Returns the sizer that chooses the batch size, or null if the size is fixed.
+     */
+    public AdaptiveBatchSizer getSizer() {
+        return sizer;
+    }
+
+    public BatchPacker getPacker() {
+        return packer;
+    }
+
+    /**
+     * Returns the number of documents a batch is sent at now.
+     */
+    public int getBatchSize() {
+        return batchSize(packer);
+    }
+
+    private int batchSize(BatchPacker packer) {
+        AdaptiveBatchSizer sizer = this.sizer;
+        return (sizer != null) ? Math.min(sizer.getBatchSize(), packer.getMaxDocuments()) : packer.getMaxDocuments();
+    }
+
+    public BatchSizeStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Adds a document to the batch of its configuration.
+     *
+     * @param config_id Optional configuration ID. If not provided, primary configuration will be used for analysis.
+     * @return A future that completes with the HTTP status of the batch the document was
+     * queued in, or exceptionally if the document or its batch couldn't be sent. For a split
+     * document, the first status other than 200 or 202 of its parts' batches; the splitter then
+     * forgets the document, and the results of the parts that were queued pass through
+     * {@link DocumentSplitter#merge(List)} as they are.
+     * @throws IllegalStateException if the batcher has been closed.
+     */
+    public CompletableFuture<Integer> add(Document document, String config_id) {
+        checkOpen();
+        DocumentSplitter splitter = this.splitter;
+        if ((splitter == null) || !splitter.needsSplit(document)) {
+            return addOne(document, config_id);
+        }
+        final String id = document.getId();
+        List<Document> split = splitter.split(document);
+        List<CompletableFuture<Integer>> parts = new ArrayList<>(split.size());
+        try {
+            for (Document part : split) {
+                parts.add(addOne(part, config_id));
+            }
+        } catch (IllegalStateException e) {
+            // Closed halfway through the parts
+            splitter.discard(id);
+            throw e;
+        }
+        CompletableFuture<Integer> result = CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            Integer status = null;
+            for (CompletableFuture<Integer> part : parts) {
+                status = part.join();
+                if (!isQueued(status)) {
+                    break;
+                }
+            }
+            return status;
+        });
+        // A document with parts that weren't queued would wait for their results forever
+        result.whenComplete((status, e) -> {
+            if ((e != null) || !isQueued(status)) {
+                splitter.discard(id);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Integer> addOne(Document document, String config_id) {
+        BatchPacker packer = this.packer;
+        Pending pending = new Pending(document, BatchPacker.measure(document));
+        try {
+            packer.validate(document);
+        } catch (DocumentRejectedException e) {
+            pending.result.completeExceptionally(e);
+            return pending.result;
+        }
+        Buffer buffer = buffers.computeIfAbsent((config_id == null) ? PRIMARY_CONFIG : config_id,
+                k -> new Buffer(config_id));
+        int batchSize = batchSize(packer);
+        List<Pending> previous = null;
+        List<Pending> full = null;
+        synchronized (buffer) {
+            // Checked under the buffer's lock, which close() takes after setting the flag to
+            // flush the buffer, so a document is either refused or goes out with that flush
+            checkOpen();
+            // The size may have shrunk since the buffer's other documents were added
+            if (!packer.fits(buffer.pending.size(), buffer.bytes, pending.bytes) || (buffer.pending.size() >= batchSize)) {
+                previous = buffer.take();
+            }
+            buffer.add(pending);
+            if (packer.isFull(buffer.pending.size(), buffer.bytes) || (buffer.pending.size() >= batchSize)) {
+                full = buffer.take();
+            } else if ((buffer.pending.size() == 1) && (lingerNanos > 0)) {
+                final long generation = buffer.generation;
+                buffer.lingerTask = LingerScheduler.INSTANCE.schedule(
+                        () -> flush(buffer, generation), lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (previous != null) {
+            send(buffer.configId, previous, FlushReason.FULL);
+        }
+        if (full != null) {
+            send(buffer.configId, full, FlushReason.FULL);
+        } else if (lingerNanos == 0) {
+            flush(buffer, FlushReason.LINGER);
+        }
+        return pending.result;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The batcher has been closed");
+        }
+    }
+
+    /**
+     * Sends all buffered documents.
+     *
+     * @return A future that completes once every batch sent so far has been answered.
+     */
+    public CompletableFuture<Void> flush() {
+        for (Buffer buffer : buffers.values()) {
+            flush(buffer, FlushReason.FLUSH);
+        }
+        return CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]))
+                .handle((v, e) -> null);
+    }
+
+    /**
+     * Stops taking documents, sends the buffered ones and waits for up to {@code timeout}
+     * for all batches to be answered.
+     *
+     * @return true if all batches were answered in time.
+     */
+    public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        closed = true;
+        try {
+            flush().get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return true;  // not thrown, the failures are in the documents' futures
+        }
+    }
+
+    /**
+     * Stops taking documents, sends the buffered ones and waits until all batches have
+     * been answered.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flush().join();
+    }
+
+    private void flush(Buffer buffer, FlushReason reason) {
+        List<Pending> batch;
+        synchronized (buffer) {
+            if (buffer.pending.isEmpty()) {
+                return;
+            }
+            batch = buffer.take();
+        }
+        send(buffer.configId, batch, reason);
+    }
+
+    // Sends the batch the linger task was started for, unless it has been sent already
+    private void flush(Buffer buffer, long generation) {
+        List<Pending> batch;
+        synchronized (buffer) {
+            if ((buffer.generation != generation) || buffer.pending.isEmpty()) {
+                return;
+            }
+            batch = buffer.take();
+        }
+        send(buffer.configId, batch, FlushReason.LINGER);
+    }
+
+    // The batch counts as in flight until all its documents have their outcome, retries included
+    private void send(String configId, List<Pending> batch, FlushReason reason) {
+        CompletableFuture<?>[] results = new CompletableFuture<?>[batch.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = batch.get(i).result;
+        }
+        final CompletableFuture<Void> done = CompletableFuture.allOf(results);
+        inFlight.add(done);
+        done.whenComplete((v, e) -> inFlight.remove(done));
+        dispatch(configId, batch, reason, null);
+    }
+
+    // Sends the batch; halves is set when the batch is half of a rejected one
+    private void dispatch(final String configId, final List<Pending> batch, FlushReason reason, final Halves halves) {
+        List<Document> documents = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            documents.add(pending.document);
+        }
+        stats.record(batch.size(), reason);
+        log.debug("Sending a batch of {} documents ({})", batch.size(), reason);
+
+        final AdaptiveBatchSizer sizer = this.sizer;
+        final long start = System.nanoTime();
+        CompletableFuture<CallResult> call;
+        try {
+            call = session.queueBatchForResultAsync(documents, configId);
+        } catch (RuntimeException e) {
+            call = new CompletableFuture<>();
+            call.completeExceptionally(e);
+        }
+        call.whenComplete((result, e) -> {
+            if (sizer != null) {
+                sizer.record(batch.size(), System.nanoTime() - start, TimeUnit.NANOSECONDS,
+                        (e != null) || isCapacityError(result.getStatus()));
+            }
+            if (halves != null) {
+                halves.answered(batch, result, e);
+            } else {
+                complete(configId, batch, result, e);
+            }
+        });
+    }
+
+    // Gives the documents the batch's outcome, or sends the halves of a rejected batch again
+    private void complete(String configId, List<Pending> batch, CallResult result, Throwable e) {
+        if ((e == null) && bisect && isDocumentError(result.getStatus())) {
+            bisect(configId, batch, result, 0);
+            return;
+        }
+        settle(batch, result, e);
+    }
+
+    private static void settle(List<Pending> batch, CallResult result, Throwable e) {
+        for (Pending pending : batch) {
+            if (e != null) {
+                pending.result.completeExceptionally(e);
+            } else {
+                pending.result.complete(result.getStatus());
+            }
+        }
+    }
+
+    // Sends the halves of a rejected batch again, down to the documents that are at fault.
+    // unchanged counts the levels above in a row whose halves were rejected like the batch.
+    private void bisect(String configId, List<Pending> batch, CallResult result, int unchanged) {
+        if (batch.size() == 1) {
+            Pending pending = batch.get(0);
+            rejected.incrementAndGet();
+            log.debug("Document {} rejected with status {}: {}", pending.document.getId(),
+                    result.getStatus(), result.getErrorMessage());
+            pending.result.completeExceptionally(new DocumentRejectedException(
+                    result.getStatus(), pending.document.getId(), result.getErrorMessage()));
+            return;
+        }
+        log.debug("Batch of {} documents rejected with status {}, sending it again in halves",
+                batch.size(), result.getStatus());
+        int half = batch.size() / 2;
+        Halves halves = new Halves(configId, result, unchanged);
+        dispatch(configId, new ArrayList<>(batch.subList(0, half)), FlushReason.RETRY, halves);
+        dispatch(configId, new ArrayList<>(batch.subList(half, batch.size())), FlushReason.RETRY, halves);
+    }
+
+    // 202, or 200 when the configuration answers batches with their results right away
+    private static boolean isQueued(Integer status) {
+        return (status != null) && (status >= 200) && (status <= 202);
+    }
+
+    private static boolean isDocumentError(int status) {
+        return (status == 400) || (status == 413);
+    }
+
+    // Failures that say the service is struggling, or that the batch was too big, rather than the documents are wrong
+    private static boolean isCapacityError(int status) {
+        return (status <= 0) || (status == AuthRequest.STATUS_DEADLINE_EXCEEDED) || (status == 413)
+                || (status == 429) || (status >= 500);
+    }
+
+    private static BasicSettings getBasicSettings(Session session) {
+        ValueResult<Subscription> result = session.getSubscriptionForResult();
+        Subscription subscription = result.getValue();
+        if ((subscription == null) || (subscription.getBasicSettings() == null)
+                || (subscription.getBasicSettings().getIncomingBatchLimit() == null)) {
+            throw new IllegalStateException("Can't get the incoming batch limit of the subscription, status "
+                    + result.getStatus() + ((result.getErrorMessage() != null) ? ": " + result.getErrorMessage() : ""));
+        }
+        return subscription.getBasicSettings();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("packer", packer)
+                .add("lingerMillis", getLinger(TimeUnit.MILLISECONDS))
+                .add("sizer", sizer)
+                .add("batchesInFlight", inFlight.size())
+                .add("rejected", rejected.get())
+                .add("stats", stats)
+                .toString();
+    }
+
+    // Documents waiting for one configuration's next batch; guarded by itself
+    private static final class Buffer {
+        final String configId;
+        List<Pending> pending = new ArrayList<>();
+        long bytes = 0;
+        long generation = 0;
+        ScheduledFuture<?> lingerTask = null;
+
+        Buffer(String configId) {
+            this.configId = configId;
+        }
+
+        void add(Pending document) {
+            pending.add(document);
+            bytes += document.bytes;
+        }
+
+        List<Pending> take() {
+            if (lingerTask != null) {
+                lingerTask.cancel(false);
+                lingerTask = null;
+            }
+            List<Pending> taken = pending;
+            pending = new ArrayList<>(taken.size());
+            bytes = 0;
+            generation++;
+            return taken;
+        }
+    }
+
+    /**
+     * The two halves of a rejected batch. When both are rejected with the same status and
+     * error as the whole batch, they are bisected in turn, since a generic error can also
+     * come from invalid documents in each half. Only when the two halves of a half are
+     * rejected like that too is the error taken to be about the batch rather than its
+     * documents, e.g. an unknown configuration, and the documents get that status as they
+     * would without bisecting. Otherwise each half goes on by its own answer.
+     */
+    private final class Halves {
+        final String configId;
+        final CallResult rejection;
+        final int unchanged;
+        private boolean answered = false;   // guarded by this
+        private List<Pending> held = null;  // a half rejected like the batch, waiting for the other
+
+        Halves(String configId, CallResult rejection, int unchanged) {
+            this.configId = configId;
+            this.rejection = rejection;
+            this.unchanged = unchanged;
+        }
+
+        void answered(List<Pending> half, CallResult result, Throwable e) {
+            boolean same = (e == null) && (result.getStatus() == rejection.getStatus())
+                    && Objects.equals(result.getErrorMessage(), rejection.getErrorMessage());
+            List<Pending> other;
+            synchronized (this) {
+                if (!answered) {
+                    answered = true;
+                    if (same) {
+                        held = half;
+                        return;
+                    }
+                }
+                other = held;
+                held = null;
+            }
+            if (other == null) {
+                complete(configId, half, result, e);
+            } else if (same && (unchanged + 1 >= MAX_UNCHANGED_LEVELS)) {
+                log.debug("Halves rejected with status {} like the whole batch {} times in a row, not bisecting further",
+                        rejection.getStatus(), MAX_UNCHANGED_LEVELS);
+                settle(other, rejection, null);
+                settle(half, result, null);
+            } else if (same) {
+                bisect(configId, other, rejection, unchanged + 1);
+                bisect(configId, half, result, unchanged + 1);
+            } else {
+                complete(configId, other, rejection, null);
+                complete(configId, half, result, e);
+            }
+        }
+    }
+
+    private static final class Pending {
+        final Document document;
+        final long bytes;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        Pending(Document document, long bytes) {
+            this.document = document;
+            this.bytes = bytes;
+        }
+    }
+
+    // One daemon thread sends the batches whose linger time is up, for all batchers.
+    private static class LingerScheduler {
+        static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "semantria-batch-linger");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        static {
+            // Most linger tasks are cancelled because their batch filled up first
+            INSTANCE.setRemoveOnCancelPolicy(true);
+        }
+    }
+}
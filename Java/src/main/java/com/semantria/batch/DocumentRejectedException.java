@@ -0,0 +1,30 @@
+package com.semantria.batch;
+
+/**
+ * A document that wasn't queued, with the status and error message the service gave for it,
+ * or that it would have given.
+ */
+public class DocumentRejectedException extends RuntimeException {
+
+    private final int status;
+    private final String documentId;
+
+    public DocumentRejectedException(int status, String documentId, String message) {
+        super(message);
+        this.status = status;
+        this.documentId = documentId;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + ": document " + documentId + ", status " + status + ": " + getMessage();
+    }
+}
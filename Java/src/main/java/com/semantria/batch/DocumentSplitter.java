@@ -0,0 +1,229 @@
+package com.semantria.batch;
+
+import com.google.common.base.MoreObjects;
+import com.semantria.mapping.Document;
+import com.semantria.mapping.output.DocAnalyticData;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Splits documents longer than document_length into parts at sentence boundaries, and
+ * merges the parts' results back into one.
+ * <p/>
+ * Lengths are counted in code points, as {@link BatchPacker#validate(Document)} counts them.
+ * Part {@code n} of document {@code id} gets the ID {@code id#n}, counting from 1, and the
+ * document's tag, job ID and metadata. A sentence that is too long on its own is cut at the
+ * last whitespace that fits. The splitter remembers each split document until
+ * {@link #merge(List)} has seen the results of all its parts. Safe for concurrent use.
+ */
+public class DocumentSplitter {
+
+    public static final char PART_SEPARATOR = '#';
+
+    private final int maxLength;
+    private final Locale locale;
+    private final Map<String, Split> splits = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a splitter that finds sentences by English rules.
+     *
+     * @param maxLength Longest part, in code points, usually the subscription's document_length.
+     */
+    public DocumentSplitter(int maxLength) {
+        this(maxLength, Locale.ENGLISH);
+    }
+
+    /**
+     * @param maxLength Longest part, in code points, usually the subscription's document_length.
+     * @param locale    Language whose rules are used to find sentence boundaries.
+     */
+    public DocumentSplitter(int maxLength, Locale locale) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("maxLength must be positive: " + maxLength);
+        }
+        this.maxLength = maxLength;
+        this.locale = locale;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Returns the number of split documents whose parts' results haven't all been merged yet.
+     */
+    public int getPendingCount() {
+        return splits.size();
+    }
+
+    /**
+     * Whether the document is too long to be sent as it is.
+     */
+    public boolean needsSplit(Document document) {
+        String text = document.getText();
+        return (text != null) && isTooLong(text, 0, text.length());
+    }
+
+    /**
+     * Returns the parts of the document, or the document itself if it doesn't need splitting.
+     *
+     * @throws IllegalStateException if a document with the same ID is already split and waiting for results.
+     */
+    public List<Document> split(Document document) {
+        if (!needsSplit(document)) {
+            return Collections.singletonList(document);
+        }
+        String text = document.getText();
+        List<Integer> bounds = findBounds(text);
+        int count = bounds.size() - 1;
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        List<Document> parts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            offsets[i] = bounds.get(i);
+            lengths[i] = bounds.get(i + 1) - offsets[i];
+            Document part = new Document(partId(document.getId(), i + 1),
+                    text.substring(offsets[i], bounds.get(i + 1)), document.getTag());
+            part.setJobId(document.getJobId());
+            part.setMetadata(document.getMetadata());
+            parts.add(part);
+        }
+        if (splits.putIfAbsent(document.getId(), new Split(offsets, lengths)) != null) {
+            throw new IllegalStateException("Document " + document.getId() + " is already split");
+        }
+        return parts;
+    }
+
+    /**
+     * Returns the results with the parts of split documents replaced by merged results. Parts
+     * whose siblings haven't all arrived yet are held back until they have; results of other
+     * documents are passed through.
+     */
+    public List<DocAnalyticData> merge(List<DocAnalyticData> results) {
+        List<DocAnalyticData> merged = new ArrayList<>(results.size());
+        for (DocAnalyticData result : results) {
+            String id = result.getId();
+            int separator = (id != null) ? id.lastIndexOf(PART_SEPARATOR) : -1;
+            Split split = (separator > 0) ? splits.get(id.substring(0, separator)) : null;
+            int index = (split != null) ? partIndex(id.substring(separator + 1), split.parts.length) : -1;
+            if (index < 0) {
+                merged.add(result);
+                continue;
+            }
+            String parentId = id.substring(0, separator);
+            List<DocAnalyticData> parts = split.add(index, result);
+            if (parts != null) {
+                splits.remove(parentId);
+                merged.add(DocAnalyticDataMerger.merge(parentId, parts, split.offsets, split.lengths));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Forgets a split document, e.g. after giving up on the results of its parts.
+     */
+    public void discard(String id) {
+        splits.remove(id);
+    }
+
+    public static String partId(String id, int n) {
+        return id + PART_SEPARATOR + n;
+    }
+
+    // Part boundaries: 0, the end of each part but the last, text.length()
+    private List<Integer> findBounds(String text) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        BreakIterator sentences = BreakIterator.getSentenceInstance(locale);
+        sentences.setText(text);
+        int partStart = 0;
+        int sentenceStart = 0;
+        for (int end = sentences.next(); end != BreakIterator.DONE; end = sentences.next()) {
+            if (isTooLong(text, partStart, end)) {
+                if (sentenceStart > partStart) {
+                    partStart = sentenceStart;
+                    bounds.add(partStart);
+                }
+                while (isTooLong(text, partStart, end)) {
+                    partStart = cut(text, partStart);
+                    bounds.add(partStart);
+                }
+            }
+            sentenceStart = end;
+        }
+        if (bounds.get(bounds.size() - 1) < text.length()) {
+            bounds.add(text.length());
+        }
+        return bounds;
+    }
+
+    // A String has at least as many chars as code points, so most texts need no counting
+    private boolean isTooLong(String text, int start, int end) {
+        return (end - start > maxLength) && (text.codePointCount(start, end) > maxLength);
+    }
+
+    // End of a part of a too long sentence: after the last whitespace that fits, if any
+    private int cut(String text, int start) {
+        int limit = text.offsetByCodePoints(start, maxLength);
+        for (int i = limit; i > start + 1; i--) {
+            if (Character.isWhitespace(text.charAt(i - 1))) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private static int partIndex(String n, int count) {
+        try {
+            int index = Integer.parseInt(n) - 1;
+            return ((index >= 0) && (index < count)) ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("maxLength", maxLength)
+                .add("locale", locale)
+                .add("pending", splits.size())
+                .toString();
+    }
+
+    // Where the parts of a document are and which results have arrived; guarded by itself
+    private static final class Split {
+        final int[] offsets;
+        final int[] lengths;
+        final DocAnalyticData[] parts;
+        int received = 0;
+        boolean merged = false;
+
+        Split(int[] offsets, int[] lengths) {
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.parts = new DocAnalyticData[offsets.length];
+        }
+
+        // Returns all parts when the last one arrives, once
+        synchronized List<DocAnalyticData> add(int index, DocAnalyticData result) {
+            if (merged) {
+                return null;
+            }
+            if (parts[index] == null) {
+                received++;
+            }
+            parts[index] = result;
+            merged = (received == parts.length);
+            return merged ? Arrays.asList(parts) : null;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.semantria.batch;
+
+/**
+ * Why a {@link DocumentBatcher} sent a batch.
+ */
+public enum FlushReason {
+    /**
+     * The batch reached the batch size.
+     */
+    FULL,
+    /**
+     * The first document of the batch had waited for the linger time.
+     */
+    LINGER,
+    /**
+     * The batcher was flushed or closed.
+     */
+    FLUSH,
+    /**
+     * Half of a rejected batch, sent again to find the documents at fault.
+     */
+    RETRY
+}
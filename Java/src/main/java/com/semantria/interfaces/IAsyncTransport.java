@@ -0,0 +1,25 @@
+package com.semantria.interfaces;
+
+import com.semantria.transport.TransportRequest;
+import com.semantria.transport.TransportResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * IAsyncTransport interface for transports that can send requests without blocking the
+ * calling thread. The asynchronous Session methods use it when the session's transport
+ * implements it; with any other transport they run the blocking call on an executor.
+ */
+public interface IAsyncTransport extends ITransport
+{
+	/**
+	 * Sends the request without waiting for the response. Requests with a body writer are
+	 * not supported, since writing the body would block.
+	 * @param request Request to be sent.
+	 * @return A future that completes with the response once all of it has arrived, so that
+	 * its body can be read without blocking, or exceptionally with the IOException that ended
+	 * the exchange. A request that timed out fails with a {@link java.net.SocketTimeoutException}.
+	 * HTTP error statuses are returned as responses. The caller must close the response.
+	 */
+	CompletableFuture<TransportResponse> executeAsync(TransportRequest request);
+}
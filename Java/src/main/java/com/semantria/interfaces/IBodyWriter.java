@@ -0,0 +1,18 @@
+package com.semantria.interfaces;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * IBodyWriter interface for request bodies that are written straight to the connection
+ * instead of being built in memory first.
+ */
+public interface IBodyWriter
+{
+	/**
+	 * Writes the whole body. Implementations must not close {@code out}.
+	 * @param out Stream to the connection.
+	 * @throws IOException if the body could not be written.
+	 */
+	void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,66 @@
+package com.semantria.interfaces;
+
+import com.semantria.transport.RequestTiming;
+
+/**
+ * IRequestEvent interface that describes a finished request to an {@link IRequestListener}.
+ * <p/>
+ * A snapshot taken when the request finished, so it may be used on another thread and
+ * kept after the call returned. The response body is only turned into a String when
+ * asked for.
+ */
+public interface IRequestEvent
+{
+	/**
+	 * Method and path of the call, e.g. "GET document/processed".
+	 */
+	String getEndpoint();
+
+	String getMethod();
+
+	/**
+	 * URL of the request, without query parameters.
+	 */
+	String getRequestUrl();
+
+	/**
+	 * HTTP status of the response, or an SDK status such as 408 if no response arrived.
+	 */
+	Integer getStatus();
+
+	/**
+	 * Returns the error message of a failed request, or null if it succeeded.
+	 */
+	String getErrorMessage();
+
+	/**
+	 * Size in bytes of the UTF-8 request body, before compression.
+	 */
+	long getBodySize();
+
+	/**
+	 * Number of request body bytes actually sent, after compression if it was applied.
+	 */
+	long getSentBodySize();
+
+	/**
+	 * Size in bytes of the decoded response body.
+	 */
+	long getResponseSize();
+
+	/**
+	 * Where the time of the request went. PARSE is recorded after listeners are called,
+	 * so it is left at zero here.
+	 */
+	RequestTiming getTiming();
+
+	/**
+	 * Returns the request body, or null if there was none or it was streamed.
+	 */
+	String getRequestBody();
+
+	/**
+	 * Returns the body of a successful response, decoding it on the first call.
+	 */
+	String getResponse();
+}
@@ -0,0 +1,18 @@
+package com.semantria.interfaces;
+
+/**
+ * IRequestListener interface that a Session notifies of each finished request.
+ * <p/>
+ * Unlike {@link ICallbackHandler} it gets no copies of request or response bodies; the
+ * event decodes the response lazily if the listener asks. Holding on to the event keeps the
+ * response body in memory. No event is created while no listener is set.
+ */
+public interface IRequestListener
+{
+	/**
+	 * Occurs when a request has finished, successfully or not.
+	 * @param sender An object that fires event, particularly Session.
+	 * @param event The finished request.
+	 */
+	void onRequestCompleted(Object sender, IRequestEvent event);
+}
@@ -1,8 +1,31 @@
 package com.semantria.interfaces;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 public interface ISerializer
 {
 	String getType();
 	String serialize(Object object);
 	Object deserialize(String string, Class<?> type);
+
+	/**
+	 * Deserializes a UTF-8 response body. Serializers that can parse bytes directly
+	 * override this to skip building an intermediate String.
+	 */
+	default Object deserialize(byte[] data, Class<?> type)
+	{
+		return deserialize((data == null) ? "" : new String(data, StandardCharsets.UTF_8), type);
+	}
+
+	/**
+	 * Writes the object as UTF-8 to {@code out} without closing it. An {@link Iterable}
+	 * is written as a list, one element at a time. The default implementation
+	 * serializes to a String first.
+	 */
+	default void serialize(Object object, OutputStream out) throws IOException
+	{
+		out.write(serialize(object).getBytes("UTF-8"));
+	}
 }
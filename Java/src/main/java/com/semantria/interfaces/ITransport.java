@@ -0,0 +1,24 @@
+package com.semantria.interfaces;
+
+import com.semantria.transport.TransportRequest;
+import com.semantria.transport.TransportResponse;
+
+import java.io.IOException;
+
+/**
+ * ITransport interface that defines how a Session sends its HTTP requests.
+ * <p/>
+ * Requests arrive fully prepared, with OAuth signature, SDK headers and body. A transport
+ * only moves bytes; it must not add, drop or rewrite request headers that affect the API.
+ */
+public interface ITransport
+{
+	/**
+	 * Sends the request and returns the response once its status and headers have arrived.
+	 * HTTP error statuses are returned as responses, not thrown.
+	 * @param request Request to be sent.
+	 * @return The response. The caller must close it.
+	 * @throws IOException if the request could not be sent or the response could not be read.
+	 */
+	TransportResponse execute(TransportRequest request) throws IOException;
+}
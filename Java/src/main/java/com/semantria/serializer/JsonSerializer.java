@@ -2,6 +2,7 @@ package com.semantria.serializer;
 
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 import com.semantria.interfaces.ISerializer;
 import com.semantria.mapping.configuration.*;
 import com.semantria.mapping.configuration.stub.*;
@@ -10,22 +11,77 @@ import com.semantria.mapping.output.statistics.StatisticsGrouped;
 import com.semantria.mapping.output.statistics.StatisticsOverall;
 import com.semantria.mapping.output.stub.*;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.List;
 
 public class JsonSerializer implements ISerializer
 {
+	// Gson instances are thread-safe and cache the type adapters they build by reflection,
+	// so they are created once instead of per call
+	private static final Gson GSON = new Gson();
+	private static final Gson DESERIALIZING_GSON = createDeserializingGson();
 
 	public String serialize(Object object)
 	{
-		Gson gson = new Gson();
-		return gson.toJson(object);
+		return GSON.toJson(object);
+	}
+
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException
+	{
+		Gson gson = GSON;
+		JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+		try
+		{
+			if (object instanceof Iterable)
+			{
+				writer.beginArray();
+				for (Object element : (Iterable<?>) object)
+				{
+					gson.toJson(element, element.getClass(), writer);
+				}
+				writer.endArray();
+			}
+			else
+			{
+				gson.toJson(object, object.getClass(), writer);
+			}
+		}
+		catch (JsonIOException e)
+		{
+			throw new IOException(e.getCause());
+		}
+		writer.flush();
 	}
 
 	public Object deserialize(String string, Class<?> type)
 	{
-		Object object = null;
+		return deserialize((string.length() > 0) ? new StringReader(string) : null, type);
+	}
+
+	@Override
+	public Object deserialize(byte[] data, Class<?> type)
+	{
+		Reader reader = null;
+		if (data != null && data.length > 0)
+		{
+			reader = new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8);
+		}
+		return deserialize(reader, type);
+	}
+
+	private static Gson createDeserializingGson()
+	{
         GsonBuilder builder = new GsonBuilder();
         // Register an adapter to manage the date types as long values
         // @NOTE: processing case with timestamp without milliseconds
@@ -43,85 +99,91 @@ public class JsonSerializer implements ISerializer
                 }
             }
         });
-        Gson gson = builder.create();
+        return builder.create();
+	}
+
+	private Object deserialize(Reader reader, Class<?> type)
+	{
+		Object object = null;
+		Gson gson = DESERIALIZING_GSON;
 
-		if(string.length() > 0)
+		if(reader != null)
 		{
 			if(type.equals(Blacklists.class))
 			{
 				Type listType = new TypeToken<List<BlacklistItem>>() {}.getType();
-				object = new Blacklists( (List<BlacklistItem>)gson.fromJson(string, listType) );
+				object = new Blacklists( (List<BlacklistItem>)gson.fromJson(reader, listType) );
 			}
 			else if(type.equals(Categories.class))
 			{
 				Type listType = new TypeToken<List<Category>>() {}.getType();
-				object = new Categories( (List<Category>)gson.fromJson(string, listType));
+				object = new Categories( (List<Category>)gson.fromJson(reader, listType));
 			}
 			else if(type.equals(Configurations.class))
 			{
 				Type listType = new TypeToken<List<Configuration>>() {}.getType();
-				object = new Configurations( (List<Configuration>)gson.fromJson(string, listType));
+				object = new Configurations( (List<Configuration>)gson.fromJson(reader, listType));
 			}
 			else if(type.equals(Queries.class))
 			{
 				Type listType = new TypeToken<List<Query>>() {}.getType();
-				object = new Queries( (List<Query>)gson.fromJson(string, listType));
+				object = new Queries( (List<Query>)gson.fromJson(reader, listType));
 			}
 			else if(type.equals(SentimentPhrases.class))
 			{
 				Type listType = new TypeToken<List<SentimentPhrase>>() {}.getType();
-				object = new SentimentPhrases( (List<SentimentPhrase>)gson.fromJson(string, listType));
+				object = new SentimentPhrases( (List<SentimentPhrase>)gson.fromJson(reader, listType));
 			}
             else if(type.equals(Taxonomies.class))
             {
                 Type listType = new TypeToken<List<TaxonomyNode>>() {}.getType();
-                object = new Taxonomies( (List<TaxonomyNode>)gson.fromJson(string, listType));
+                object = new Taxonomies( (List<TaxonomyNode>)gson.fromJson(reader, listType));
             }
 			else if(type.equals(DocsAnalyticData.class))
 			{
 				Type listType = new TypeToken<List<DocAnalyticData>>() {}.getType();
-				object = new DocsAnalyticData( (List<DocAnalyticData>)gson.fromJson(string, listType));
+				object = new DocsAnalyticData( (List<DocAnalyticData>)gson.fromJson(reader, listType));
 			}
 			else if(type.equals(CollsAnalyticData.class))
 			{
 				Type listType = new TypeToken<List<CollAnalyticData>>() {}.getType();
-				object = new CollsAnalyticData( (List<CollAnalyticData>)gson.fromJson(string, listType));
+				object = new CollsAnalyticData( (List<CollAnalyticData>)gson.fromJson(reader, listType));
 			}
 			else if(type.equals(DocAnalyticData.class))
 			{
-				object = gson.fromJson(string, DocAnalyticData.class);
+				object = gson.fromJson(reader, DocAnalyticData.class);
 			}
 			else if(type.equals(ServiceStatus.class))
 			{
-				object = gson.fromJson(string, ServiceStatus.class);
+				object = gson.fromJson(reader, ServiceStatus.class);
 			}
 			else if(type.equals(Subscription.class))
 			{
-				object = gson.fromJson(string, Subscription.class);
+				object = gson.fromJson(reader, Subscription.class);
 			}
 			else if(type.equals(UserEntities.class))
 			{
 				Type listType = new TypeToken< List<UserEntity>>() {}.getType();
-				object = new UserEntities( (List<UserEntity>)gson.fromJson(string, listType));
+				object = new UserEntities( (List<UserEntity>)gson.fromJson(reader, listType));
 			}
 			else if(type.equals(CollAnalyticData.class))
 			{
-				object = gson.fromJson(string, CollAnalyticData.class);
+				object = gson.fromJson(reader, CollAnalyticData.class);
 			}
             else if(type.equals(StatisticsOverallList.class))
             {
                 Type listType = new TypeToken< List<StatisticsOverall>>() {}.getType();
-                object = new StatisticsOverallList( (List<StatisticsOverall>)gson.fromJson(string, listType));
+                object = new StatisticsOverallList( (List<StatisticsOverall>)gson.fromJson(reader, listType));
             }
             else if(type.equals(StatisticsGroupedList.class))
             {
                 Type listType = new TypeToken< List<StatisticsGrouped>>() {}.getType();
-                object = new StatisticsGroupedList( (List<StatisticsGrouped>)gson.fromJson(string, listType));
+                object = new StatisticsGroupedList( (List<StatisticsGrouped>)gson.fromJson(reader, listType));
             }
             else if(type.equals(FeaturesList.class))
             {
                 Type listType = new TypeToken< List<FeaturesSet>>() {}.getType();
-                object = new FeaturesList( (List<FeaturesSet>)gson.fromJson(string, listType));
+                object = new FeaturesList( (List<FeaturesSet>)gson.fromJson(reader, listType));
             }
 
 		}
@@ -9,10 +9,14 @@ import com.semantria.mapping.output.*;
 import com.semantria.mapping.output.stub.*;
 
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public class XmlSerializer implements ISerializer
 {
@@ -21,64 +25,62 @@ public class XmlSerializer implements ISerializer
 		Object obj = null;
 		if(input.length() > 0)
 		{
-			try
-			{
-				ByteArrayInputStream inputStream = new ByteArrayInputStream(input.getBytes());
-				JAXBContext jc = JAXBContext.newInstance(
-						Blacklists.class,
-						Categories.class,
-						SentimentPhrases.class,
-                        Configurations.class,
-						Queries.class,
-						UserEntities.class,
-						DocAnalyticData.class,
-						DocsAnalyticData.class,
-						CollAnalyticData.class,
-                        CollsAnalyticData.class,
-						ServiceStatus.class,
-						Subscription.class,
-                        FeaturesList.class,
-                        StatisticsOverallList.class,
-                        StatisticsGroupedList.class,
-                        Taxonomies.class
-				);
-				Unmarshaller unmarshaller = jc.createUnmarshaller();
-				obj = unmarshaller.unmarshal(inputStream);
-			}
-			catch(Exception e)
-			{
-				System.out.println(e);
-			}
+			obj = unmarshal(new ByteArrayInputStream(input.getBytes()));
 		}
 		return obj;
 	}
-	
-	public String serialize(Object obj)
+
+	@Override
+	public Object deserialize(byte[] data, Class<?> type)
 	{
-		String res = null;
+		Object obj = null;
+		if(data != null && data.length > 0)
+		{
+			obj = unmarshal(new ByteArrayInputStream(data));
+		}
+		return obj;
+	}
+
+	private Object unmarshal(InputStream inputStream)
+	{
+		Object obj = null;
 		try
 		{
-			ByteArrayOutputStream os = new ByteArrayOutputStream();
 			JAXBContext jc = JAXBContext.newInstance(
 					Blacklists.class,
 					Categories.class,
-					Queries.class,
 					SentimentPhrases.class,
-					UserEntities.class,
 					Configurations.class,
-					Batch.class,
-					Collection.class,
-					Document.class,
-					CategoriesDeleteReq.class,
-					QueriesDeleteReq.class,
-					SentimentPhrasesDeleteReq.class,
-					UserEntitiesDeleteReq.class,
-					ConfigurationsDeleteReq.class,
-                    Taxonomies.class,
-                    BlacklistsDeleteReq.class,
-                    TaxonomiesDeleteReq.class
+					Queries.class,
+					UserEntities.class,
+					DocAnalyticData.class,
+					DocsAnalyticData.class,
+					CollAnalyticData.class,
+					CollsAnalyticData.class,
+					ServiceStatus.class,
+					Subscription.class,
+					FeaturesList.class,
+					StatisticsOverallList.class,
+					StatisticsGroupedList.class,
+					Taxonomies.class
 			);
-			Marshaller marshaller = jc.createMarshaller();
+			Unmarshaller unmarshaller = jc.createUnmarshaller();
+			obj = unmarshaller.unmarshal(inputStream);
+		}
+		catch(Exception e)
+		{
+			System.out.println(e);
+		}
+		return obj;
+	}
+	
+	public String serialize(Object obj)
+	{
+		String res = null;
+		try
+		{
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			Marshaller marshaller = createMarshaller();
 
 			marshaller.marshal(obj, os);
 			res = os.toString();
@@ -90,6 +92,43 @@ public class XmlSerializer implements ISerializer
 		}
 		return res;
 	}
+
+	@Override
+	public void serialize(Object obj, OutputStream out) throws IOException
+	{
+		try
+		{
+			createMarshaller().marshal(obj, out);
+		}
+		catch(JAXBException e)
+		{
+			throw new IOException("Can't serialize " + obj.getClass().getSimpleName(), e);
+		}
+	}
+
+	private Marshaller createMarshaller() throws JAXBException
+	{
+		JAXBContext jc = JAXBContext.newInstance(
+				Blacklists.class,
+				Categories.class,
+				Queries.class,
+				SentimentPhrases.class,
+				UserEntities.class,
+				Configurations.class,
+				Batch.class,
+				Collection.class,
+				Document.class,
+				CategoriesDeleteReq.class,
+				QueriesDeleteReq.class,
+				SentimentPhrasesDeleteReq.class,
+				UserEntitiesDeleteReq.class,
+				ConfigurationsDeleteReq.class,
+				Taxonomies.class,
+				BlacklistsDeleteReq.class,
+				TaxonomiesDeleteReq.class
+		);
+		return jc.createMarshaller();
+	}
 	
 	public String getType()
 	{
@@ -0,0 +1,359 @@
+package com.semantria.transport;
+
+import com.google.common.base.MoreObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of persistent (keep-alive) HTTP/1.1 connections.
+ * <p/>
+ * A {@link PooledTransport} borrows a connection from the pool for every request instead
+ * of opening a new TCP/TLS connection. Connections are grouped by route: scheme, host and
+ * port, and for https the {@link TlsContext} they were opened with, so that transports with
+ * different TLS settings can share a pool without sharing connections. The pool limits how many connections may be leased at once, both in total and per
+ * route; callers wait for a free connection up to their connect timeout. Idle connections
+ * are kept for at most the idle timeout and are evicted lazily.
+ * <p/>
+ * Requests sent to a local proxy over a Unix domain socket (see {@link UnixSocketTransport})
+ * have routes of their own.
+ */
+public class ConnectionPool implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+    public static final int DEFAULT_MAX_TOTAL = 20;
+    public static final int DEFAULT_MAX_PER_ROUTE = 10;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    private final int maxTotal;
+    private final int maxPerRoute;
+    private final long idleTimeout;
+
+    private final Semaphore totalPermits;
+    private final Map<RouteKey, Route> routes = new ConcurrentHashMap<>();
+    private final AtomicLong nextEviction = new AtomicLong();
+    private volatile boolean closed = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicInteger leased = new AtomicInteger();
+
+    public ConnectionPool() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maxTotal    Maximum number of connections leased at the same time across all routes.
+     * @param maxPerRoute Maximum number of connections leased at the same time to a single route.
+     *                    This is also the number of idle connections kept per route.
+     * @param idleTimeout How long an unused connection is kept before it is closed.
+     * @param unit        Unit of {@code idleTimeout}.
+     */
+    public ConnectionPool(int maxTotal, int maxPerRoute, long idleTimeout, TimeUnit unit) {
+        if ((maxTotal <= 0) || (maxPerRoute <= 0)) {
+            throw new IllegalArgumentException("Connection limits must be positive");
+        }
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = Math.min(maxPerRoute, maxTotal);
+        this.idleTimeout = unit.toMillis(idleTimeout);
+        this.totalPermits = new Semaphore(maxTotal, true);
+    }
+
+    PooledConnection lease(URL url, String socketPath, int timeout, boolean forceNew, TlsContext tlsContext) throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool is closed");
+        }
+        Route route = getRoute(url, socketPath, tlsContext);
+        acquirePermit(totalPermits, timeout, route);
+        try {
+            acquirePermit(route.permits, timeout, route);
+        } catch (IOException e) {
+            totalPermits.release();
+            throw e;
+        }
+        leased.incrementAndGet();
+        try {
+            evictExpiredIfDue();
+            long now = System.currentTimeMillis();
+            PooledConnection conn;
+            while (!forceNew && ((conn = route.idle.pollFirst()) != null)) {
+                if (conn.isOpen() && !conn.isExpired(now, idleTimeout)) {
+                    hits.incrementAndGet();
+                    log.trace("Reusing connection {}", conn);
+                    return conn;
+                }
+                evict(conn);
+            }
+            misses.incrementAndGet();
+            return PooledConnection.open(route, timeout);
+        } catch (IOException | RuntimeException e) {
+            releasePermits(route);
+            throw e;
+        }
+    }
+
+    void release(PooledConnection conn, boolean reusable) {
+        Route route = conn.getRoute();
+        if (reusable && !closed && conn.isOpen()) {
+            conn.markIdle(System.currentTimeMillis());
+            route.idle.offerFirst(conn);
+            // Keep the most recently used connections, close the surplus.
+            while (route.idle.size() > maxPerRoute) {
+                PooledConnection oldest = route.idle.pollLast();
+                if (oldest != null) {
+                    evict(oldest);
+                }
+            }
+        } else {
+            conn.close();
+        }
+        releasePermits(route);
+        if (closed) {
+            closeIdle();
+        }
+    }
+
+    /**
+     * Closes connections that have been idle longer than the idle timeout.
+     *
+     * @return Number of connections closed.
+     */
+    public int evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Route route : routes.values()) {
+            for (PooledConnection conn : route.idle) {
+                if ((!conn.isOpen() || conn.isExpired(now, idleTimeout)) && route.idle.remove(conn)) {
+                    evict(conn);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Closes all idle connections. Connections currently in use are closed when they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeIdle();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Number of requests that were served by an already open connection.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of requests that had to open a new connection.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of idle connections closed because they expired or were found closed.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public int getLeasedCount() {
+        return leased.get();
+    }
+
+    public int getIdleCount() {
+        int count = 0;
+        for (Route route : routes.values()) {
+            count += route.idle.size();
+        }
+        return count;
+    }
+
+    private Route getRoute(URL url, String socketPath, TlsContext tlsContext) {
+        String scheme = url.getProtocol().toLowerCase(Locale.ROOT);
+        String host = url.getHost().toLowerCase(Locale.ROOT);
+        int port = (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+        // The proxy at the other end of a Unix domain socket takes care of TLS
+        boolean secure = "https".equals(scheme) && (socketPath == null);
+        RouteKey key = new RouteKey(scheme, host, port, socketPath, secure ? tlsContext : null);
+        Route route = routes.get(key);
+        if (route == null) {
+            route = routes.computeIfAbsent(key, k -> new Route(k, maxPerRoute));
+        }
+        return route;
+    }
+
+    private void acquirePermit(Semaphore permits, int timeout, Route route) throws IOException {
+        try {
+            if (timeout > 0) {
+                if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("Timed out waiting for a pooled connection to " + route);
+                }
+            } else {
+                permits.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a pooled connection to " + route);
+        }
+    }
+
+    private void releasePermits(Route route) {
+        leased.decrementAndGet();
+        route.permits.release();
+        totalPermits.release();
+    }
+
+    private void evictExpiredIfDue() {
+        long now = System.currentTimeMillis();
+        long due = nextEviction.get();
+        if ((now >= due) && nextEviction.compareAndSet(due, now + Math.max(idleTimeout / 2, 1))) {
+            evictIdleConnections();
+        }
+    }
+
+    private void evict(PooledConnection conn) {
+        evictions.incrementAndGet();
+        log.trace("Evicting connection {}", conn);
+        conn.close();
+    }
+
+    private void closeIdle() {
+        for (Route route : routes.values()) {
+            PooledConnection conn;
+            while ((conn = route.idle.pollFirst()) != null) {
+                conn.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("routes", routes.size())
+                .add("maxTotal", maxTotal)
+                .add("maxPerRoute", maxPerRoute)
+                .add("leased", getLeasedCount())
+                .add("idle", getIdleCount())
+                .add("hits", getHitCount())
+                .add("misses", getMissCount())
+                .add("evictions", getEvictionCount())
+                .toString();
+    }
+
+    static class Route {
+        private final RouteKey key;
+        final Semaphore permits;
+        final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+
+        Route(RouteKey key, int maxLeased) {
+            this.key = key;
+            this.permits = new Semaphore(maxLeased, true);
+        }
+
+        String getHost() {
+            return key.host;
+        }
+
+        int getPort() {
+            return key.port;
+        }
+
+        boolean isSecure() {
+            return key.tlsContext != null;
+        }
+
+        /**
+         * TLS context new connections perform their handshake with, or null for plain connections.
+         */
+        TlsContext getTlsContext() {
+            return key.tlsContext;
+        }
+
+        /**
+         * Path of the Unix domain socket to connect to instead of host and port, or null.
+         */
+        String getSocketPath() {
+            return key.socketPath;
+        }
+
+        @Override
+        public String toString() {
+            return key.toString();
+        }
+    }
+
+    // Connections of one route are interchangeable; the TLS context is compared by identity
+    private static final class RouteKey {
+        final String scheme;
+        final String host;
+        final int port;
+        final String socketPath;
+        final TlsContext tlsContext;
+
+        RouteKey(String scheme, String host, int port, String socketPath, TlsContext tlsContext) {
+            this.scheme = scheme;
+            this.host = host;
+            this.port = port;
+            this.socketPath = socketPath;
+            this.tlsContext = tlsContext;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RouteKey)) {
+                return false;
+            }
+            RouteKey other = (RouteKey) o;
+            return (port == other.port) && scheme.equals(other.scheme) && host.equals(other.host)
+                    && Objects.equals(socketPath, other.socketPath) && (tlsContext == other.tlsContext);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scheme, host, port, socketPath, System.identityHashCode(tlsContext));
+        }
+
+        @Override
+        public String toString() {
+            String key = scheme + "://" + host + ":" + port;
+            return (socketPath != null) ? key + " via unix:" + socketPath : key;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.semantria.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The socket a {@link PooledConnection} runs over: a TCP socket, possibly with TLS on top,
+ * or a {@link UnixDomainSocket}.
+ */
+interface ConnectionSocket extends Closeable {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Read timeout in milliseconds; 0 means none. A read that times out throws a
+     * {@link java.net.SocketTimeoutException} and leaves the socket usable.
+     */
+    int getSoTimeout() throws IOException;
+
+    void setSoTimeout(int timeout) throws IOException;
+
+    boolean isOpen();
+}
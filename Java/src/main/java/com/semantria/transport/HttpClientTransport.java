@@ -0,0 +1,52 @@
+package com.semantria.transport;
+
+import com.semantria.interfaces.IAsyncTransport;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP/2 transport built on {@code java.net.http.HttpClient}.
+ * <p/>
+ * The client multiplexes concurrent requests over a single connection per host and falls
+ * back to HTTP/1.1 when the server doesn't offer HTTP/2. It needs Java 11 or later; the
+ * working implementation lives in the {@code META-INF/versions/11} part of the jar. On
+ * older runtimes this class is loaded instead and can't be instantiated.
+ */
+public class HttpClientTransport implements IAsyncTransport {
+
+    /**
+     * Creates a transport that uses the shared default {@link TlsContext}.
+     */
+    public HttpClientTransport() {
+        this(null);
+    }
+
+    /**
+     * @param tlsContext TLS context for https connections, or null to use the shared default.
+     */
+    public HttpClientTransport(TlsContext tlsContext) {
+        throw new UnsupportedOperationException("HttpClientTransport requires Java 11 or later");
+    }
+
+    /**
+     * Returns true if the running JVM provides {@code java.net.http.HttpClient}.
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    public TlsContext getTlsContext() {
+        throw new UnsupportedOperationException("HttpClientTransport requires Java 11 or later");
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        throw new UnsupportedOperationException("HttpClientTransport requires Java 11 or later");
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+        throw new UnsupportedOperationException("HttpClientTransport requires Java 11 or later");
+    }
+}
@@ -0,0 +1,221 @@
+package com.semantria.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * A single persistent socket owned by a {@link ConnectionPool}. Only one
+ * request/response exchange uses the connection at a time. Routes with a socket path
+ * connect to a local proxy over a {@link UnixDomainSocket} instead of TCP.
+ */
+class PooledConnection {
+
+    private static Logger log = LoggerFactory.getLogger(PooledConnection.class);
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 65536;
+
+    private final ConnectionPool.Route route;
+    private final ConnectionSocket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final long handshakeNanos;
+    private long idleSince = 0;
+    private boolean reused = false;
+
+    private PooledConnection(ConnectionPool.Route route, ConnectionSocket socket, long handshakeNanos) throws IOException {
+        this.route = route;
+        this.socket = socket;
+        this.handshakeNanos = handshakeNanos;
+        this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    static PooledConnection open(ConnectionPool.Route route, int connectTimeout) throws IOException {
+        if (route.getSocketPath() != null) {
+            UnixDomainSocket socket = UnixDomainSocket.connect(route.getSocketPath());
+            log.debug("Opened connection to {}", route);
+            return new PooledConnection(route, socket, 0);
+        }
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(route.getHost(), route.getPort()), connectTimeout);
+            long handshakeNanos = 0;
+            if (route.isSecure()) {
+                long start = System.nanoTime();
+                socket = route.getTlsContext().handshake(socket, route.getHost(), route.getPort());
+                handshakeNanos = System.nanoTime() - start;
+            }
+            log.debug("Opened connection to {}", route);
+            return new PooledConnection(route, new TcpSocket(socket), handshakeNanos);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    ConnectionPool.Route getRoute() {
+        return route;
+    }
+
+    InputStream getInputStream() {
+        return in;
+    }
+
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    void setReadTimeout(int timeout) throws IOException {
+        socket.setSoTimeout(timeout);
+    }
+
+    /**
+     * Time the TLS handshake took when the connection was opened, 0 if there was none.
+     */
+    long getHandshakeNanos() {
+        return handshakeNanos;
+    }
+
+    /**
+     * Whether this connection has served an earlier request. A reused connection may
+     * have been closed by the server while it sat idle in the pool.
+     */
+    boolean isReused() {
+        return reused;
+    }
+
+    /**
+     * Checks whether the server has closed this idle connection, by briefly trying to
+     * read from it. An idle connection must not have anything to read.
+     */
+    boolean isStale() {
+        try {
+            int timeout = socket.getSoTimeout();
+            try {
+                socket.setSoTimeout(1);
+                in.mark(1);
+                if (in.read() != -1) {
+                    in.reset();
+                }
+                return true;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    boolean isOpen() {
+        return socket.isOpen();
+    }
+
+    void markIdle(long now) {
+        idleSince = now;
+        reused = true;
+    }
+
+    boolean isExpired(long now, long idleTimeout) {
+        return (now - idleSince) > idleTimeout;
+    }
+
+    /**
+     * Reads a CRLF (or bare LF) terminated line as ISO-8859-1.
+     *
+     * @return the line without its terminator, or null if the stream ended before any byte was read
+     */
+    String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int len = sb.length();
+                if ((len > 0) && (sb.charAt(len - 1) == '\r')) {
+                    sb.setLength(len - 1);
+                }
+                return sb.toString();
+            }
+            if (sb.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("HTTP header line too long from " + route);
+            }
+            sb.append((char) c);
+        }
+        if (sb.length() == 0) {
+            return null;
+        }
+        throw new IOException("Unexpected end of stream from " + route);
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.trace("Error closing socket", e);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.trace("Error closing socket", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return route + (reused ? " (reused)" : " (new)");
+    }
+
+    private static class TcpSocket implements ConnectionSocket {
+        private final Socket socket;
+
+        TcpSocket(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public int getSoTimeout() throws IOException {
+            return socket.getSoTimeout();
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) throws IOException {
+            socket.setSoTimeout(timeout);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package com.semantria.transport;
+
+import com.semantria.interfaces.IBodyWriter;
+import com.semantria.interfaces.ITransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Blocking HTTP/1.1 transport that keeps its connections in a {@link ConnectionPool}.
+ * <p/>
+ * A request borrows a connection from the pool, and the connection goes back once the
+ * response body has been read to the end and the response closed; otherwise it is closed.
+ * A connection that sat idle in the pool is checked for having been closed by the server
+ * before a request is written to it. If a reused connection still fails before any of the
+ * response arrives, GET and HEAD requests are sent again on a new connection. Other requests
+ * may already have had their effect, such as queuing a batch, so they fail instead of
+ * being sent twice.
+ * <p/>
+ * Requests that have to go through a proxy set with the default {@link ProxySelector} are
+ * sent with a {@link UrlConnectionTransport} instead. Redirects are not followed.
+ */
+public class PooledTransport implements ITransport {
+
+    private static Logger log = LoggerFactory.getLogger(PooledTransport.class);
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    // Set from the request line and body, never taken from the request's headers
+    private static final Set<String> FRAMING_HEADERS = new HashSet<>(Arrays.asList(
+            "host", "content-length", "transfer-encoding", "connection"));
+
+    private final ConnectionPool connectionPool;
+    private final TlsContext tlsContext;
+    private final UrlConnectionTransport proxied;
+
+    /**
+     * @param connectionPool Pool to borrow connections from.
+     * @param tlsContext     TLS context for https connections, or null to use the shared default.
+     */
+    public PooledTransport(ConnectionPool connectionPool, TlsContext tlsContext) {
+        if (connectionPool == null) {
+            throw new IllegalArgumentException("connectionPool must not be null");
+        }
+        this.connectionPool = connectionPool;
+        this.tlsContext = (tlsContext != null) ? tlsContext : TlsContext.getDefault();
+        this.proxied = new UrlConnectionTransport(this.tlsContext);
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public TlsContext getTlsContext() {
+        return tlsContext;
+    }
+
+    /**
+     * Path of the Unix domain socket to send requests to instead of the URL's host, or null.
+     */
+    public String getSocketPath() {
+        return null;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        URL url = new URL(request.getUrl());
+        String socketPath = getSocketPath();
+        if ((socketPath == null) && usesProxy(url)) {
+            return proxied.execute(request);
+        }
+        Exchange exchange = new Exchange(request, url, lease(request, url, socketPath, false));
+        try {
+            return exchange.run();
+        } catch (IOException e) {
+            exchange.abort();
+            if (!exchange.isReplayable()) {
+                throw e;
+            }
+            log.debug("Pooled connection to {} was closed, sending {} again on a new connection: {}",
+                    url, request.getMethod(), e.toString());
+        } catch (RuntimeException e) {
+            exchange.abort();
+            throw e;
+        }
+        exchange = new Exchange(request, url, lease(request, url, socketPath, true));
+        try {
+            return exchange.run();
+        } catch (IOException | RuntimeException e) {
+            exchange.abort();
+            throw e;
+        }
+    }
+
+    // Borrows a connection, replacing an idle one the server has closed in the meantime
+    private PooledConnection lease(TransportRequest request, URL url, String socketPath, boolean forceNew) throws IOException {
+        long start = System.nanoTime();
+        PooledConnection conn = connectionPool.lease(url, socketPath, request.getConnectTimeout(), forceNew, tlsContext);
+        if (conn.isReused() && conn.isStale()) {
+            log.debug("Stale pooled connection to {}, using a new connection", url);
+            connectionPool.release(conn, false);
+            conn = connectionPool.lease(url, socketPath, request.getConnectTimeout(), true, tlsContext);
+        }
+        RequestTiming timing = request.getTiming();
+        if (timing != null) {
+            long handshake = conn.isReused() ? 0 : conn.getHandshakeNanos();
+            timing.record(RequestTiming.Phase.CONNECT, System.nanoTime() - start - handshake);
+            timing.record(RequestTiming.Phase.TLS, handshake);
+            timing.setConnectionReused(conn.isReused());
+        }
+        return conn;
+    }
+
+    private static boolean usesProxy(URL url) {
+        ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null) {
+            return false;
+        }
+        try {
+            List<Proxy> proxies = selector.select(url.toURI());
+            return (proxies != null) && !proxies.isEmpty() && (proxies.get(0).type() != Proxy.Type.DIRECT);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static String hostHeader(URL url) {
+        int port = url.getPort();
+        if ((port == -1) || (port == url.getDefaultPort())) {
+            return url.getHost();
+        }
+        return url.getHost() + ":" + port;
+    }
+
+    private static void appendHeader(StringBuilder sb, String name, String value) {
+        sb.append(name).append(": ").append((value == null) ? "" : value).append("\r\n");
+    }
+
+    // One request and its response on a borrowed connection
+    private final class Exchange {
+        private final TransportRequest request;
+        private final URL url;
+        private final PooledConnection conn;
+        private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private boolean responseStarted = false;
+        private boolean keepAlive = false;
+        private boolean bodyComplete = false;
+        private boolean released = false;
+
+        Exchange(TransportRequest request, URL url, PooledConnection conn) {
+            this.request = request;
+            this.url = url;
+            this.conn = conn;
+        }
+
+        TransportResponse run() throws IOException {
+            conn.setReadTimeout(request.getReadTimeout());
+            long start = System.nanoTime();
+            writeRequest();
+            long sent = System.nanoTime();
+            int status = readResponseHead();
+            InputStream body = responseBody(status);
+            RequestTiming timing = request.getTiming();
+            if (timing != null) {
+                timing.record(RequestTiming.Phase.SEND, sent - start);
+                timing.record(RequestTiming.Phase.WAIT, System.nanoTime() - sent);
+            }
+            return new TransportResponse(status, headers, body, this::release);
+        }
+
+        // Whether the request can be sent again after this attempt failed
+        boolean isReplayable() {
+            String method = request.getMethod();
+            return conn.isReused() && !responseStarted && ("GET".equals(method) || "HEAD".equals(method));
+        }
+
+        void abort() {
+            if (!released) {
+                released = true;
+                connectionPool.release(conn, false);
+            }
+        }
+
+        private void release() {
+            if (!released) {
+                released = true;
+                connectionPool.release(conn, keepAlive && bodyComplete);
+            }
+        }
+
+        private void writeRequest() throws IOException {
+            byte[] body = request.getBody();
+            IBodyWriter bodyWriter = request.getBodyWriter();
+            OutputStream out = conn.getOutputStream();
+            out.write(head(body, bodyWriter).getBytes(StandardCharsets.ISO_8859_1));
+            if (body != null) {
+                out.write(body);
+            } else if (bodyWriter != null) {
+                ChunkedOutputStream chunked = new ChunkedOutputStream(out, UrlConnectionTransport.CHUNK_SIZE);
+                bodyWriter.writeTo(chunked);
+                chunked.close();
+            }
+            out.flush();
+        }
+
+        // Request line and headers
+        private String head(byte[] body, IBodyWriter bodyWriter) {
+            StringBuilder head = new StringBuilder(512);
+            String method = request.getMethod();
+            String target = url.getFile();
+            head.append(method).append(' ').append(target.isEmpty() ? "/" : target).append(" HTTP/1.1\r\n");
+            appendHeader(head, "Host", hostHeader(url));
+            for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
+                if (!FRAMING_HEADERS.contains(entry.getKey().toLowerCase(Locale.ROOT))) {
+                    appendHeader(head, entry.getKey(), entry.getValue());
+                }
+            }
+            if (request.hasBody()) {
+                // HttpURLConnection sends this for request bodies; keep the API seeing the same request
+                if (request.getHeader("Content-Type") == null) {
+                    appendHeader(head, "Content-Type", "application/x-www-form-urlencoded");
+                }
+                if (bodyWriter != null) {
+                    appendHeader(head, "Transfer-Encoding", "chunked");
+                } else {
+                    appendHeader(head, "Content-Length", Integer.toString(body.length));
+                }
+            } else if ("POST".equals(method) || "PUT".equals(method)) {
+                appendHeader(head, "Content-Length", "0");
+            }
+            return head.append("\r\n").toString();
+        }
+
+        private int readResponseHead() throws IOException {
+            int status;
+            String statusLine;
+            do {
+                headers.clear();
+                statusLine = conn.readLine();
+                if (statusLine == null) {
+                    throw new IOException("Connection closed by server before response from " + url);
+                }
+                responseStarted = true;
+                status = parseStatus(statusLine);
+                String line;
+                while (((line = conn.readLine()) != null) && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        String name = line.substring(0, colon).trim();
+                        List<String> values = headers.get(name);
+                        if (values == null) {
+                            values = new ArrayList<>(1);
+                            headers.put(name, values);
+                        }
+                        values.add(line.substring(colon + 1).trim());
+                    }
+                }
+                if (line == null) {
+                    throw new IOException("Unexpected end of response headers from " + url);
+                }
+            } while ((status >= 100) && (status < 200));
+
+            String connection = header("Connection");
+            keepAlive = statusLine.startsWith("HTTP/1.0")
+                    ? "keep-alive".equalsIgnoreCase(connection)
+                    : !"close".equalsIgnoreCase(connection);
+            return status;
+        }
+
+        private InputStream responseBody(int status) throws IOException {
+            InputStream in = conn.getInputStream();
+            String transferEncoding = header("Transfer-Encoding");
+            String contentLength = header("Content-Length");
+            if ("HEAD".equals(request.getMethod()) || (status == 204) || (status == 304)) {
+                return new FixedLengthInputStream(in, 0);
+            } else if ((transferEncoding != null) && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+                return new ChunkedInputStream(in);
+            } else if (contentLength != null) {
+                try {
+                    return new FixedLengthInputStream(in, Long.parseLong(contentLength));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length from " + url + ": " + contentLength);
+                }
+            }
+            keepAlive = false;
+            return new UntilCloseInputStream(in);
+        }
+
+        private int parseStatus(String statusLine) throws IOException {
+            // HTTP/1.1 200 OK
+            int first = statusLine.indexOf(' ');
+            if (!statusLine.startsWith("HTTP/") || (first < 0) || (statusLine.length() < first + 4)) {
+                throw new IOException("Invalid HTTP status line from " + url + ": " + statusLine);
+            }
+            try {
+                return Integer.parseInt(statusLine.substring(first + 1, first + 4));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid HTTP status line from " + url + ": " + statusLine);
+            }
+        }
+
+        private String header(String name) {
+            List<String> values = headers.get(name);
+            return ((values == null) || values.isEmpty()) ? null : values.get(values.size() - 1);
+        }
+
+        // Response body streams. Closing one never closes the socket; the connection is only
+        // reusable once the body has been read to its end.
+
+        private class FixedLengthInputStream extends InputStream {
+            private final InputStream in;
+            private long remaining;
+
+            FixedLengthInputStream(InputStream in, long length) {
+                this.in = in;
+                this.remaining = length;
+                bodyComplete = (length == 0);
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n == -1) {
+                    throw new IOException("Premature end of response body from " + url);
+                }
+                remaining -= n;
+                if (remaining == 0) {
+                    bodyComplete = true;
+                }
+                return n;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(in.available(), remaining);
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+
+        private class ChunkedInputStream extends InputStream {
+            private final InputStream in;
+            private long chunkRemaining = 0;
+            private boolean eof = false;
+
+            ChunkedInputStream(InputStream in) {
+                this.in = in;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (eof) {
+                    return -1;
+                }
+                if (chunkRemaining == 0) {
+                    nextChunk();
+                    if (eof) {
+                        return -1;
+                    }
+                }
+                int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+                if (n == -1) {
+                    throw new IOException("Premature end of chunked response body from " + url);
+                }
+                chunkRemaining -= n;
+                if (chunkRemaining == 0) {
+                    conn.readLine();  // CRLF after chunk data
+                }
+                return n;
+            }
+
+            private void nextChunk() throws IOException {
+                String line = conn.readLine();
+                if (line == null) {
+                    throw new IOException("Premature end of chunked response body from " + url);
+                }
+                int ext = line.indexOf(';');
+                String size = (ext >= 0) ? line.substring(0, ext) : line;
+                try {
+                    chunkRemaining = Long.parseLong(size.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size from " + url + ": " + line);
+                }
+                if (chunkRemaining == 0) {
+                    // Skip trailers up to the terminating empty line
+                    String trailer;
+                    while (((trailer = conn.readLine()) != null) && !trailer.isEmpty()) {
+                        log.trace("Ignoring trailer {}", trailer);
+                    }
+                    eof = true;
+                    bodyComplete = true;
+                }
+            }
+
+            @Override
+            public int available() throws IOException {
+                return eof ? 0 : (int) Math.min(in.available(), chunkRemaining);
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+
+        private class UntilCloseInputStream extends InputStream {
+            private final InputStream in;
+
+            UntilCloseInputStream(InputStream in) {
+                this.in = in;
+            }
+
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public int available() throws IOException {
+                return in.available();
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+    }
+
+    // Closing finishes the chunked body and flushes it, but leaves the socket open
+    private static class ChunkedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer;
+        private int count = 0;
+        private boolean closed = false;
+
+        ChunkedOutputStream(OutputStream out, int chunkSize) {
+            this.out = out;
+            this.buffer = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buffer.length) {
+                    writeChunk();
+                }
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            if (count > 0) {
+                out.write((Integer.toHexString(count) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.write(buffer, 0, count);
+                out.write(CRLF);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                writeChunk();
+                out.write(LAST_CHUNK);
+                out.flush();
+            }
+        }
+    }
+}
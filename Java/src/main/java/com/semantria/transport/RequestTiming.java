@@ -0,0 +1,101 @@
+package com.semantria.transport;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of one request went, phase by phase.
+ * <p/>
+ * Transports record the network phases they can observe; the others stay at zero.
+ * {@link PooledTransport} records them all. {@link UrlConnectionTransport} counts the TLS
+ * handshake as part of {@link Phase#CONNECT} and can't tell whether a connection was reused.
+ * {@link HttpClientTransport} can't see connection setup and counts everything up to the
+ * response headers as {@link Phase#WAIT}.
+ */
+public class RequestTiming {
+
+    public enum Phase {
+        /**
+         * Getting a connection: waiting for a pooled one, or opening a new one.
+         */
+        CONNECT,
+        /**
+         * TLS handshake of a new connection.
+         */
+        TLS,
+        /**
+         * Writing the request head and body.
+         */
+        SEND,
+        /**
+         * Waiting for the response headers after the request was sent (time to first byte).
+         */
+        WAIT,
+        /**
+         * Reading and decompressing the response body.
+         */
+        DOWNLOAD,
+        /**
+         * Deserializing the response body.
+         */
+        PARSE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long[] nanos = new long[PHASES.length];
+    private boolean connectionReused = false;
+
+    /**
+     * Adds {@code nanos} to the time spent in {@code phase}.
+     */
+    public void record(Phase phase, long nanos) {
+        this.nanos[phase.ordinal()] += Math.max(nanos, 0);
+    }
+
+    public long get(Phase phase, TimeUnit unit) {
+        return unit.convert(nanos[phase.ordinal()], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time spent in all phases together.
+     */
+    public long getTotal(TimeUnit unit) {
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        return unit.convert(total, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a copy of the timing so far, which phases recorded later don't change.
+     */
+    public RequestTiming copy() {
+        RequestTiming copy = new RequestTiming();
+        System.arraycopy(nanos, 0, copy.nanos, 0, nanos.length);
+        copy.connectionReused = connectionReused;
+        return copy;
+    }
+
+    public void setConnectionReused(boolean connectionReused) {
+        this.connectionReused = connectionReused;
+    }
+
+    /**
+     * Whether the request went over a kept-alive connection rather than a new one.
+     */
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    @Override
+    public String toString() {
+        MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper(this);
+        for (Phase phase : PHASES) {
+            helper.add(phase.name().toLowerCase() + "Micros", get(phase, TimeUnit.MICROSECONDS));
+        }
+        return helper.add("connectionReused", connectionReused).toString();
+    }
+}
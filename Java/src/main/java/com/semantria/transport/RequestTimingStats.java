@@ -0,0 +1,104 @@
+package com.semantria.transport;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request timings of one endpoint added up, phase by phase. Safe for concurrent use.
+ * <p/>
+ * Responses are deserialized after the request has been recorded, and not every response
+ * is, so {@link RequestTiming.Phase#PARSE} is counted separately.
+ */
+public class RequestTimingStats {
+
+    private static final RequestTiming.Phase[] PHASES = RequestTiming.Phase.values();
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong parseCount = new AtomicLong();
+    private final AtomicLong reusedCount = new AtomicLong();
+    private final AtomicLongArray totals = new AtomicLongArray(PHASES.length);
+    private final AtomicLongArray maxima = new AtomicLongArray(PHASES.length);
+
+    /**
+     * Adds the network phases of a finished request.
+     */
+    public void record(RequestTiming timing) {
+        count.incrementAndGet();
+        if (timing.isConnectionReused()) {
+            reusedCount.incrementAndGet();
+        }
+        for (RequestTiming.Phase phase : PHASES) {
+            if (phase != RequestTiming.Phase.PARSE) {
+                add(phase, timing.get(phase, TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+
+    /**
+     * Adds the time taken to deserialize one response.
+     */
+    public void recordParse(long nanos) {
+        parseCount.incrementAndGet();
+        add(RequestTiming.Phase.PARSE, nanos);
+    }
+
+    /**
+     * Number of requests recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Number of responses deserialized.
+     */
+    public long getParseCount() {
+        return parseCount.get();
+    }
+
+    /**
+     * Number of requests that went over a kept-alive connection.
+     */
+    public long getReusedConnectionCount() {
+        return reusedCount.get();
+    }
+
+    public long getTotal(RequestTiming.Phase phase, TimeUnit unit) {
+        return unit.convert(totals.get(phase.ordinal()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the average time per request, or per deserialized response for PARSE.
+     */
+    public long getMean(RequestTiming.Phase phase, TimeUnit unit) {
+        long n = (phase == RequestTiming.Phase.PARSE) ? parseCount.get() : count.get();
+        return (n == 0) ? 0 : unit.convert(totals.get(phase.ordinal()) / n, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMax(RequestTiming.Phase phase, TimeUnit unit) {
+        return unit.convert(maxima.get(phase.ordinal()), TimeUnit.NANOSECONDS);
+    }
+
+    private void add(RequestTiming.Phase phase, long nanos) {
+        int i = phase.ordinal();
+        totals.addAndGet(i, nanos);
+        long max;
+        while (nanos > (max = maxima.get(i)) && !maxima.compareAndSet(i, max, nanos)) {
+            // retry
+        }
+    }
+
+    @Override
+    public String toString() {
+        MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper(this)
+                .add("count", getCount())
+                .add("reusedConnections", getReusedConnectionCount());
+        for (RequestTiming.Phase phase : PHASES) {
+            helper.add(phase.name().toLowerCase() + "MeanMicros", getMean(phase, TimeUnit.MICROSECONDS));
+        }
+        return helper.toString();
+    }
+}
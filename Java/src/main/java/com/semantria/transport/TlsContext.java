@@ -0,0 +1,245 @@
+package com.semantria.transport;
+
+import com.google.common.base.MoreObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TLS settings shared by all requests of a {@link com.semantria.Session}.
+ * <p/>
+ * The underlying {@link SSLContext} is created once. Its client session cache lets later
+ * connections to the same server resume an earlier TLS session instead of performing a
+ * full handshake. Handshakes are counted as full or resumed, both on pooled connections and
+ * on sockets made by {@link #getSocketFactory()}, which transports such as
+ * {@link UrlConnectionTransport} use. Connections that {@code HttpClient} sets up with
+ * {@link #getSslContext()} aren't counted.
+ * <p/>
+ * The default context trusts all server certificates, as the SDK always has. Use
+ * {@link #TlsContext(SSLContext)} to supply a context that validates them.
+ */
+public class TlsContext {
+
+    private static Logger log = LoggerFactory.getLogger(TlsContext.class);
+
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 100;
+    public static final int DEFAULT_SESSION_TIMEOUT = 86400;    // seconds
+
+    private final SSLContext sslContext;
+    private final SSLSocketFactory sslSocketFactory;
+    private final SSLSocketFactory socketFactory = new CountingSocketFactory();
+    // When a socket of the calling thread was last layered with TLS by socketFactory
+    private final ThreadLocal<Long> layeredAt = new ThreadLocal<>();
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    public TlsContext() {
+        this(DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT);
+    }
+
+    /**
+     * @param sessionCacheSize Maximum number of TLS sessions kept for resumption.
+     * @param sessionTimeout   How long, in seconds, a cached TLS session may be resumed.
+     */
+    public TlsContext(int sessionCacheSize, int sessionTimeout) {
+        this(createTrustAllContext(), sessionCacheSize, sessionTimeout);
+    }
+
+    public TlsContext(SSLContext sslContext) {
+        this(sslContext, DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT);
+    }
+
+    public TlsContext(SSLContext sslContext, int sessionCacheSize, int sessionTimeout) {
+        this.sslContext = sslContext;
+        SSLSessionContext sessions = sslContext.getClientSessionContext();
+        if (sessions != null) {
+            sessions.setSessionCacheSize(sessionCacheSize);
+            sessions.setSessionTimeout(sessionTimeout);
+        }
+        this.sslSocketFactory = sslContext.getSocketFactory();
+    }
+
+    /**
+     * Returns the context shared by requests that don't belong to a session, such as
+     * those made by {@link com.semantria.auth.AuthService}.
+     */
+    public static TlsContext getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Returns the factory for sockets of this context, which counts their handshakes. It
+     * only layers TLS over connected sockets, so that {@link javax.net.ssl.HttpsURLConnection}
+     * connects first and the handshake can be timed apart from the connect.
+     */
+    public SSLSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
+    /**
+     * Layers TLS over an already connected socket and completes the handshake.
+     */
+    public SSLSocket handshake(Socket socket, String host, int port) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+        long start = System.currentTimeMillis();
+        sslSocket.startHandshake();
+        count(sslSocket.getSession(), start, host, port);
+        return sslSocket;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the factory last layered TLS over a
+     * socket on the calling thread, and forgets it; null if it hasn't since the last call.
+     * The handshake follows on the same thread, before the connection is used.
+     */
+    Long takeLayeredTime() {
+        Long time = layeredAt.get();
+        layeredAt.remove();
+        return time;
+    }
+
+    private void count(SSLSession session, long start, String host, int port) {
+        // A resumed session was created by an earlier handshake.
+        if (session.getCreationTime() < start) {
+            resumedHandshakes.incrementAndGet();
+            log.trace("Resumed TLS session with {}:{}", host, port);
+        } else {
+            fullHandshakes.incrementAndGet();
+            log.trace("Full TLS handshake with {}:{}", host, port);
+        }
+    }
+
+    public long getFullHandshakeCount() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("protocol", sslContext.getProtocol())
+                .add("fullHandshakes", getFullHandshakeCount())
+                .add("resumedHandshakes", getResumedHandshakeCount())
+                .toString();
+    }
+
+    private static SSLContext createTrustAllContext() {
+        try {
+            SSLContext ctx = SSLContext.getInstance("TLS");
+            ctx.init(new KeyManager[0], new TrustManager[]{new TrustAllManager()}, new SecureRandom());
+            return ctx;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Can't initialize TLS context", e);
+        }
+    }
+
+    /**
+     * Counts the handshakes of the sockets it makes, once they complete. Unconnected sockets
+     * aren't supported, as with the default {@link javax.net.SocketFactory#createSocket()}.
+     */
+    private class CountingSocketFactory extends SSLSocketFactory {
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return sslSocketFactory.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return sslSocketFactory.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            layeredAt.set(System.nanoTime());
+            return counted(sslSocketFactory.createSocket(socket, host, port, autoClose), host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return counted(sslSocketFactory.createSocket(host, port), host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return counted(sslSocketFactory.createSocket(host, port, localHost, localPort), host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return counted(sslSocketFactory.createSocket(host, port), host.getHostName(), port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return counted(sslSocketFactory.createSocket(address, port, localAddress, localPort),
+                    address.getHostName(), port);
+        }
+
+        private Socket counted(Socket socket, final String host, final int port) {
+            final long start = System.currentTimeMillis();
+            // Called on a thread of its own once the handshake is done
+            ((SSLSocket) socket).addHandshakeCompletedListener(event -> count(event.getSession(), start, host, port));
+            return socket;
+        }
+    }
+
+    private static class DefaultHolder {
+        static final TlsContext INSTANCE = new TlsContext();
+    }
+
+    /**
+     * Extends {@link X509ExtendedTrustManager} so that the JDK doesn't add its own hostname
+     * check on top, which matters for transports that set up TLS themselves (HttpClient).
+     */
+    private static class TrustAllManager extends X509ExtendedTrustManager {
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {}
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {}
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] arg0, String arg1, Socket arg2) throws CertificateException {}
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] arg0, String arg1, Socket arg2) throws CertificateException {}
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] arg0, String arg1, SSLEngine arg2) throws CertificateException {}
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] arg0, String arg1, SSLEngine arg2) throws CertificateException {}
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
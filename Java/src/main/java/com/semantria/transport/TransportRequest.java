@@ -0,0 +1,130 @@
+package com.semantria.transport;
+
+import com.google.common.base.MoreObjects;
+import com.semantria.interfaces.IBodyWriter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A fully prepared HTTP request: the URL already carries its query string and the
+ * headers already include the OAuth Authorization header. Transports send it as is.
+ */
+public class TransportRequest {
+
+    private final String method;
+    private final String url;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private byte[] body = null;
+    private IBodyWriter bodyWriter = null;
+    private int connectTimeout = 0;
+    private int readTimeout = 0;
+    private RequestTiming timing = null;
+
+    public TransportRequest(String method, String url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    public TransportRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public TransportRequest body(byte[] body) {
+        this.body = body;
+        this.bodyWriter = null;
+        return this;
+    }
+
+    /**
+     * Sets a body of unknown length that is written straight to the connection. Transports
+     * send it with chunked transfer encoding, so it never has to fit in memory.
+     */
+    public TransportRequest body(IBodyWriter bodyWriter) {
+        this.bodyWriter = bodyWriter;
+        this.body = null;
+        return this;
+    }
+
+    /**
+     * Timeout in milliseconds for establishing a connection; 0 means no timeout.
+     */
+    public TransportRequest connectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Timeout in milliseconds while waiting for response data; 0 means no timeout.
+     */
+    public TransportRequest readTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * Sets where the transport records the time spent in each network phase, or null.
+     */
+    public TransportRequest timing(RequestTiming timing) {
+        this.timing = timing;
+        return this;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public String getHeader(String name) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public IBodyWriter getBodyWriter() {
+        return bodyWriter;
+    }
+
+    /**
+     * Whether the request has a body, either as bytes or as a body writer.
+     */
+    public boolean hasBody() {
+        return (body != null) || (bodyWriter != null);
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public RequestTiming getTiming() {
+        return timing;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("method", method)
+                .add("url", url)
+                .toString();
+    }
+}
@@ -0,0 +1,97 @@
+package com.semantria.transport;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Status, headers and body of an HTTP response returned by a transport.
+ * <p/>
+ * The body stream holds on to the underlying connection. Always {@link #close()} the
+ * response, after reading the body, so that the connection can be reused or released.
+ */
+public class TransportResponse implements Closeable {
+
+    private final int status;
+    private final Map<String, List<String>> headers;
+    private final InputStream body;
+    private final Closeable onClose;
+
+    /**
+     * @param status  HTTP status code.
+     * @param headers Response headers; keys are matched case-insensitively.
+     * @param body    Response body, or null if there is none.
+     * @param onClose Called once the response is closed, after the body stream; may be null.
+     */
+    public TransportResponse(int status, Map<String, List<String>> headers, InputStream body, Closeable onClose) {
+        this.status = status;
+        this.headers = (headers == null) ? Collections.<String, List<String>>emptyMap() : headers;
+        this.body = body;
+        this.onClose = onClose;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the last value of header {@code name}, or null if the response doesn't have it.
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if ((entry.getKey() != null) && entry.getKey().equalsIgnoreCase(name)
+                    && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(entry.getValue().size() - 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of the Content-Length header, or -1 if it is missing or invalid.
+     */
+    public long getContentLength() {
+        String value = getHeader("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (body != null) {
+                body.close();
+            }
+        } finally {
+            if (onClose != null) {
+                onClose.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("status", status)
+                .toString();
+    }
+}
@@ -0,0 +1,224 @@
+package com.semantria.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connected Unix domain socket.
+ * <p/>
+ * Unix domain socket channels came with Java 16. The two factory methods that need them are
+ * looked up at runtime, so this class builds for Java 8 and reports {@link #isSupported()
+ * unsupported} there. The channel runs in non-blocking mode with a selector so that reads
+ * can time out like those of a regular socket.
+ */
+class UnixDomainSocket implements ConnectionSocket {
+
+    private static final ProtocolFamily UNIX = findUnixFamily();
+    private static final Method OPEN_CHANNEL = findMethod(SocketChannel.class, "open", ProtocolFamily.class);
+    private static final Method ADDRESS_OF = findMethod(findClass("java.net.UnixDomainSocketAddress"), "of", String.class);
+
+    private final String path;
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final InputStream in = new ChannelInputStream();
+    private final OutputStream out = new ChannelOutputStream();
+    private volatile int soTimeout = 0;
+
+    private UnixDomainSocket(String path, SocketChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.key = channel.register(selector, 0);
+    }
+
+    /**
+     * Returns true if the running JVM supports Unix domain socket channels.
+     */
+    static boolean isSupported() {
+        return (UNIX != null) && (OPEN_CHANNEL != null) && (ADDRESS_OF != null);
+    }
+
+    /**
+     * Connects to the socket file at {@code path}. Connecting to a local socket either
+     * succeeds or fails right away, so there is no connect timeout.
+     */
+    static UnixDomainSocket connect(String path) throws IOException {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+        }
+        SocketChannel channel = (SocketChannel) invoke(OPEN_CHANNEL, UNIX);
+        try {
+            channel.connect((SocketAddress) invoke(ADDRESS_OF, path));
+            return new UnixDomainSocket(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public int getSoTimeout() {
+        return soTimeout;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+        soTimeout = timeout;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            selector.close();
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "unix:" + path;
+    }
+
+    /**
+     * Waits until the channel is ready for {@code ops}.
+     *
+     * @return false if {@code timeout} milliseconds passed first
+     */
+    private boolean await(int ops, long timeout) throws IOException {
+        key.interestOps(ops);
+        try {
+            int ready = (timeout > 0) ? selector.select(timeout) : selector.select();
+            selector.selectedKeys().clear();
+            return ready > 0;
+        } finally {
+            if (key.isValid()) {
+                key.interestOps(0);
+            }
+        }
+    }
+
+    private class ChannelInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            int timeout = soTimeout;
+            long deadline = (timeout > 0) ? System.nanoTime() + timeout * 1000000L : 0;
+            while (true) {
+                int n = channel.read(buffer);
+                if (n != 0) {
+                    return n;
+                }
+                long wait = 0;
+                if (timeout > 0) {
+                    wait = (deadline - System.nanoTime()) / 1000000L;
+                    if (wait <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                }
+                await(SelectionKey.OP_READ, wait);
+            }
+        }
+    }
+
+    private class ChannelOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    // The proxy isn't reading; wait as long as a read would
+                    if (!await(SelectionKey.OP_WRITE, soTimeout)) {
+                        throw new SocketTimeoutException("Write timed out");
+                    }
+                }
+            }
+        }
+    }
+
+    private static Object invoke(Method method, Object arg) throws IOException {
+        try {
+            return method.invoke(null, arg);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ProtocolFamily findUnixFamily() {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Class<?> findClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
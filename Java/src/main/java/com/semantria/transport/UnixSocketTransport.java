@@ -0,0 +1,48 @@
+package com.semantria.transport;
+
+/**
+ * Transport that sends requests in plain HTTP/1.1 over a Unix domain socket to a local
+ * proxy, which forwards them to the service over TLS.
+ * <p/>
+ * Requests keep their URL path, query and Host header, so they are signed and sent exactly
+ * as over TCP; only the TLS connection is made by the proxy. Connections to the socket are
+ * kept alive in a {@link ConnectionPool}. Unix domain sockets need Java 16 or later.
+ */
+public class UnixSocketTransport extends PooledTransport {
+
+    private final String socketPath;
+
+    /**
+     * Creates a transport with a connection pool of its own.
+     *
+     * @param socketPath Path of the proxy's socket file.
+     */
+    public UnixSocketTransport(String socketPath) {
+        this(socketPath, null);
+    }
+
+    /**
+     * @param socketPath     Path of the proxy's socket file.
+     * @param connectionPool Pool to keep connections to the socket in, or null for a pool of its own.
+     */
+    public UnixSocketTransport(String socketPath, ConnectionPool connectionPool) {
+        super((connectionPool != null) ? connectionPool : new ConnectionPool(), null);
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("UnixSocketTransport requires Java 16 or later");
+        }
+        this.socketPath = socketPath;
+    }
+
+    /**
+     * Returns true if the running JVM supports Unix domain sockets.
+     */
+    public static boolean isSupported() {
+        return UnixDomainSocket.isSupported();
+    }
+
+    @Override
+    public String getSocketPath() {
+        return socketPath;
+    }
+
+}
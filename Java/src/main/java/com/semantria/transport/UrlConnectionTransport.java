@@ -0,0 +1,177 @@
+package com.semantria.transport;
+
+import com.semantria.interfaces.ITransport;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Blocking transport built on {@link HttpURLConnection}.
+ * <p/>
+ * Connections are kept alive by the JDK's own connection cache (see the {@code http.keepAlive}
+ * and {@code http.maxConnections} system properties), which keeps no more than five idle
+ * connections per host unless {@code http.maxConnections} is raised, so more concurrent
+ * requests than that keep opening new connections. Sessions therefore use a
+ * {@link PooledTransport} by default, and this transport only for requests through a proxy
+ * or when set with {@code Session.withTransport}. A connection goes back to the cache
+ * once its response has been read to the end and closed, which closing the
+ * {@link TransportResponse} takes care of. The cache keeps https connections apart per
+ * socket factory, so sessions with different {@link TlsContext}s never share one. For https,
+ * the TLS handshake of a new connection is timed as {@link RequestTiming.Phase#TLS} and
+ * counted by the {@link TlsContext}; a request made without one went over a reused
+ * connection. Whether an http connection was reused can't be told.
+ */
+public class UrlConnectionTransport implements ITransport {
+
+    /**
+     * Chunk size for request bodies of unknown length.
+     */
+    public static final int CHUNK_SIZE = 8192;
+
+    // Unread response bytes worth reading to keep the connection; closing it is cheaper beyond that
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    private static final HostnameVerifier ACCEPT_ALL_HOSTS = new HostnameVerifier() {
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            return true;
+        }
+    };
+
+    private final TlsContext tlsContext;
+
+    /**
+     * Creates a transport that uses the shared default {@link TlsContext}.
+     */
+    public UrlConnectionTransport() {
+        this(null);
+    }
+
+    /**
+     * @param tlsContext TLS context for https connections, or null to use the shared default.
+     */
+    public UrlConnectionTransport(TlsContext tlsContext) {
+        this.tlsContext = (tlsContext != null) ? tlsContext : TlsContext.getDefault();
+    }
+
+    public TlsContext getTlsContext() {
+        return tlsContext;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        final HttpURLConnection conn = openConnection(new URL(request.getUrl()));
+        RequestTiming timing = request.getTiming();
+        boolean done = false;
+        try {
+            for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
+                conn.setRequestProperty(entry.getKey(), entry.getValue());
+            }
+            conn.setDoOutput(true);
+            conn.setRequestMethod(request.getMethod());
+            conn.setConnectTimeout(request.getConnectTimeout());
+            conn.setReadTimeout(request.getReadTimeout());
+
+            byte[] body = request.getBody();
+            if (request.getBodyWriter() != null) {
+                conn.setChunkedStreamingMode(CHUNK_SIZE);
+            } else if (body != null) {
+                // Without streaming mode the JDK copies the body into its own buffer first
+                conn.setFixedLengthStreamingMode(body.length);
+            }
+            boolean secure = (conn instanceof HttpsURLConnection);
+            if (secure) {
+                tlsContext.takeLayeredTime();
+            }
+            long start = System.nanoTime();
+            conn.connect();
+            long connected = System.nanoTime();
+            if (timing != null) {
+                // The handshake follows the connect on this thread, see TlsContext.getSocketFactory
+                Long layered = secure ? tlsContext.takeLayeredTime() : null;
+                if (layered != null) {
+                    timing.record(RequestTiming.Phase.CONNECT, layered - start);
+                    timing.record(RequestTiming.Phase.TLS, connected - layered);
+                } else {
+                    timing.record(RequestTiming.Phase.CONNECT, connected - start);
+                    timing.setConnectionReused(secure);
+                }
+            }
+
+            if (request.getBodyWriter() != null) {
+                OutputStream out = conn.getOutputStream();
+                request.getBodyWriter().writeTo(out);
+                out.close();
+            } else if (body != null) {
+                OutputStream out = conn.getOutputStream();
+                out.write(body);
+                out.close();
+            }
+
+            long sent = System.nanoTime();
+            int status = conn.getResponseCode();
+            if (timing != null) {
+                timing.record(RequestTiming.Phase.SEND, sent - connected);
+                timing.record(RequestTiming.Phase.WAIT, System.nanoTime() - sent);
+            }
+            InputStream in = (status < 400) ? conn.getInputStream() : conn.getErrorStream();
+            TransportResponse response = new TransportResponse(status, conn.getHeaderFields(),
+                    (in != null) ? new KeepAliveInputStream(in) : null, null);
+            done = true;
+            return response;
+        } finally {
+            if (!done) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Returns a connection for {@code url}, not yet connected.
+     */
+    protected HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        if (conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(tlsContext.getSocketFactory());
+            ((HttpsURLConnection) conn).setHostnameVerifier(ACCEPT_ALL_HOSTS);
+        }
+        return conn;
+    }
+
+    // Reads what is left of the response before closing it, so that the JDK can keep the connection
+    private static class KeepAliveInputStream extends FilterInputStream {
+        private boolean closed = false;
+
+        KeepAliveInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int n;
+                while ((drained < MAX_DRAIN) && ((n = in.read(buffer)) != -1)) {
+                    drained += n;
+                }
+            } catch (IOException e) {
+                // the connection won't be kept, nothing else to do
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -2,26 +2,36 @@ package com.semantria.utils;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 import com.semantria.mapping.output.statistics.StatsInterval;
+import com.google.common.io.CountingOutputStream;
+import com.semantria.auth.OAuthSigner;
+import com.semantria.interfaces.IAsyncTransport;
+import com.semantria.interfaces.IBodyWriter;
+import com.semantria.interfaces.IRequestEvent;
+import com.semantria.interfaces.ITransport;
+import com.semantria.transport.RequestTiming;
+import com.semantria.transport.TransportRequest;
+import com.semantria.transport.TransportResponse;
+import com.semantria.transport.UrlConnectionTransport;
 import com.google.common.base.MoreObjects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import javax.net.ssl.*;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 
 public class AuthRequest {
@@ -32,19 +42,44 @@ public class AuthRequest {
 	private String url = "";
 	private HashMap<String, String> params = null;
 	private String body = null;
+	private IBodyWriter bodyWriter = null;
 	private Integer status = 0;
 	private String key = "";
-	private String secret = "";
+	private String secret = null;
+	private OAuthSigner signer = null;
 	private boolean isBinaryResponse = false;
 	private String responseString = "";
 	private byte[] responseData = null;
-	private String appName = "Java/4.2.104/";
+	private String appName = "Java/4.2.105/";
 	private String apiVersion = "";
 	private String errorMsg = null;
 	private boolean useCompression = false;
+	private boolean compressBody = false;
+	private int compressionThreshold = 0;
+	private long bodySize = 0;
+	private long sentBodySize = 0;
+	private boolean bodyCompressed = false;
 	private Map<String, String> httpHeaders = new HashMap<>();
+	private ITransport transport = null;
+	private Deadline deadline = null;
+	private String endpoint = null;
+	private RequestTiming timing = new RequestTiming();
 	final private int CONNECTION_TIMEOUT = 120000;
 
+	/**
+	 * Status reported when the request's deadline passes before the response has been read.
+	 */
+	public static final int STATUS_DEADLINE_EXCEEDED = 408;
+
+	// Full URLs are put together in a per-thread builder; unusually long ones aren't kept
+	private static final int MAX_RETAINED_URL_BUILDER = 8192;
+	private static final ThreadLocal<StringBuilder> urlBuilder = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(512);
+		}
+	};
+
 
 	public static AuthRequest getInstance(String url, String method) {
 		return new AuthRequest(url, method);
@@ -61,18 +96,32 @@ public class AuthRequest {
 
 	public AuthRequest key(String key) {
 		this.key = key;
+		this.signer = null;
 		return this;
 	}
 
 	public AuthRequest secret(String secret) {
-		try {
-			this.secret = hashMD5(secret);
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("Can't create hash from secret", e);
+		this.secret = secret;
+		this.signer = null;
+		return this;
+	}
+
+	/**
+	 * Signs the request with a signer shared across requests, instead of setting up
+	 * signing from {@link #key(String)} and {@link #secret(String)} for this request alone.
+	 */
+	public AuthRequest signer(OAuthSigner signer) {
+		this.signer = signer;
+		if (signer != null) {
+			this.key = signer.getKey();
 		}
 		return this;
 	}
 
+	public OAuthSigner getSigner() {
+		return signer;
+	}
+
 	public AuthRequest body(String body) {
 		if (body != null) {
 			this.body = body;
@@ -80,6 +129,18 @@ public class AuthRequest {
 		return this;
 	}
 
+	/**
+	 * Sets a body that is written straight to the connection while the request is sent,
+	 * so that it never has to be held in memory as a whole.
+	 */
+	public AuthRequest body(IBodyWriter bodyWriter) {
+		if (bodyWriter != null) {
+			this.bodyWriter = bodyWriter;
+			this.body = null;
+		}
+		return this;
+	}
+
 	/**
 	 * Sets request to return binary data rather than string.
 	 */
@@ -152,77 +213,252 @@ public class AuthRequest {
 		return this;
 	}
 
+	/**
+	 * Sends the body gzip-compressed, with Content-Encoding: gzip, if it is at least
+	 * {@code threshold} bytes long. Applies to all methods except GET. A streamed body's
+	 * length isn't known up front, so it is always compressed.
+	 */
+	public AuthRequest compressBody(boolean compressBody, int threshold) {
+		this.compressBody = compressBody;
+		this.compressionThreshold = threshold;
+		return this;
+	}
+
 	public AuthRequest apiVersion(String apiVersion) {
 		this.apiVersion = apiVersion;
 		return this;
 	}
 
+	/**
+	 * Sets the transport that sends this request. If null, a new connection is opened
+	 * for the request and closed afterwards.
+	 */
+	public AuthRequest transport(ITransport transport) {
+		this.transport = transport;
+		return this;
+	}
+
+	/**
+	 * Sets the time by which the request has to be finished, or null for none. Connect and
+	 * read timeouts are derived from the time left when the request is sent, and reading
+	 * the response stops once the deadline has passed. A request that misses its deadline
+	 * ends with status {@link #STATUS_DEADLINE_EXCEEDED}.
+	 */
+	public AuthRequest deadline(Deadline deadline) {
+		this.deadline = deadline;
+		return this;
+	}
+
+	public Deadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Names the endpoint the request goes to, e.g. "GET document/processed", to group
+	 * request timings by. Defaults to the method and URL.
+	 */
+	public AuthRequest endpoint(String endpoint) {
+		this.endpoint = endpoint;
+		return this;
+	}
+
+	public String getEndpoint() {
+		return (endpoint != null) ? endpoint : method + " " + url;
+	}
+
+	/**
+	 * Returns where the time of the last {@link #doRequest()} went. The PARSE phase is
+	 * filled in by the caller that deserializes the response.
+	 */
+	public RequestTiming getTiming() {
+		return timing;
+	}
+
 	public String getMethod() {
 		return method;
 	}
 
 	public Integer doRequest() {
-		HttpURLConnection conn = null;
+		TransportResponse response = null;
 		try {
-			responseString = null;
-			errorMsg = null;
-			initSSLContext();
-			conn = getOAuthSignedConnection();
-			conn.setConnectTimeout(CONNECTION_TIMEOUT);
-			conn.connect();
-			sendRequestBodyIfSet(conn);
-			status = conn.getResponseCode();
-			log.trace("status: {}", status);
-			receiveResponseFromServer(conn);
+			if (!startRequest()) {
+				return status;
+			}
+			TransportRequest request = getOAuthSignedRequest();
+			response = getTransport().execute(request);
+			receiveResponse(response);
 		} catch (Exception e) {
-			log.error("Error performing request. {} {}, params: {}",
-					method, url,
-					((params == null) ? null : Joiner.on(",").withKeyValueSeparator(":").join(params)),
-					e);
+			failRequest(e);
 		} finally {
-			if (conn != null) {
-				conn.disconnect();
-			}
+			closeResponse(response);
 		}
 
 		return status;
 	}
 
-	private void initSSLContext() throws java.security.GeneralSecurityException {
-		SSLContext ctx = SSLContext.getInstance("TLS");
-		ctx.init(new KeyManager[0], new TrustManager[]{new DefaultTrustManager()}, new SecureRandom());
-		SSLContext.setDefault(ctx);
+	/**
+	 * Sends the request like {@link #doRequest()}, without blocking the calling thread if the
+	 * transport is an {@link IAsyncTransport}. Otherwise, and for bodies set with
+	 * {@link #body(IBodyWriter)}, {@link #doRequest()} runs on {@code executor}.
+	 *
+	 * @return A future that completes with the status once the response has been read. It
+	 * completes on the transport's thread, or on {@code executor}; errors end in a status
+	 * just as with {@link #doRequest()}.
+	 */
+	public CompletableFuture<Integer> doRequestAsync(Executor executor) {
+		ITransport transport = getTransport();
+		if (!(transport instanceof IAsyncTransport) || (bodyWriter != null)) {
+			return CompletableFuture.supplyAsync(this::doRequest, executor);
+		}
+		try {
+			if (!startRequest()) {
+				return CompletableFuture.completedFuture(status);
+			}
+			TransportRequest request = getOAuthSignedRequest();
+			return ((IAsyncTransport) transport).executeAsync(request).handle((response, e) -> {
+				if (e != null) {
+					failRequest(((e instanceof CompletionException) && (e.getCause() != null)) ? e.getCause() : e);
+					return status;
+				}
+				try {
+					receiveResponse(response);
+				} catch (Exception ex) {
+					failRequest(ex);
+				} finally {
+					closeResponse(response);
+				}
+				return status;
+			});
+		} catch (Exception e) {
+			failRequest(e);
+			return CompletableFuture.completedFuture(status);
+		}
+	}
+
+	// Resets the outcome of a previous attempt; returns false if the deadline has already passed.
+	private boolean startRequest() {
+		responseString = null;
+		responseData = null;
+		errorMsg = null;
+		timing = new RequestTiming();
+		if ((deadline != null) && deadline.isExpired()) {
+			status = STATUS_DEADLINE_EXCEEDED;
+			errorMsg = "Deadline exceeded before the request was sent";
+			return false;
+		}
+		return true;
+	}
+
+	private void receiveResponse(TransportResponse response) throws IOException {
+		status = response.getStatus();
+		log.trace("status: {}", status);
+		long start = System.nanoTime();
+		receiveResponseFromServer(response);
+		timing.record(RequestTiming.Phase.DOWNLOAD, System.nanoTime() - start);
+	}
+
+	private void failRequest(Throwable e) {
+		if ((deadline != null) && ((e instanceof SocketTimeoutException) || deadline.isExpired())) {
+			log.warn("Deadline exceeded. {} {}: {}", method, url, e.toString());
+			status = STATUS_DEADLINE_EXCEEDED;
+			responseData = null;
+			errorMsg = "Deadline exceeded: " + e.getMessage();
+			return;
+		}
+		log.error("Error performing request. {} {}, params: {}",
+				method, url,
+				((params == null) ? null : Joiner.on(",").withKeyValueSeparator(":").join(params)),
+				e);
+	}
+
+	private static void closeResponse(TransportResponse response) {
+		if (response != null) {
+			try {
+				response.close();
+			} catch (IOException e) {
+				log.debug("Error closing response", e);
+			}
+		}
+	}
+
+	private ITransport getTransport() {
+		if (transport == null) {
+			transport = new UrlConnectionTransport();
+		}
+		return transport;
 	}
 
 	public String getFullUrl() {
 		if (params.isEmpty()) {
 			return url;
-		} else {
-			return url + "?" + buildRequest(params);
 		}
+		StringBuilder sb = urlBuilder.get();
+		sb.setLength(0);
+		sb.append(url).append('?');
+		appendQuery(sb, params);
+		String fullUrl = sb.toString();
+		if (sb.capacity() > MAX_RETAINED_URL_BUILDER) {
+			urlBuilder.remove();
+		}
+		return fullUrl;
 	}
 
-	private HttpURLConnection getOAuthSignedConnection() throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+	private TransportRequest getOAuthSignedRequest() throws IOException, NoSuchAlgorithmException, InvalidKeyException {
 		setOAuthParameters();
 
 		String fullUrl = getFullUrl();
-		URL urlObj = new URL(fullUrl);
-		HttpURLConnection conn = null;
-		if (this.url.startsWith("https")) {
-			conn = (HttpsURLConnection) urlObj.openConnection();
-			((HttpsURLConnection) conn).setHostnameVerifier(new HostnameVerifier() {
+		TransportRequest request = new TransportRequest(method, fullUrl)
+				.timing(timing);
+		if (deadline != null) {
+			int remaining = deadline.remainingMillis();
+			request.connectTimeout(Math.min(CONNECTION_TIMEOUT, remaining))
+					.readTimeout(remaining);
+		} else {
+			request.connectTimeout(CONNECTION_TIMEOUT);
+		}
+		setRequestProperties(request, fullUrl);
+		if (null != body) {
+			byte[] data = body.getBytes("UTF-8");
+			bodySize = data.length;
+			if (compressBody && !method.equals("GET") && (data.length >= compressionThreshold)) {
+				data = gzip(data);
+				request.header("Content-Encoding", "gzip");
+				bodyCompressed = true;
+				log.debug("Compressed request body from {} to {} bytes", bodySize, data.length);
+			}
+			sentBodySize = data.length;
+			request.body(data);
+		} else if (null != bodyWriter) {
+			final boolean gzip = compressBody && !method.equals("GET");
+			if (gzip) {
+				request.header("Content-Encoding", "gzip");
+				bodyCompressed = true;
+			}
+			request.body(new IBodyWriter() {
 				@Override
-				public boolean verify(String arg0, SSLSession arg1) {
-					return true;
+				public void writeTo(OutputStream out) throws IOException {
+					CountingOutputStream sent = new CountingOutputStream(out);
+					GZIPOutputStream gzipStream = gzip ? new GZIPOutputStream(sent, 8192) : null;
+					CountingOutputStream raw = new CountingOutputStream((gzipStream != null) ? gzipStream : sent);
+					bodyWriter.writeTo(raw);
+					if (gzipStream != null) {
+						gzipStream.finish();
+					}
+					raw.flush();
+					bodySize = raw.getCount();
+					sentBodySize = sent.getCount();
 				}
 			});
-		} else {
-			conn = (HttpURLConnection) urlObj.openConnection();
 		}
+		return request;
+	}
 
-		setRequestProperties(conn, fullUrl);
-
-		return conn;
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 4 + 64);
+		GZIPOutputStream gzipStream = new GZIPOutputStream(bos);
+		gzipStream.write(data);
+		gzipStream.close();
+		return bos.toByteArray();
 	}
 
 	private void setOAuthParameters() {
@@ -230,7 +466,7 @@ public class AuthRequest {
 			if (params == null) {
 				params = new HashMap<String, String>();
 			}
-			params.put("oauth_nonce", Long.toString(new Random().nextLong() & 0xffffffffL));
+			params.put("oauth_nonce", OAuthSigner.newNonce());
 			params.put("oauth_consumer_key", key);
 			params.put("oauth_signature_method", "HMAC-SHA1");
 			params.put("oauth_timestamp", Long.toString(System.currentTimeMillis() / 1000));
@@ -238,66 +474,54 @@ public class AuthRequest {
 		}
 	}
 
-	private void setRequestProperties(HttpURLConnection conn, String fullUrl) throws IOException, InvalidKeyException, NoSuchAlgorithmException {
+	private void setRequestProperties(TransportRequest request, String fullUrl) throws IOException, InvalidKeyException, NoSuchAlgorithmException {
 		for (Map.Entry<String, String> entry : httpHeaders.entrySet()) {
-			conn.setRequestProperty(entry.getKey(), entry.getValue());
+			request.header(entry.getKey(), entry.getValue());
 		}
 
-		conn.setRequestProperty("Connection", "close");
-		conn.setDoOutput(true);
-		conn.setRequestMethod(method);
-
 		if (method.equals("GET") && useCompression) {
-			conn.setRequestProperty("Accept-Encoding", "gzip,deflate");
+			request.header("Accept-Encoding", "gzip,deflate");
 		}
-		if (!key.isEmpty() && !secret.isEmpty()) {
-			conn.setRequestProperty("Authorization", getAuthorizationHeader(fullUrl));
+		if (!key.isEmpty() && ((signer != null) || (secret != null))) {
+			request.header("Authorization", getAuthorizationHeader(fullUrl));
 		}
-		conn.setRequestProperty("x-app-name", appName);
+		request.header("x-app-name", appName);
 		if (! Strings.isNullOrEmpty(apiVersion)) {
-			conn.setRequestProperty("x-api-version", apiVersion);
+			request.header("x-api-version", apiVersion);
 		}
 	}
 
 	public String getAuthorizationHeader(String fullUrl) throws UnsupportedEncodingException, NoSuchAlgorithmException, InvalidKeyException {
-		return String.format("OAuth,oauth_consumer_key=\"%s\",oauth_signature=\"%s\"",
-				key, URLEncoder.encode(signRequest(fullUrl, secret), "UTF-8"));
-	}
-
-	private void sendRequestBodyIfSet(HttpURLConnection conn) throws IOException {
-		if (null != body) {
-			OutputStream out = conn.getOutputStream();
-			out.write(body.getBytes("UTF-8"));
-			out.close();
+		if (signer == null) {
+			signer = new OAuthSigner(key, secret);
 		}
+		return signer.getAuthorizationHeader(fullUrl);
 	}
 
-	private void receiveResponseFromServer(HttpURLConnection conn) throws IOException {
-		int status = conn.getResponseCode();
+	private void receiveResponseFromServer(TransportResponse response) throws IOException {
+		if (deadline != null) {
+			response = new TransportResponse(response.getStatus(), response.getHeaders(),
+					deadline.bound(response.getBody()), null);
+		}
+		int status = response.getStatus();
 		if ((status >= 200) && (status < 300)) {
-            receiveSuccessResponseFromServer(conn);
+            receiveSuccessResponseFromServer(response);
         } else {
-            receiveErrorResponseFromServer(conn);
+            receiveErrorResponseFromServer(response);
         }
     }
 
-	private void receiveSuccessResponseFromServer(HttpURLConnection conn) throws IOException {
+	private void receiveSuccessResponseFromServer(TransportResponse response) throws IOException {
 		try {
-			String gzip = conn.getRequestProperty("Accept-Encoding");
+			String gzip = response.getHeader("Content-Encoding");
 			if (gzip != null && gzip.contains("gzip")) {
-				InputStream stream = conn.getInputStream();
-				if (stream != null && stream.available() > 0) {
-					GZIPInputStream gzipStream = new GZIPInputStream(stream);
-					responseData = getBytesFromInputStream(gzipStream);
-					if ((responseData != null) && !isBinaryResponse) {
-						responseString = new String(responseData, "UTF-8");
-					}
+				InputStream stream = response.getBody();
+				if (stream != null && response.getContentLength() != 0) {
+					// The decoded length isn't known up front
+					responseData = getBytesFromInputStream(new GZIPInputStream(stream), -1);
 				}
 			} else {
-				responseData = getBytesFromInputStream(conn.getInputStream());
-				if ((responseData != null) && !isBinaryResponse) {
-					responseString = new String(responseData, "UTF-8");
-				}
+				responseData = getBytesFromInputStream(response.getBody(), response.getContentLength());
 			}
 		} catch (IOException e) {
 			log.error("Error reading success response from server", e);
@@ -308,9 +532,9 @@ public class AuthRequest {
         }
     }
     
-	private void receiveErrorResponseFromServer(HttpURLConnection conn) throws IOException {
+	private void receiveErrorResponseFromServer(TransportResponse response) throws IOException {
 		try {
-			responseData = getBytesFromInputStream(conn.getErrorStream());
+			responseData = getBytesFromInputStream(response.getBody(), response.getContentLength());
 			if (responseData != null) {
 				errorMsg = new String(responseData, "UTF-8");
 			}
@@ -323,73 +547,85 @@ public class AuthRequest {
 		}
 	}
 
-	private byte[] getBytesFromInputStream(InputStream is) throws IOException {
-		byte[] result;
-		if (is instanceof ByteArrayInputStream) {
-			int size = is.available();
-			log.trace("Reading {} bytes from {}", size, is);
-			result = new byte[size];
-			int len = is.read(result, 0, size);
-			log.trace("Done. Read {} bytes from {}", len, is);
-		} else {
-			log.trace("Reading from {}", is);
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			int size = 2048;
-			result = new byte[size];
-			int total = 0, len;
-			while ((len = is.read(result, 0, size)) != -1) {
-				bos.write(result, 0, len);
-				total += len;
-				log.trace("Read {} bytes so far from {}", total, is);
-			}
-			result = bos.toByteArray();
-			log.trace("Done. Read {} bytes from {}", total, is);
+	private byte[] getBytesFromInputStream(InputStream is, long contentLength) throws IOException {
+		if (is == null) {
+			return null;
 		}
+		log.trace("Reading {} bytes from {}", contentLength, is);
+		byte[] result = ResponseBuffers.read(is, contentLength);
+		log.trace("Done. Read {} bytes from {}", result.length, is);
 		is.close();
 		return result;
 	}
 
+	/**
+	 * Returns the body of a successful response as a String. The String is only built on
+	 * the first call; use {@link #getResponseData()} to deserialize the bytes directly.
+	 */
 	public String getResponse() {
+		if ((responseString == null) && (responseData != null) && !isBinaryResponse
+				&& (status >= 200) && (status < 300)) {
+			responseString = new String(responseData, StandardCharsets.UTF_8);
+		}
 		return responseString;
 	}
 
+	/**
+	 * Returns a snapshot of the finished request for a request listener, which may run on
+	 * another thread. The response body is decoded when the listener first asks for it.
+	 */
+	public IRequestEvent toEvent() {
+		final String response = responseString;
+		final byte[] data = responseData;
+		Supplier<String> responseBody;
+		if ((response == null) && (data != null) && !isBinaryResponse && (status >= 200) && (status < 300)) {
+			responseBody = Suppliers.memoize(() -> new String(data, StandardCharsets.UTF_8));
+		} else {
+			responseBody = Suppliers.ofInstance(response);
+		}
+		return new RequestEvent(getEndpoint(), method, url, status, errorMsg, bodySize, sentBodySize,
+				getResponseSize(), timing.copy(), body, responseBody);
+	}
+
 	public byte[] getResponseData() {
 		return responseData;
 	}
 
-	private String buildRequest(HashMap<String, String> map) {
-		String request = "";
-		Iterator<String> iterator = map.keySet().iterator();
-		Integer i = 0;
-		while (iterator.hasNext()) {
-			String key = iterator.next();
-			request = request.concat(key + "=" + map.get(key));
-			if (i < map.size() - 1) {
-				request = request.concat("&");
-			}
-			i++;
-		}
-		return request;
+	public long getResponseSize() {
+		return (responseData != null) ? responseData.length : 0;
+	}
+
+	public String getRequestBody() {
+		return body;
 	}
 
-	private String signRequest(String fullUrl, String secretkey) throws UnsupportedEncodingException, NoSuchAlgorithmException, InvalidKeyException {
-		String encodedURL = URLEncoder.encode(fullUrl, "UTF-8");
-		Mac mac = Mac.getInstance("HmacSHA1");
-		SecretKeySpec secret = new SecretKeySpec(secretkey.getBytes(), "HmacSHA1");
-		mac.init(secret);
-		byte[] digest = mac.doFinal(encodedURL.getBytes());
-		String signature = java.util.Base64.getEncoder().encodeToString(digest);
-		return signature;
+	/**
+	 * Returns the size in bytes of the UTF-8 request body, before compression.
+	 */
+	public long getBodySize() {
+		return bodySize;
 	}
 
-	private String hashMD5(String md5) throws NoSuchAlgorithmException {
-		java.security.MessageDigest md = java.security.MessageDigest.getInstance("MD5");
-		byte[] array = md.digest(md5.getBytes());
-		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < array.length; ++i) {
-			sb.append(Integer.toHexString((array[i] & 0xFF) | 0x100).substring(1, 3));
+	/**
+	 * Returns the number of body bytes actually sent, after compression if it was applied.
+	 */
+	public long getSentBodySize() {
+		return sentBodySize;
+	}
+
+	public boolean isBodyCompressed() {
+		return bodyCompressed;
+	}
+
+	private static void appendQuery(StringBuilder sb, Map<String, String> map) {
+		boolean first = true;
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			if (!first) {
+				sb.append('&');
+			}
+			sb.append(entry.getKey()).append('=').append(entry.getValue());
+			first = false;
 		}
-		return sb.toString();
 	}
 
 	public String getRequestUrl() {
@@ -405,8 +641,14 @@ public class AuthRequest {
 	}
 
 	public String getMessageFromJsonErrorMessage(String key) {
-		Map<String,Object> map = new Gson().fromJson(errorMsg, Map.class);
-		if (map.containsKey(key)) {
+		Map<String,Object> map;
+		try {
+			map = new Gson().fromJson(errorMsg, Map.class);
+		} catch (JsonSyntaxException e) {
+			// Not a service error, e.g. a missed deadline
+			return errorMsg;
+		}
+		if ((map != null) && map.containsKey(key)) {
 			return (String) map.get(key);
 		} else {
 			return errorMsg;
@@ -425,18 +667,3 @@ public class AuthRequest {
 	}
 
 }
-
-class DefaultTrustManager implements X509TrustManager {
-
-    @Override
-    public void checkClientTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {}
-
-    @Override
-    public void checkServerTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {}
-
-    @Override
-    public X509Certificate[] getAcceptedIssuers() {
-        return null;
-    }
-}
-
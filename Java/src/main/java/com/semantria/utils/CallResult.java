@@ -0,0 +1,59 @@
+package com.semantria.utils;
+
+import com.google.common.base.MoreObjects;
+import com.semantria.transport.RequestTiming;
+
+/**
+ * Outcome of one Session call: the endpoint, HTTP status, error message and timing.
+ * Immutable, so it can be handed between threads.
+ */
+public final class CallResult {
+
+	private final String endpoint;
+	private final int status;
+	private final String errorMessage;
+	private final RequestTiming timing;
+
+	public CallResult(String endpoint, int status, String errorMessage, RequestTiming timing) {
+		this.endpoint = endpoint;
+		this.status = status;
+		this.errorMessage = errorMessage;
+		this.timing = timing;
+	}
+
+	/**
+	 * Method and path of the call, e.g. "GET document/processed".
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the error message of a failed call, or null if it succeeded.
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	public RequestTiming getTiming() {
+		return timing;
+	}
+
+	public boolean isSuccess() {
+		return (status >= 200) && (status < 300);
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.omitNullValues()
+				.add("endpoint", endpoint)
+				.add("status", status)
+				.add("errorMessage", errorMessage)
+				.toString();
+	}
+}
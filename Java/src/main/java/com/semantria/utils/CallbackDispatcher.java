@@ -0,0 +1,214 @@
+package com.semantria.utils;
+
+import com.google.common.base.MoreObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs callback handler methods on threads of its own, so that the threads doing the HTTP
+ * calls don't wait for user code. Set it on a session with
+ * {@link com.semantria.Session#withCallbackDispatcher(CallbackDispatcher)}.
+ * <p/>
+ * Callbacks wait in a bounded queue. What happens when the queue is full is set by the
+ * {@link OverflowPolicy}. With a single thread, the default, callbacks run in the order in
+ * which they were dispatched.
+ */
+public class CallbackDispatcher implements Closeable {
+
+	private static Logger log = LoggerFactory.getLogger(CallbackDispatcher.class);
+
+	/**
+	 * What to do with a callback when the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait until there is room. No callback is lost, but a handler that falls behind
+		 * holds up the calling thread.
+		 */
+		BLOCK,
+		/**
+		 * Drop the oldest waiting callback to make room. The calling thread never waits.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Run the callback on the calling thread, as if there were no dispatcher.
+		 */
+		CALLER_RUNS
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong callerRuns = new AtomicLong();
+
+	/**
+	 * Creates a dispatcher with one thread.
+	 *
+	 * @param capacity Number of callbacks that can wait to be run.
+	 */
+	public CallbackDispatcher(int capacity, OverflowPolicy policy) {
+		this(1, capacity, policy);
+	}
+
+	/**
+	 * @param threads  Number of threads running callbacks. With more than one, callbacks may
+	 *                 run concurrently and out of order.
+	 * @param capacity Number of callbacks that can wait to be run.
+	 */
+	public CallbackDispatcher(int threads, int capacity, OverflowPolicy policy) {
+		if ((threads <= 0) || (capacity <= 0)) {
+			throw new IllegalArgumentException("threads and capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity), newThreadFactory(), new OverflowHandler());
+	}
+
+	/**
+	 * Runs {@code callback} on a dispatcher thread, or as the overflow policy says if the
+	 * queue is full. After {@link #close()} callbacks run on the calling thread.
+	 */
+	public void dispatch(Runnable callback) {
+		executor.execute(callback);
+		maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+	}
+
+	/**
+	 * Returns the number of callbacks waiting to be run.
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Returns the highest queue depth seen so far.
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Returns the number of callbacks dropped under {@link OverflowPolicy#DROP_OLDEST}.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of callbacks run on the calling thread because the queue was full
+	 * or the dispatcher closed.
+	 */
+	public long getCallerRunsCount() {
+		return callerRuns.get();
+	}
+
+	/**
+	 * Stops accepting callbacks and waits up to {@code timeout} for those already queued.
+	 *
+	 * @return true if all queued callbacks have run.
+	 */
+	public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+		executor.shutdown();
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Stops accepting callbacks. Those already queued still run.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("policy", policy)
+				.add("queueDepth", getQueueDepth())
+				.add("capacity", capacity)
+				.add("dropped", dropped.get())
+				.add("callerRuns", callerRuns.get())
+				.toString();
+	}
+
+	private class OverflowHandler implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+			if (e.isShutdown()) {
+				callerRuns.incrementAndGet();
+				r.run();
+				return;
+			}
+			switch (policy) {
+				case BLOCK:
+					try {
+						e.getQueue().put(r);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting to dispatch a callback", ex);
+					}
+					runIfStranded(r, e);
+					break;
+				case DROP_OLDEST:
+					BlockingQueue<Runnable> queue = e.getQueue();
+					while (!e.getQueue().offer(r)) {
+						if (queue.poll() != null) {
+							long n = dropped.incrementAndGet();
+							if ((n == 1) || (n % 1000 == 0)) {
+								log.warn("Callback queue full, {} callbacks dropped so far", n);
+							}
+						}
+					}
+					runIfStranded(r, e);
+					break;
+				default:
+					callerRuns.incrementAndGet();
+					r.run();
+			}
+		}
+
+		// Queued behind the executor's back, the callback may have arrived after the executor
+		// shut down and its threads finished the queue. Whichever takes it off the queue runs it.
+		private void runIfStranded(Runnable r, ThreadPoolExecutor e) {
+			if (e.isShutdown() && e.getQueue().remove(r)) {
+				callerRuns.incrementAndGet();
+				r.run();
+			}
+		}
+	}
+
+	private static ThreadFactory newThreadFactory() {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "semantria-callbacks-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,146 @@
+package com.semantria.utils;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a call has to be finished.
+ * <p/>
+ * Deadlines are measured with {@link System#nanoTime()}, so they aren't affected by changes
+ * of the wall clock. Besides the deadline each request gets from its session, a deadline can
+ * be set for everything the current thread does with {@link #within(long, TimeUnit)}:
+ * <pre>
+ * try (Deadline.Scope scope = Deadline.within(2, TimeUnit.SECONDS)) {
+ *     session.queueDocument(doc);
+ *     session.getProcessedDocuments();
+ * }
+ * </pre>
+ * Requests then finish by whichever deadline comes first.
+ */
+public final class Deadline {
+
+	private static final ThreadLocal<Deadline> current = new ThreadLocal<>();
+
+	private final long deadlineNanos;
+
+	private Deadline(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	/**
+	 * Returns a deadline {@code timeout} from now.
+	 */
+	public static Deadline after(long timeout, TimeUnit unit) {
+		return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	/**
+	 * Returns the deadline set for the current thread by {@link #within(long, TimeUnit)},
+	 * or null if there is none.
+	 */
+	public static Deadline current() {
+		return current.get();
+	}
+
+	/**
+	 * Returns the earlier of two deadlines; either may be null for no deadline.
+	 */
+	public static Deadline earliest(Deadline a, Deadline b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		return (a.deadlineNanos - b.deadlineNanos <= 0) ? a : b;
+	}
+
+	/**
+	 * Sets a deadline {@code timeout} from now for the calls made by the current thread until
+	 * the returned scope is closed. A deadline already set for the thread is only ever shortened.
+	 */
+	public static Scope within(long timeout, TimeUnit unit) {
+		Deadline previous = current.get();
+		current.set(earliest(after(timeout, unit), previous));
+		return new Scope(previous);
+	}
+
+	public long remaining(TimeUnit unit) {
+		return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	public boolean isExpired() {
+		return deadlineNanos - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Returns the remaining time in milliseconds as a socket timeout: at least 1, since 0
+	 * would mean no timeout at all.
+	 */
+	public int remainingMillis() {
+		long millis = remaining(TimeUnit.MILLISECONDS);
+		return (int) Math.max(1, Math.min(millis, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Wraps {@code in} so that reading fails with a {@link SocketTimeoutException} once this
+	 * deadline has passed. A read already waiting for data is ended by the socket's read timeout.
+	 */
+	public InputStream bound(InputStream in) {
+		if (in == null) {
+			return null;
+		}
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				check();
+				return super.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				check();
+				return super.read(b, off, len);
+			}
+
+			private void check() throws SocketTimeoutException {
+				if (isExpired()) {
+					throw new SocketTimeoutException("Deadline exceeded while reading the response");
+				}
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("remainingMillis", remaining(TimeUnit.MILLISECONDS))
+				.toString();
+	}
+
+	/**
+	 * Restores the thread's previous deadline when closed.
+	 */
+	public static final class Scope implements Closeable {
+		private final Deadline previous;
+
+		private Scope(Deadline previous) {
+			this.previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (previous == null) {
+				current.remove();
+			} else {
+				current.set(previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.semantria.utils;
+
+import com.google.common.base.Strings;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Request URLs of the API endpoints for one service URL and data format.
+ * <p/>
+ * The full URL of every known endpoint, such as {@code https://api.semantria.com/document/batch.json},
+ * is built once. URLs of single documents and collections are put together from a
+ * precomputed prefix and suffix around the encoded id.
+ */
+public final class Endpoints {
+
+	/**
+	 * Endpoints whose URLs are computed up front.
+	 */
+	public static final String[] KNOWN_PATHS = {
+			"status", "subscription", "statistics", "features",
+			"configurations", "categories", "queries", "phrases", "blacklist", "entities", "taxonomy",
+			"document", "document/batch", "document/processed",
+			"collection", "collection/processed"
+	};
+
+	// Other paths are cached too, up to this many
+	private static final int MAX_CACHED = 64;
+
+	private final String serviceUrl;
+	private final String format;
+	private final String suffix;
+	private final ConcurrentHashMap<String, String> urls = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, String> prefixes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param serviceUrl API URL prefix without trailing slash.
+	 * @param format     Data format appended as extension, e.g. "json", or null for none.
+	 */
+	public Endpoints(String serviceUrl, String format) {
+		this.serviceUrl = serviceUrl;
+		this.format = format;
+		this.suffix = Strings.isNullOrEmpty(format) ? "" : "." + format;
+		for (String path : KNOWN_PATHS) {
+			urls.put(path, build(path));
+		}
+	}
+
+	public String getServiceUrl() {
+		return serviceUrl;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * Returns the URL of endpoint {@code path}, e.g. "document/processed".
+	 */
+	public String url(String path) {
+		String url = urls.get(path);
+		if (url == null) {
+			url = build(path);
+			if (urls.size() < MAX_CACHED) {
+				urls.putIfAbsent(path, url);
+			}
+		}
+		return url;
+	}
+
+	/**
+	 * Returns the URL of the item {@code id} under endpoint {@code path}, e.g. "document".
+	 * The id is URL-encoded.
+	 */
+	public String url(String path, String id) {
+		String prefix = prefixes.get(path);
+		if (prefix == null) {
+			prefix = serviceUrl + (path.startsWith("/") ? "" : "/") + path + "/";
+			if (prefixes.size() < MAX_CACHED) {
+				prefixes.putIfAbsent(path, prefix);
+			}
+		}
+		StringBuilder sb = new StringBuilder(prefix.length() + id.length() * 3 + suffix.length());
+		sb.append(prefix);
+		appendEncoded(sb, id);
+		return sb.append(suffix).toString();
+	}
+
+	private String build(String path) {
+		return serviceUrl + (path.startsWith("/") ? "" : "/") + path + suffix;
+	}
+
+	/**
+	 * Appends {@code value} encoded as by {@code URLEncoder.encode(value, "UTF-8")}.
+	 * Ids are usually plain ASCII, which is copied as is.
+	 */
+	private static void appendEncoded(StringBuilder sb, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (!(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9'))
+					|| (c == '.') || (c == '-') || (c == '*') || (c == '_'))) {
+				try {
+					sb.append(URLEncoder.encode(value, "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+				return;
+			}
+		}
+		sb.append(value);
+	}
+}
@@ -0,0 +1,62 @@
+package com.semantria.utils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kinds of API calls that get their own default timeout.
+ */
+public enum RequestCategory {
+
+	/**
+	 * Fetching results: processed documents and collections, or a single one by id.
+	 */
+	POLLING(30, TimeUnit.SECONDS),
+	/**
+	 * Queueing and cancelling documents and collections.
+	 */
+	QUEUEING(120, TimeUnit.SECONDS),
+	/**
+	 * Reading and changing configurations and their contents.
+	 */
+	CONFIGURATION(60, TimeUnit.SECONDS),
+	/**
+	 * Everything else: status, subscription, statistics and so on.
+	 */
+	OTHER(60, TimeUnit.SECONDS);
+
+	private static final Set<String> CONFIGURATION_PATHS = new HashSet<>(Arrays.asList(
+			"configurations", "categories", "queries", "phrases", "blacklist", "entities", "taxonomy"));
+
+	private final long defaultTimeoutMillis;
+
+	RequestCategory(long defaultTimeout, TimeUnit unit) {
+		this.defaultTimeoutMillis = unit.toMillis(defaultTimeout);
+	}
+
+	public long getDefaultTimeout(TimeUnit unit) {
+		return unit.convert(defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the category of a call to endpoint {@code path}, e.g. "document/batch".
+	 */
+	public static RequestCategory of(String path, String method) {
+		if (path == null) {
+			return OTHER;
+		}
+		String p = path.startsWith("/") ? path.substring(1) : path;
+		if (p.endsWith("/processed")) {
+			return POLLING;
+		}
+		if (p.equals("document") || p.startsWith("document/") || p.equals("collection") || p.startsWith("collection/")) {
+			return "GET".equalsIgnoreCase(method) ? POLLING : QUEUEING;
+		}
+		if (CONFIGURATION_PATHS.contains(p)) {
+			return CONFIGURATION;
+		}
+		return OTHER;
+	}
+}
@@ -0,0 +1,107 @@
+package com.semantria.utils;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
+import com.semantria.interfaces.IRequestEvent;
+import com.semantria.transport.RequestTiming;
+
+/**
+ * What a request listener is told about a finished request, taken from the request when it
+ * finished. Nothing in it changes afterwards, so it can be handed between threads; the
+ * response body is decoded on the first call to {@link #getResponse()}.
+ */
+final class RequestEvent implements IRequestEvent {
+
+	private final String endpoint;
+	private final String method;
+	private final String requestUrl;
+	private final Integer status;
+	private final String errorMessage;
+	private final long bodySize;
+	private final long sentBodySize;
+	private final long responseSize;
+	private final RequestTiming timing;
+	private final String requestBody;
+	private final Supplier<String> response;
+
+	RequestEvent(String endpoint, String method, String requestUrl, Integer status, String errorMessage,
+				 long bodySize, long sentBodySize, long responseSize, RequestTiming timing,
+				 String requestBody, Supplier<String> response) {
+		this.endpoint = endpoint;
+		this.method = method;
+		this.requestUrl = requestUrl;
+		this.status = status;
+		this.errorMessage = errorMessage;
+		this.bodySize = bodySize;
+		this.sentBodySize = sentBodySize;
+		this.responseSize = responseSize;
+		this.timing = timing;
+		this.requestBody = requestBody;
+		this.response = response;
+	}
+
+	@Override
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	@Override
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public String getRequestUrl() {
+		return requestUrl;
+	}
+
+	@Override
+	public Integer getStatus() {
+		return status;
+	}
+
+	@Override
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	@Override
+	public long getBodySize() {
+		return bodySize;
+	}
+
+	@Override
+	public long getSentBodySize() {
+		return sentBodySize;
+	}
+
+	@Override
+	public long getResponseSize() {
+		return responseSize;
+	}
+
+	@Override
+	public RequestTiming getTiming() {
+		return timing;
+	}
+
+	@Override
+	public String getRequestBody() {
+		return requestBody;
+	}
+
+	@Override
+	public String getResponse() {
+		return response.get();
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.omitNullValues()
+				.add("endpoint", endpoint)
+				.add("status", status)
+				.add("errorMessage", errorMessage)
+				.toString();
+	}
+}
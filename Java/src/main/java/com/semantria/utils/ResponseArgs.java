@@ -1,18 +1,32 @@
 package com.semantria.utils;
 
+import com.semantria.transport.RequestTiming;
+
 public class ResponseArgs 
 {
 	private Integer r_status;
 	private String r_message;
+	private RequestTiming r_timing;
 	
 	public ResponseArgs(Integer status, String message)
+	{
+		this(status, message, null);
+	}
+	
+	public ResponseArgs(Integer status, String message, RequestTiming timing)
 	{
 		r_status = status;
 		r_message = message;
+		r_timing = timing;
 	}
 	
 	public String getMessage() { return r_message; }
 	public Integer getStatus() { return r_status; }
+	/**
+	 * Where the time of the request went; the PARSE phase is only known once the
+	 * response has been deserialized, after this callback. Null if not measured.
+	 */
+	public RequestTiming getTiming() { return r_timing; }
 	
 	public void setMessage(String message) { r_message = message; }
 	public void setStatus(Integer status) { r_status = status; }
@@ -0,0 +1,83 @@
+package com.semantria.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads response bodies into byte arrays with as few copies as possible.
+ * <p/>
+ * When the length is known from Content-Length the array is allocated once at its final
+ * size and filled directly. Otherwise the body is read into a scratch buffer owned by the
+ * current thread, which grows as needed and is kept for the thread's next response, and
+ * then copied once into an array of the exact size. Virtual threads rarely make a second
+ * request, so they get a fresh scratch buffer that isn't kept.
+ */
+public final class ResponseBuffers {
+
+	public static final int INITIAL_SIZE = 8192;
+	/**
+	 * Scratch buffers larger than this are dropped after use instead of being kept.
+	 */
+	public static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+	// Arrays this large may fail to allocate on some VMs
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[INITIAL_SIZE];
+		}
+	};
+
+	private ResponseBuffers() {
+	}
+
+	/**
+	 * Reads {@code in} to its end. The stream is not closed.
+	 *
+	 * @param in            Response body.
+	 * @param contentLength Body length from Content-Length, or -1 if unknown.
+	 * @return The body, in an array of exactly its length.
+	 */
+	public static byte[] read(InputStream in, long contentLength) throws IOException {
+		if ((contentLength >= 0) && (contentLength <= MAX_ARRAY_SIZE)) {
+			return readFixed(in, (int) contentLength);
+		}
+		return readUnknown(in);
+	}
+
+	private static byte[] readFixed(InputStream in, int length) throws IOException {
+		byte[] result = new byte[length];
+		int total = 0;
+		while (total < length) {
+			int len = in.read(result, total, length - total);
+			if (len == -1) {
+				throw new EOFException("Response body ended after " + total + " of " + length + " bytes");
+			}
+			total += len;
+		}
+		return result;
+	}
+
+	private static byte[] readUnknown(InputStream in) throws IOException {
+		boolean retain = !VirtualThreads.isVirtual(Thread.currentThread());
+		byte[] buffer = retain ? scratch.get() : new byte[INITIAL_SIZE];
+		int total = 0, len;
+		while ((len = in.read(buffer, total, buffer.length - total)) != -1) {
+			total += len;
+			if (total == buffer.length) {
+				if (buffer.length == MAX_ARRAY_SIZE) {
+					throw new IOException("Response body too large");
+				}
+				buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, MAX_ARRAY_SIZE));
+			}
+		}
+		if (retain && (buffer.length <= MAX_RETAINED_SIZE)) {
+			scratch.set(buffer);
+		}
+		return Arrays.copyOf(buffer, total);
+	}
+}
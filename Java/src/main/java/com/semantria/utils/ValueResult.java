@@ -0,0 +1,53 @@
+package com.semantria.utils;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * What a Session call returned together with the {@link CallResult} of that call, for
+ * callers that need to tell why the value is missing without relying on the session's last
+ * request status, which concurrent calls overwrite.
+ */
+public final class ValueResult<T> {
+
+	private final T value;
+	private final CallResult result;
+
+	public ValueResult(T value, CallResult result) {
+		this.value = value;
+		this.result = result;
+	}
+
+	/**
+	 * Returns what the call returned: the same as its plain counterpart, e.g. null or an
+	 * empty list if it failed.
+	 */
+	public T getValue() {
+		return value;
+	}
+
+	public CallResult getResult() {
+		return result;
+	}
+
+	public int getStatus() {
+		return result.getStatus();
+	}
+
+	/**
+	 * Returns the error message of a failed call, or null if it succeeded.
+	 */
+	public String getErrorMessage() {
+		return result.getErrorMessage();
+	}
+
+	public boolean isSuccess() {
+		return result.isSuccess();
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("result", result)
+				.toString();
+	}
+}
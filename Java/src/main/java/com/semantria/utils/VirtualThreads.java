@@ -0,0 +1,37 @@
+package com.semantria.utils;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Access to virtual threads, which came with Java 21.
+ * <p/>
+ * On Java 21 and later the implementation in the {@code META-INF/versions/21} part of the
+ * jar is loaded. On older runtimes this class is loaded instead and reports virtual threads
+ * as unsupported.
+ */
+public final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Returns true if the running JVM supports virtual threads.
+	 */
+	public static boolean isSupported() {
+		return false;
+	}
+
+	/**
+	 * Returns true if {@code thread} is a virtual thread.
+	 */
+	public static boolean isVirtual(Thread thread) {
+		return false;
+	}
+
+	/**
+	 * Returns an executor that runs each task on a new virtual thread named {@code name-N}.
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String name) {
+		throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+	}
+}
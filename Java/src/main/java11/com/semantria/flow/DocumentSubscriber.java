@@ -0,0 +1,182 @@
+package com.semantria.flow;
+
+import com.google.common.base.MoreObjects;
+import com.semantria.Session;
+import com.semantria.mapping.Document;
+import com.semantria.mapping.output.Subscription;
+import com.semantria.utils.ValueResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Subscriber} that queues the documents it receives for analysis, in batches.
+ * <p/>
+ * It requests one batch of documents from upstream, queues them with
+ * {@link Session#queueBatchAsync(List, String)} once the batch is full, and requests the
+ * next batch only after the service has answered. No more than one batch is ever buffered
+ * or in flight, however fast upstream produces. The last, partial batch is queued when
+ * upstream completes or fails.
+ * <p/>
+ * Batches the service rejects are reported to the session's callback handler like any other
+ * failed call and counted by {@link #getFailedCount()}; the subscriber carries on with the
+ * next batch. Part of the Java 11 section of the multi-release jar.
+ */
+public class DocumentSubscriber implements Flow.Subscriber<Document> {
+
+    private static Logger log = LoggerFactory.getLogger(DocumentSubscriber.class);
+
+    private final Session session;
+    private final String configId;
+    private final int batchSize;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Signals to a subscriber are serialized, so the batch needs no locking. The other two
+    // are also read from the threads that complete the batches.
+    private volatile Flow.Subscription subscription = null;
+    private volatile CompletableFuture<Integer> lastBatch = CompletableFuture.completedFuture(null);
+    private List<Document> batch;
+
+    /**
+     * Creates a subscriber that sends batches of the subscription's incoming_batch_limit.
+     * Fetches the subscription from the service.
+     *
+     * @param configId Configuration to queue the documents with, or null for the primary one.
+     * @throws IllegalStateException if the subscription can't be retrieved.
+     */
+    public DocumentSubscriber(Session session, String configId) {
+        this(session, configId, getIncomingBatchLimit(session));
+    }
+
+    /**
+     * @param configId  Configuration to queue the documents with, or null for the primary one.
+     * @param batchSize Documents per batch; at most the subscription's incoming_batch_limit.
+     */
+    public DocumentSubscriber(Session session, String configId, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.session = session;
+        this.configId = configId;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public void onNext(Document document) {
+        batch.add(document);
+        if (batch.size() == batchSize) {
+            queueBatch().whenComplete((status, e) -> {
+                if (!completion.isDone()) {
+                    subscription.request(batchSize);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        log.debug("Upstream failed, queueing the documents received so far", throwable);
+        queueBatch().whenComplete((status, e) -> completion.completeExceptionally(throwable));
+    }
+
+    @Override
+    public void onComplete() {
+        queueBatch().whenComplete((status, e) -> {
+            if (e != null) {
+                completion.completeExceptionally(e);
+            } else {
+                completion.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Stops requesting documents. Documents received since the last batch was sent are not
+     * queued; the completion future completes once the last batch sent has been answered.
+     */
+    public void cancel() {
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        lastBatch.whenComplete((status, e) -> completion.complete(null));
+    }
+
+    /**
+     * Returns a future that completes once upstream has finished and the last batch has been
+     * answered, exceptionally if upstream failed.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Returns the number of documents the service accepted.
+     */
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of documents in batches the service did not accept.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    // Sends the buffered documents, if any; returns the answer to the last batch sent
+    private CompletableFuture<Integer> queueBatch() {
+        if (batch.isEmpty()) {
+            return lastBatch;
+        }
+        final List<Document> sent = batch;
+        batch = new ArrayList<>(batchSize);
+        lastBatch = session.queueBatchAsync(sent, configId).whenComplete((status, e) -> {
+            // 200 when the configuration answers batches with their results right away
+            if ((e == null) && (status != null) && (status >= 200) && (status <= 202)) {
+                queued.addAndGet(sent.size());
+            } else {
+                failed.addAndGet(sent.size());
+            }
+        });
+        return lastBatch;
+    }
+
+    private static int getIncomingBatchLimit(Session session) {
+        ValueResult<Subscription> result = session.getSubscriptionForResult();
+        Subscription subscription = result.getValue();
+        if ((subscription == null) || (subscription.getBasicSettings() == null)
+                || (subscription.getBasicSettings().getIncomingBatchLimit() == null)) {
+            throw new IllegalStateException("Can't get the incoming batch limit of the subscription, status "
+                    + result.getStatus() + ((result.getErrorMessage() != null) ? ": " + result.getErrorMessage() : ""));
+        }
+        return subscription.getBasicSettings().getIncomingBatchLimit();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("configId", configId)
+                .add("batchSize", batchSize)
+                .add("queued", queued.get())
+                .add("failed", failed.get())
+                .toString();
+    }
+}
@@ -0,0 +1,212 @@
+package com.semantria.flow;
+
+import com.google.common.base.MoreObjects;
+import com.semantria.Session;
+import com.semantria.mapping.output.DocAnalyticData;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Flow.Publisher} of analysis results, polled from the service as the subscriber
+ * asks for them.
+ * <p/>
+ * The service is only polled while the subscriber has unmet demand and the results of the
+ * previous poll have all been delivered, so a slow subscriber never holds more than one
+ * poll's worth of results in memory. Results not yet fetched stay queued on the service.
+ * After a poll that returned nothing the next one waits for the poll interval; after one
+ * that returned results it follows as soon as there is demand.
+ * <p/>
+ * The stream ends once {@link #withExpectedCount(long) the expected number} of results
+ * has been fetched and delivered, or when the subscriber cancels; results fetched but not yet delivered by then are lost.
+ * Polls the service answers with an error status are reported to the session's callback
+ * handler and count as empty. A poll that fails with an exception ends the stream with
+ * {@code onError}. A publisher accepts a single subscriber, since results taken from the
+ * service by one subscriber are no longer there for another. Part of the Java 11 section
+ * of the multi-release jar.
+ */
+public class ProcessedDocumentsPublisher implements Flow.Publisher<DocAnalyticData> {
+
+    public static final long DEFAULT_POLL_INTERVAL = 2000;  // milliseconds
+
+    private final Supplier<CompletableFuture<List<DocAnalyticData>>> poll;
+    private final String description;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile long pollInterval = DEFAULT_POLL_INTERVAL;
+    private volatile long expectedCount = Long.MAX_VALUE;
+
+    private ProcessedDocumentsPublisher(Supplier<CompletableFuture<List<DocAnalyticData>>> poll, String description) {
+        this.poll = poll;
+        this.description = description;
+    }
+
+    /**
+     * Publishes the results of documents queued with {@code configId}, or with the primary
+     * configuration if it is null.
+     */
+    public static ProcessedDocumentsPublisher forConfiguration(final Session session, final String configId) {
+        return new ProcessedDocumentsPublisher(() -> session.getProcessedDocumentsAsync(configId),
+                "config_id=" + configId);
+    }
+
+    /**
+     * Publishes the results of documents queued with job id {@code jobId}.
+     */
+    public static ProcessedDocumentsPublisher forJob(final Session session, final String jobId) {
+        return new ProcessedDocumentsPublisher(() -> session.getProcessedDocumentsByJobIdAsync(jobId),
+                "job_id=" + jobId);
+    }
+
+    /**
+     * Sets how long to wait before polling again after a poll returned no results.
+     */
+    public ProcessedDocumentsPublisher withPollInterval(long interval, TimeUnit unit) {
+        this.pollInterval = unit.toMillis(interval);
+        return this;
+    }
+
+    /**
+     * Stops polling once {@code count} results have been fetched, e.g. the number of
+     * documents queued for a job, and completes the stream when they have been delivered.
+     * The last poll may return more results than were still expected; since the service
+     * hands out each result only once, these are delivered too rather than dropped. By
+     * default the stream runs until it is cancelled.
+     */
+    public ProcessedDocumentsPublisher withExpectedCount(long count) {
+        this.expectedCount = count;
+        return this;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super DocAnalyticData> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Results of " + description + " are already being published"));
+            return;
+        }
+        PollingSubscription subscription = new PollingSubscription(subscriber, pollInterval, expectedCount);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .addValue(description)
+                .add("pollInterval", pollInterval)
+                .toString();
+    }
+
+    private class PollingSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super DocAnalyticData> subscriber;
+        private final long interval;
+        private final long expected;
+        private final Queue<DocAnalyticData> buffer = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean polling = new AtomicBoolean();
+        private volatile boolean cancelled = false;
+        private volatile boolean lastPollEmpty = false;
+        private volatile Throwable error = null;
+        private volatile long fetched = 0;          // only one poll runs at a time
+
+        PollingSubscription(Flow.Subscriber<? super DocAnalyticData> subscriber, long interval, long expected) {
+            this.subscriber = subscriber;
+            this.interval = interval;
+            this.expected = expected;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested " + n + " results, must be positive");
+            } else {
+                demand.getAndUpdate(d -> (d + n < 0) ? Long.MAX_VALUE : d + n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Delivers buffered results against the outstanding demand and starts a poll when the
+         * buffer runs dry. Runs on one thread at a time; calls made meanwhile are picked up
+         * by the thread already draining.
+         */
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (cancelled) {
+                    buffer.clear();
+                } else if (error != null) {
+                    cancelled = true;
+                    subscriber.onError(error);
+                } else {
+                    DocAnalyticData result;
+                    while ((demand.get() > 0) && !cancelled && ((result = buffer.poll()) != null)) {
+                        if (demand.get() != Long.MAX_VALUE) {
+                            demand.decrementAndGet();
+                        }
+                        subscriber.onNext(result);
+                    }
+                    if (!cancelled && buffer.isEmpty()) {
+                        if ((fetched >= expected) && !polling.get()) {
+                            cancelled = true;
+                            subscriber.onComplete();
+                        } else if (demand.get() > 0) {
+                            startPoll();
+                        }
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        private void startPoll() {
+            if (!polling.compareAndSet(false, true)) {
+                return;
+            }
+            CompletableFuture<Void> start = lastPollEmpty
+                    ? CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(interval, TimeUnit.MILLISECONDS))
+                    : CompletableFuture.completedFuture(null);
+            start.thenCompose(ignored -> cancelled
+                            ? CompletableFuture.completedFuture(null)
+                            : poll.get())
+                    .whenComplete((results, e) -> {
+                        if (e != null) {
+                            error = ((e instanceof CompletionException) && (e.getCause() != null)) ? e.getCause() : e;
+                        } else if ((results == null) || results.isEmpty()) {
+                            lastPollEmpty = true;
+                        } else {
+                            buffer.addAll(results);
+                            fetched += results.size();
+                            lastPollEmpty = false;
+                        }
+                        polling.set(false);
+                        drain();
+                    });
+        }
+    }
+}
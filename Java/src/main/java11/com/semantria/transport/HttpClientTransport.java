@@ -0,0 +1,352 @@
+package com.semantria.transport;
+
+import com.semantria.interfaces.IAsyncTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+
+/**
+ * HTTP/2 transport built on {@code java.net.http.HttpClient}.
+ * <p/>
+ * The client multiplexes concurrent requests over a single connection per host and falls
+ * back to HTTP/1.1 when the server doesn't offer HTTP/2. One client is created per
+ * transport; share the transport between sessions to share its connections.
+ * <p/>
+ * Requests sent with {@link #executeAsync(TransportRequest)} don't hold a thread while they
+ * are in flight; their futures complete on the client's own threads.
+ */
+public class HttpClientTransport implements IAsyncTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 120000;  // milliseconds
+
+    // Headers HttpClient manages itself and refuses to accept from the caller.
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "content-length", "date", "expect", "from", "host",
+            "origin", "referer", "upgrade", "via", "warning"));
+
+    private final TlsContext tlsContext;
+    private final HttpClient client;
+
+    /**
+     * Creates a transport that uses the shared default {@link TlsContext}.
+     */
+    public HttpClientTransport() {
+        this(null);
+    }
+
+    /**
+     * @param tlsContext TLS context for https connections, or null to use the shared default.
+     */
+    public HttpClientTransport(TlsContext tlsContext) {
+        this.tlsContext = (tlsContext != null) ? tlsContext : TlsContext.getDefault();
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .sslContext(this.tlsContext.getSslContext())
+                .connectTimeout(Duration.ofMillis(DEFAULT_CONNECT_TIMEOUT))
+                .build();
+    }
+
+    /**
+     * Returns true if the running JVM provides {@code java.net.http.HttpClient}.
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    public TlsContext getTlsContext() {
+        return tlsContext;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        if (request.getBodyWriter() != null) {
+            return executeStreaming(request);
+        }
+        byte[] body = request.getBody();
+        HttpRequest.Builder builder = newRequestBuilder(request, (body != null)
+                ? HttpRequest.BodyPublishers.ofByteArray(body)
+                : HttpRequest.BodyPublishers.noBody());
+
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            throw interrupted(request, e);
+        }
+        recordWait(request, start);
+        return new TransportResponse(response.statusCode(), response.headers().map(), response.body(), null);
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+        if (request.getBodyWriter() != null) {
+            throw new IllegalArgumentException("Streamed request bodies can't be sent asynchronously");
+        }
+        byte[] body = request.getBody();
+        HttpRequest.Builder builder = newRequestBuilder(request, (body != null)
+                ? HttpRequest.BodyPublishers.ofByteArray(body)
+                : HttpRequest.BodyPublishers.noBody());
+
+        long start = System.nanoTime();
+        CompletableFuture<TransportResponse> result = new CompletableFuture<>();
+        client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        result.completeExceptionally(asyncFailure(request, e));
+                        return;
+                    }
+                    // The body has arrived as well, so this covers downloading it
+                    recordWait(request, start);
+                    result.complete(new TransportResponse(response.statusCode(), response.headers().map(),
+                            new ByteArrayInputStream(response.body()), null));
+                });
+        return result;
+    }
+
+    /**
+     * HttpClient pulls request bodies from its own threads, so the body writer runs on the
+     * calling thread and hands the bytes over as the client asks for them.
+     */
+    private TransportResponse executeStreaming(TransportRequest request) throws IOException {
+        StreamedBody body = new StreamedBody();
+        HttpRequest.Builder builder = newRequestBuilder(request, body);
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<InputStream>> future =
+                client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        // Unblock the writer if the exchange ends before the whole body has been taken
+        future.whenComplete((response, e) -> body.abort());
+        try {
+            OutputStream out = body.getOutputStream();
+            request.getBodyWriter().writeTo(out);
+            out.close();
+        } catch (IOException e) {
+            if (!future.isDone() || future.isCompletedExceptionally()) {
+                body.fail(e);
+                future.cancel(true);
+                throw e;
+            }
+            // The server answered before reading the whole body; return its answer
+        }
+
+        HttpResponse<InputStream> response;
+        try {
+            response = future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw interrupted(request, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+        }
+        recordWait(request, start);
+        return new TransportResponse(response.statusCode(), response.headers().map(), response.body(), null);
+    }
+
+    private HttpRequest.Builder newRequestBuilder(TransportRequest request, HttpRequest.BodyPublisher publisher) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getUrl()))
+                .method(request.getMethod(), publisher);
+        for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
+            if (!RESTRICTED_HEADERS.contains(entry.getKey().toLowerCase())) {
+                builder.header(entry.getKey(), entry.getValue());
+            }
+        }
+        // HttpURLConnection sends this for request bodies; keep the API seeing the same request
+        if (request.hasBody() && (request.getHeader("Content-Type") == null)) {
+            builder.header("Content-Type", "application/x-www-form-urlencoded");
+        }
+        if (request.getReadTimeout() > 0) {
+            builder.timeout(Duration.ofMillis(request.getReadTimeout()));
+        }
+        return builder;
+    }
+
+    // Connection setup happens inside the client, so it all counts as waiting for the response
+    private static void recordWait(TransportRequest request, long start) {
+        if (request.getTiming() != null) {
+            request.getTiming().record(RequestTiming.Phase.WAIT, System.nanoTime() - start);
+        }
+    }
+
+    private static IOException asyncFailure(TransportRequest request, Throwable e) {
+        Throwable cause = ((e instanceof CompletionException) && (e.getCause() != null)) ? e.getCause() : e;
+        if (cause instanceof HttpTimeoutException) {
+            SocketTimeoutException ex = new SocketTimeoutException("Timed out waiting for " + request);
+            ex.initCause(cause);
+            return ex;
+        }
+        return (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+    }
+
+    private static InterruptedIOException interrupted(TransportRequest request, InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException ex = new InterruptedIOException("Interrupted while sending " + request);
+        ex.initCause(e);
+        return ex;
+    }
+
+    /**
+     * Request body written by a body writer on the sending thread. Each chunk the writer
+     * fills is handed to the client only once the client has asked for one, and the
+     * writer waits until then, so no more than a chunk is held in memory. The body can
+     * only be sent once.
+     */
+    private static final class StreamedBody implements HttpRequest.BodyPublisher {
+        private final Object lock = new Object();
+        private Flow.Subscriber<? super ByteBuffer> subscriber = null;     // guarded by lock
+        private long demand = 0;                                           // guarded by lock
+        private boolean subscribed = false;                                // guarded by lock
+        private boolean aborted = false;                                   // guarded by lock
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            boolean again;
+            synchronized (lock) {
+                again = subscribed;
+                subscribed = true;
+            }
+            if (again) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IOException("A streamed request body can't be sent again"));
+                return;
+            }
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    synchronized (lock) {
+                        demand = (n <= 0) ? demand : ((demand + n < 0) ? Long.MAX_VALUE : demand + n);
+                        lock.notifyAll();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    abort();
+                }
+            });
+            synchronized (lock) {
+                this.subscriber = subscriber;
+                lock.notifyAll();
+            }
+        }
+
+        OutputStream getOutputStream() {
+            return new OutputStream() {
+                private final byte[] chunk = new byte[UrlConnectionTransport.CHUNK_SIZE];
+                private int count = 0;
+                private boolean closed = false;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    while (len > 0) {
+                        int n = Math.min(len, chunk.length - count);
+                        System.arraycopy(b, off, chunk, count, n);
+                        count += n;
+                        off += n;
+                        len -= n;
+                        if (count == chunk.length) {
+                            flushChunk();
+                        }
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    if (count > 0) {
+                        flushChunk();
+                    }
+                    awaitSubscriber(false).onComplete();
+                }
+
+                private void flushChunk() throws IOException {
+                    ByteBuffer buffer = ByteBuffer.wrap(chunk.clone(), 0, count);
+                    count = 0;
+                    awaitSubscriber(true).onNext(buffer);
+                }
+            };
+        }
+
+        // Waits until the client has subscribed and, for a chunk, asked for one
+        private Flow.Subscriber<? super ByteBuffer> awaitSubscriber(boolean chunk) throws IOException {
+            synchronized (lock) {
+                while (!aborted && ((subscriber == null) || (chunk && (demand == 0)))) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while writing the request body");
+                    }
+                }
+                if (aborted) {
+                    throw new IOException("Request body no longer wanted");
+                }
+                if (chunk) {
+                    demand--;
+                }
+                return subscriber;
+            }
+        }
+
+        // The exchange is over, or the client cancelled; the writer stops waiting
+        void abort() {
+            synchronized (lock) {
+                aborted = true;
+                lock.notifyAll();
+            }
+        }
+
+        // The writer failed; the client gives up on the request
+        void fail(IOException e) {
+            Flow.Subscriber<? super ByteBuffer> current;
+            synchronized (lock) {
+                current = subscriber;
+                aborted = true;
+                lock.notifyAll();
+            }
+            if (current != null) {
+                current.onError(e);
+            }
+        }
+    }
+}
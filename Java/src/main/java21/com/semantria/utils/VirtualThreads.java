@@ -0,0 +1,34 @@
+package com.semantria.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads, which came with Java 21.
+ */
+public final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Returns true if the running JVM supports virtual threads.
+	 */
+	public static boolean isSupported() {
+		return true;
+	}
+
+	/**
+	 * Returns true if {@code thread} is a virtual thread.
+	 */
+	public static boolean isVirtual(Thread thread) {
+		return thread.isVirtual();
+	}
+
+	/**
+	 * Returns an executor that runs each task on a new virtual thread named {@code name-N}.
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String name) {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+	}
+}
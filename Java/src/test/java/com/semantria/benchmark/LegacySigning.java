@@ -0,0 +1,46 @@
+package com.semantria.benchmark;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * The request signing code as AuthRequest had it before OAuthSigner, kept as the
+ * baseline for benchmarks and as the reference output for tests.
+ */
+public final class LegacySigning {
+
+    private LegacySigning() {
+    }
+
+    public static String nonce() {
+        return Long.toString(new Random().nextLong() & 0xffffffffL);
+    }
+
+    public static String authorizationHeader(String key, String secret, String fullUrl) throws Exception {
+        String hashedSecret = hashMD5(secret);
+        return String.format("OAuth,oauth_consumer_key=\"%s\",oauth_signature=\"%s\"",
+                key, URLEncoder.encode(signRequest(fullUrl, hashedSecret), "UTF-8"));
+    }
+
+    private static String signRequest(String fullUrl, String secretkey) throws Exception {
+        String encodedURL = URLEncoder.encode(fullUrl, "UTF-8");
+        Mac mac = Mac.getInstance("HmacSHA1");
+        SecretKeySpec secret = new SecretKeySpec(secretkey.getBytes(), "HmacSHA1");
+        mac.init(secret);
+        byte[] digest = mac.doFinal(encodedURL.getBytes());
+        return java.util.Base64.getEncoder().encodeToString(digest);
+    }
+
+    private static String hashMD5(String md5) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        byte[] array = md.digest(md5.getBytes());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < array.length; ++i) {
+            sb.append(Integer.toHexString((array[i] & 0xFF) | 0x100).substring(1, 3));
+        }
+        return sb.toString();
+    }
+}
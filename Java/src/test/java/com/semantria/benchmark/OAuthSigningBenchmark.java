@@ -0,0 +1,63 @@
+package com.semantria.benchmark;
+
+import com.semantria.auth.OAuthSigner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request signing cost: nonce plus Authorization header, before and after OAuthSigner.
+ * <p/>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.semantria.benchmark.OAuthSigningBenchmark}, or through
+ * {@code org.openjdk.jmh.Main} on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OAuthSigningBenchmark {
+
+    private static final String KEY = "3c1a7a8f-19d7-4b4c-9f6e-0f5f3c0f2d11";
+    private static final String SECRET = "b8e1f2a4-6c3d-47e9-8a5b-2d9c1e7f4a60";
+    private static final String URL_PREFIX = "https://api.semantria.com/document/processed.json?"
+            + "oauth_version=1.0&oauth_signature_method=HMAC-SHA1&config_id=7b2c4e1a&oauth_nonce=";
+    private static final String URL_SUFFIX = "&oauth_timestamp=1500000000&oauth_consumer_key=" + KEY;
+
+    private OAuthSigner signer;
+
+    @Setup
+    public void setUp() {
+        signer = new OAuthSigner(KEY, SECRET);
+    }
+
+    @Benchmark
+    public String legacy() throws Exception {
+        return LegacySigning.authorizationHeader(KEY, SECRET, URL_PREFIX + LegacySigning.nonce() + URL_SUFFIX);
+    }
+
+    @Benchmark
+    public String signer() {
+        return signer.getAuthorizationHeader(URL_PREFIX + OAuthSigner.newNonce() + URL_SUFFIX);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(OAuthSigningBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,144 @@
+package com.semantria.benchmark;
+
+import com.semantria.Session;
+import com.semantria.interfaces.ITransport;
+import com.semantria.transport.TransportRequest;
+import com.semantria.transport.TransportResponse;
+import com.semantria.utils.VirtualThreads;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of blocking Session calls with many requests in flight, run on a fixed pool of
+ * platform threads or on a virtual thread per call.
+ * <p/>
+ * The transport answers every request after {@link #LATENCY_MILLIS} without touching the
+ * network, so the number of requests in flight is limited only by the threads that wait for
+ * them, not by sockets or ports. The {@code requests} counter is the result, in calls per second.
+ * <p/>
+ * Virtual threads need Java 21 and the multi-release jar, so run it from the packaged jar:
+ * {@code java -cp target/semantria-java-sdk-<version>.jar:target/test-classes:<dependencies>
+ * com.semantria.benchmark.VirtualThreadBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    static final int LATENCY_MILLIS = 20;
+    static final int PLATFORM_THREADS = 200;
+
+    private static final byte[] RESPONSE = "[{\"id\":\"6a2c7e91\",\"status\":\"PROCESSED\",\"sentiment_score\":0.42}]"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final Map<String, List<String>> HEADERS = Collections.singletonMap(
+            "Content-Length", Collections.singletonList(Integer.toString(RESPONSE.length)));
+
+    @Param({"1000", "10000", "50000"})
+    public int inFlight;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    private Session session;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        session = new Session()
+                .withKey("3c1a7a8f-19d7-4b4c-9f6e-0f5f3c0f2d11")
+                .withSecret("b8e1f2a4-6c3d-47e9-8a5b-2d9c1e7f4a60")
+                .withTransport(new SimulatedTransport());
+        executor = threads.equals("virtual")
+                ? VirtualThreads.newThreadPerTaskExecutor("benchmark")
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        session.close();
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Calls {
+        public long requests;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+        }
+    }
+
+    /**
+     * Starts {@link #inFlight} calls at once and waits for all of them.
+     */
+    @Benchmark
+    public void getProcessedDocuments(Calls calls) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        session.getProcessedDocuments(null);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        calls.requests += inFlight;
+    }
+
+    // Waits out the latency on the calling thread, like a blocking socket read.
+    private static class SimulatedTransport implements ITransport {
+        @Override
+        public TransportResponse execute(TransportRequest request) throws IOException {
+            try {
+                Thread.sleep(LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            return new TransportResponse(200, HEADERS, new ByteArrayInputStream(RESPONSE), null);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VirtualThreadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
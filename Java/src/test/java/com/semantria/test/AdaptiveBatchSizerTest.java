@@ -0,0 +1,113 @@
+package com.semantria.test;
+
+import com.semantria.batch.AdaptiveBatchSizer;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveBatchSizerTest {
+
+    @Test
+    public void testStartsLowAndGrowsWhileFastAndFull() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 100, TimeUnit.MILLISECONDS);
+        assertEquals(25, sizer.getBatchSize());
+        sizer.record(25, 10, TimeUnit.MILLISECONDS, false);
+        assertEquals(27, sizer.getBatchSize());
+        for (int i = 0; i < 50; i++) {
+            sizer.record(sizer.getBatchSize(), 10, TimeUnit.MILLISECONDS, false);
+        }
+        assertEquals(100, sizer.getBatchSize());
+        assertEquals(0, sizer.getDecreaseCount());
+    }
+
+    @Test
+    public void testDoesntGrowOnBatchesThatDidntFill() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 100, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++) {
+            sizer.record(5, 10, TimeUnit.MILLISECONDS, false);
+        }
+        assertEquals(25, sizer.getBatchSize());
+        assertEquals(0, sizer.getIncreaseCount());
+    }
+
+    @Test
+    public void testSlowAnswersShrinkTheSize() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 100, TimeUnit.MILLISECONDS);
+        sizer.record(24, 500, TimeUnit.MILLISECONDS, false);
+        assertEquals(18, sizer.getBatchSize());
+        assertEquals(500, sizer.getLatency(TimeUnit.MILLISECONDS));
+        assertEquals(0, sizer.getErrorRate(), 0);
+    }
+
+    @Test
+    public void testOneSlowAnswerShrinksTheSizeOnce() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 100, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            sizer.record(5, 10, TimeUnit.MILLISECONDS, false);
+        }
+        sizer.record(25, 2, TimeUnit.SECONDS, false);
+        assertEquals(18, sizer.getBatchSize());
+        // The average stays above the target for several fast answers after the spike
+        sizer.record(18, 10, TimeUnit.MILLISECONDS, false);
+        assertTrue(sizer.getLatency(TimeUnit.MILLISECONDS) > 100);
+        for (int i = 0; i < 5; i++) {
+            sizer.record(18, 10, TimeUnit.MILLISECONDS, false);
+        }
+        assertEquals(18, sizer.getBatchSize());
+        assertEquals(1, sizer.getDecreaseCount());
+        assertEquals(0, sizer.getIncreaseCount());
+
+        // Growth resumes once the average has come down
+        int rounds = 0;
+        while (sizer.getBatchSize() == 18) {
+            assertTrue("Never grew again: " + sizer, ++rounds < 50);
+            sizer.record(18, 10, TimeUnit.MILLISECONDS, false);
+        }
+        assertTrue(sizer.getLatency(TimeUnit.MILLISECONDS) < 75);
+        assertEquals(1, sizer.getDecreaseCount());
+    }
+
+    @Test
+    public void testTimeoutsAndThrottlingHalveTheSize() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 100, TimeUnit.MILLISECONDS);
+        // A batch that missed its deadline: slow and failed
+        sizer.record(24, 1, TimeUnit.SECONDS, true);
+        assertEquals(12, sizer.getBatchSize());
+        // Throttled straight away
+        sizer.record(12, 5, TimeUnit.MILLISECONDS, true);
+        assertEquals(6, sizer.getBatchSize());
+        assertEquals(2, sizer.getDecreaseCount());
+        // Several batches in flight failing together only bring the size down from their own size
+        sizer.record(12, 5, TimeUnit.MILLISECONDS, true);
+        assertEquals(6, sizer.getBatchSize());
+        for (int i = 0; i < 20; i++) {
+            sizer.record(1, 5, TimeUnit.MILLISECONDS, true);
+        }
+        assertEquals(1, sizer.getBatchSize());
+    }
+
+    @Test
+    public void testRecoversOnceTheServiceDoes() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 100, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            sizer.record(sizer.getBatchSize(), 1, TimeUnit.SECONDS, true);
+        }
+        assertEquals(1, sizer.getBatchSize());
+        assertTrue(sizer.getErrorRate() > AdaptiveBatchSizer.DEFAULT_MAX_ERROR_RATE);
+
+        int rounds = 0;
+        while (sizer.getBatchSize() < 100) {
+            assertTrue("Never recovered: " + sizer, ++rounds < 200);
+            sizer.record(sizer.getBatchSize(), 10, TimeUnit.MILLISECONDS, false);
+        }
+        assertTrue(sizer.getErrorRate() < AdaptiveBatchSizer.DEFAULT_MAX_ERROR_RATE);
+        assertTrue(sizer.getLatency(TimeUnit.MILLISECONDS) < 75);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testErrorRateMustBeAShare() {
+        new AdaptiveBatchSizer(100, 100, TimeUnit.MILLISECONDS, 1.5);
+    }
+}
@@ -0,0 +1,195 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.interfaces.ICallbackHandler;
+import com.semantria.mapping.Document;
+import com.semantria.mapping.output.CollAnalyticData;
+import com.semantria.mapping.output.DocAnalyticData;
+import com.semantria.utils.RequestArgs;
+import com.semantria.utils.ResponseArgs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.semantria.test.LocalApiServer.getKey;
+import static com.semantria.test.LocalApiServer.getParameter;
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class AsyncSessionTest {
+
+    // The auth service caches the session id in user.home; keep it out of the real one
+    @Rule
+    public TemporaryFolder home = new TemporaryFolder();
+    private String realHome;
+
+    private LocalApiServer server;
+    private Session session;
+    private final RecordingHandler handler = new RecordingHandler();
+    private final ExecutorService callbacks = Executors.newSingleThreadExecutor(r -> new Thread(r, "test-callbacks"));
+    private final AtomicInteger sessionsCreated = new AtomicInteger();
+    private final AtomicInteger expired = new AtomicInteger();
+    // Keys of the auth sessions that haven't expired
+    private final Set<String> validKeys = ConcurrentHashMap.newKeySet();
+    private volatile boolean authFails = false;
+
+    @Before
+    public void setUp() throws IOException {
+        realHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.getRoot().getPath());
+        server = new LocalApiServer();
+        server.handle("/auth/session.json", exchange -> {
+            if (authFails) {
+                respond(exchange, 401, "{\"error_message\":\"Wrong password\"}");
+                return;
+            }
+            int n = sessionsCreated.incrementAndGet();
+            validKeys.add("key-" + n);
+            respond(exchange, 200, "{\"id\":\"session-" + n + "\",\"custom_params\":"
+                    + "{\"key\":\"key-" + n + "\",\"secret\":\"secret-" + n + "\"}}");
+        });
+        server.handle("/document.json", exchange -> {
+            String key = getKey(exchange);
+            if (key.startsWith("key-") && !validKeys.contains(key)) {
+                expired.incrementAndGet();
+                respond(exchange, 401, "{\"error_message\":\"E0100202: Auth session expired\"}");
+            } else {
+                respond(exchange, 202, "");
+            }
+        });
+        // Polls for the configuration "broken" fail, those for "garbled" get a body that isn't JSON
+        server.handle("/document/processed.json", exchange -> {
+            String config = getParameter(exchange, "config_id");
+            if ("broken".equals(config)) {
+                respond(exchange, 500, "{\"error\":\"Broken\"}");
+            } else if ("garbled".equals(config)) {
+                respond(exchange, 200, "[{\"id\":");
+            } else {
+                respond(exchange, 200, "[{\"id\":\"doc-0\",\"status\":\"PROCESSED\"}]");
+            }
+        });
+        server.handle("/document/missing.json", exchange -> respond(exchange, 404, "{\"error\":\"Not found\"}"));
+        session = server.newSession().withCallbackHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        callbacks.shutdownNow();
+        session.close();
+        server.close();
+        System.setProperty("user.home", realHome);
+    }
+
+    @Test
+    public void testFailedCallsCompleteWithTheirStatusOrAnEmptyResult() throws Exception {
+        assertTrue(session.getProcessedDocumentsAsync("broken").get(10, TimeUnit.SECONDS).isEmpty());
+        assertNull(session.getDocumentAsync("missing", null).get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(500, 404), handler.errors);
+        assertEquals(1, session.getProcessedDocumentsAsync(null).get(10, TimeUnit.SECONDS).size());
+        assertEquals(2, handler.errors.size());
+    }
+
+    @Test
+    public void testCredentialFailureGoesToOnError() throws Exception {
+        authFails = true;
+        Session user = Session.createUserSession("user", "password", false)
+                .withAuthUrl(server.getUrl())
+                .withServiceUrl(server.getUrl())
+                .withCallbackHandler(handler);
+        try {
+            assertEquals(Integer.valueOf(401), user.queueDocumentAsync(new Document("doc", "text"), null)
+                    .get(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(401), handler.errors);
+        } finally {
+            user.close();
+        }
+    }
+
+    @Test
+    public void testUnreadableResponseFailsTheFuture() throws Exception {
+        try {
+            session.getProcessedDocumentsAsync("garbled").join();
+            fail("The future should have failed");
+        } catch (CompletionException e) {
+            assertNotNull(e.getCause());
+        }
+    }
+
+    @Test
+    public void testResultAndCallbacksRunOnTheCallbackExecutor() throws Exception {
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        List<DocAnalyticData> results = session.getProcessedDocumentsAsync(null, callbacks)
+                .whenComplete((r, e) -> threads.add(Thread.currentThread().getName()))
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(1, results.size());
+        session.getProcessedDocumentsAsync("broken", callbacks)
+                .whenComplete((r, e) -> threads.add(Thread.currentThread().getName()))
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("test-callbacks", "test-callbacks"), threads);
+        assertEquals(Arrays.asList("test-callbacks"), handler.errorThreads);
+    }
+
+    @Test
+    public void testRetriedAfterTheAuthSessionExpired() throws Exception {
+        Session user = Session.createUserSession("user", "password", false)
+                .withAuthUrl(server.getUrl())
+                .withServiceUrl(server.getUrl())
+                .withCallbackHandler(handler);
+        try {
+            assertEquals(Integer.valueOf(202), user.queueDocumentAsync(new Document("doc-0", "text"), null)
+                    .get(10, TimeUnit.SECONDS));
+            assertEquals(1, sessionsCreated.get());
+
+            validKeys.clear();
+            assertEquals(Integer.valueOf(202), user.queueDocumentAsync(new Document("doc-1", "text"), null)
+                    .get(10, TimeUnit.SECONDS));
+            assertEquals(1, expired.get());
+            assertEquals(2, sessionsCreated.get());
+            // The expired attempt was retried rather than reported
+            assertTrue(handler.errors.isEmpty());
+        } finally {
+            user.close();
+        }
+    }
+
+    private static class RecordingHandler implements ICallbackHandler {
+        final List<Integer> errors = new CopyOnWriteArrayList<>();
+        final List<String> errorThreads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onResponse(Object sender, ResponseArgs responseArgs) {
+        }
+
+        @Override
+        public void onRequest(Object sender, RequestArgs requestArgs) {
+        }
+
+        @Override
+        public void onError(Object sender, ResponseArgs errorArgs) {
+            errors.add(errorArgs.getStatus());
+            errorThreads.add(Thread.currentThread().getName());
+        }
+
+        @Override
+        public void onDocsAutoResponse(Object sender, List<DocAnalyticData> processedData) {
+        }
+
+        @Override
+        public void onCollsAutoResponse(Object sender, List<CollAnalyticData> processedData) {
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.mapping.Document;
+import com.semantria.utils.AuthRequest;
+import com.semantria.utils.Deadline;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.semantria.test.LocalApiServer.getKey;
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class AuthSessionRenewalTest {
+
+    private static final int CALLERS = 8;
+
+    // The auth service caches the session id in user.home; keep it out of the real one
+    @Rule
+    public TemporaryFolder home = new TemporaryFolder();
+    private String realHome;
+
+    private LocalApiServer server;
+    private Session session;
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    // Attempts to create an auth session, and those that succeeded
+    private final AtomicInteger authAttempts = new AtomicInteger();
+    private final AtomicInteger sessionsCreated = new AtomicInteger();
+    // Requests refused because their auth session had expired
+    private final AtomicInteger expired = new AtomicInteger();
+    // Keys of the auth sessions that haven't expired, and the key of the last request
+    private final Set<String> validKeys = ConcurrentHashMap.newKeySet();
+    private volatile String lastKey = null;
+    // Attempts to create an auth session fail while this is positive, counting down
+    private final AtomicInteger authFailures = new AtomicInteger();
+    // While set, the auth service answers only once this opens
+    private volatile CountDownLatch authRelease = null;
+    // While positive, the auth service waits until this many requests have been refused
+    private volatile int holdUntilExpired = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        realHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.getRoot().getPath());
+        server = new LocalApiServer();
+        server.handle("/auth/session.json", exchange -> {
+            authAttempts.incrementAndGet();
+            CountDownLatch release = authRelease;
+            try {
+                if (release != null) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                long end = System.currentTimeMillis() + 5000;
+                while ((expired.get() < holdUntilExpired) && (System.currentTimeMillis() < end)) {
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (authFailures.getAndDecrement() > 0) {
+                respond(exchange, 500, "{\"error_message\":\"Auth service unavailable\"}");
+                return;
+            }
+            int n = sessionsCreated.incrementAndGet();
+            validKeys.add("key-" + n);
+            respond(exchange, 200, "{\"id\":\"session-" + n + "\",\"custom_params\":"
+                    + "{\"key\":\"key-" + n + "\",\"secret\":\"secret-" + n + "\"}}");
+        });
+        server.handle("/document.json", exchange -> {
+            lastKey = getKey(exchange);
+            if (validKeys.contains(lastKey)) {
+                respond(exchange, 202, "");
+            } else {
+                expired.incrementAndGet();
+                respond(exchange, 401, "{\"error_message\":\"E0100202: Auth session expired\"}");
+            }
+        });
+        session = Session.createUserSession("user", "password", false)
+                .withAuthUrl(server.getUrl())
+                .withServiceUrl(server.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        if (authRelease != null) {
+            authRelease.countDown();
+        }
+        callers.shutdownNow();
+        session.close();
+        server.close();
+        System.setProperty("user.home", realHome);
+    }
+
+    @Test
+    public void testConcurrentExpiryRenewsOnce() throws Exception {
+        assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc", "text"), null));
+        assertEquals(1, sessionsCreated.get());
+
+        validKeys.clear();
+        // The renewal is held until every caller has found its auth session expired
+        holdUntilExpired = CALLERS;
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            final Document document = new Document("doc-" + i, "text");
+            results.add(callers.submit(() -> session.queueDocument(document, null)));
+        }
+        for (Future<Integer> result : results) {
+            assertEquals(Integer.valueOf(202), result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(CALLERS, expired.get());
+        assertEquals(2, sessionsCreated.get());
+        assertEquals(2, authAttempts.get());
+    }
+
+    @Test
+    public void testWaiterGivesUpAtItsDeadline() throws Exception {
+        assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc", "text"), null));
+        validKeys.clear();
+        authRelease = new CountDownLatch(1);
+        Future<Integer> renewing = callers.submit(() -> session.queueDocument(new Document("doc-0", "text"), null));
+        waitFor(() -> authAttempts.get() == 2);
+
+        long start = System.nanoTime();
+        Integer status;
+        try (Deadline.Scope ignored = Deadline.within(200, TimeUnit.MILLISECONDS)) {
+            status = session.queueDocument(new Document("doc-1", "text"), null);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(Integer.valueOf(AuthRequest.STATUS_DEADLINE_EXCEEDED), status);
+        assertTrue("Waited " + elapsed + " ms", elapsed < 2000);
+
+        // The renewal it gave up on still serves the caller that started it
+        authRelease.countDown();
+        assertEquals(Integer.valueOf(202), renewing.get(10, TimeUnit.SECONDS));
+        assertEquals(2, authAttempts.get());
+        assertEquals(2, sessionsCreated.get());
+    }
+
+    @Test
+    public void testFailedBackgroundRenewalIsRetried() throws Exception {
+        session.withAuthSessionRenewal(600, TimeUnit.MILLISECONDS)
+                .withRetryDelay(100, TimeUnit.MILLISECONDS);
+        assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc", "text"), null));
+        assertEquals(1, sessionsCreated.get());
+
+        // The renewal due at 540 ms fails and is tried again 100 ms later
+        authFailures.set(1);
+        waitFor(() -> sessionsCreated.get() == 2);
+        assertEquals(3, authAttempts.get());
+
+        // Requests move on to the renewed auth session without ever finding theirs expired
+        waitFor(() -> (session.queueDocument(new Document("doc-1", "text"), null) == 202) && "key-2".equals(lastKey));
+        assertEquals(0, expired.get());
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("Timed out waiting", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+}
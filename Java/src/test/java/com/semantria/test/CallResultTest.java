@@ -0,0 +1,156 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.batch.DocumentBatcher;
+import com.semantria.mapping.Document;
+import com.semantria.mapping.output.DocAnalyticData;
+import com.semantria.mapping.output.Subscription;
+import com.semantria.utils.CallResult;
+import com.semantria.utils.ValueResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.semantria.test.LocalApiServer.readBody;
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class CallResultTest {
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"(doc-(\\d+))\"");
+
+    private LocalApiServer server;
+    private Session session;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer();
+        // Documents with an odd number are rejected, with their id in the error
+        server.handle("/document", exchange -> {
+            Matcher m = ID.matcher(readBody(exchange));
+            assertTrue(m.find());
+            if ((Integer.parseInt(m.group(2)) % 2) == 1) {
+                respond(exchange, 400, "rejected " + m.group(1));
+            } else {
+                respond(exchange, 202, "");
+            }
+        });
+        // Polls for the configuration "broken" fail; the others return one result named after it
+        server.handle("/document/processed.json", exchange -> {
+            String config = LocalApiServer.getParameter(exchange, "config_id");
+            if ("broken".equals(config)) {
+                respond(exchange, 500, "{\"error\":\"Broken\"}");
+            } else {
+                respond(exchange, 200, "[{\"id\":\"" + config + "\",\"status\":\"PROCESSED\"}]");
+            }
+        });
+        server.handle("/subscription.json", exchange -> respond(exchange, 503, "{\"error\":\"Unavailable\"}"));
+        session = server.newSession();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testConcurrentCallsGetTheirOwnResult() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final int n = i;
+                futures.add(callers.submit(() -> assertResult(n,
+                        session.queueDocumentForResult(new Document("doc-" + n, "text"), null))));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBlockingAndAsyncCallsGetTheirOwnResult() throws Exception {
+        List<CompletableFuture<CallResult>> async = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            async.add(session.queueBatchForResultAsync(
+                    Collections.singletonList(new Document("doc-" + i, "text")), null));
+            // Blocking calls in between, while the asynchronous ones finish on other threads
+            int n = 100 + i;
+            assertResult(n, session.queueBatchForResult(Collections.singletonList(new Document("doc-" + n, "text")), null));
+        }
+        for (int i = 0; i < async.size(); i++) {
+            assertResult(i, async.get(i).get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testConcurrentPollsGetTheirOwnResult() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String config = ((i % 2) == 1) ? "broken" : "config-" + i;
+                futures.add(callers.submit(() -> {
+                    ValueResult<List<DocAnalyticData>> result = session.getProcessedDocumentsForResult(config);
+                    if ("broken".equals(config)) {
+                        assertEquals(500, result.getStatus());
+                        assertTrue(result.getErrorMessage().contains("Broken"));
+                        assertTrue(result.getValue().isEmpty());
+                    } else {
+                        assertTrue(result.isSuccess());
+                        assertEquals(config, result.getValue().get(0).getId());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSubscriptionFailureIsReportedWithItsOwnStatus() throws Exception {
+        ValueResult<Subscription> result = session.getSubscriptionForResult();
+        assertNull(result.getValue());
+        assertEquals(503, result.getStatus());
+        assertEquals("GET subscription", result.getResult().getEndpoint());
+
+        // A later call doesn't change what the batcher reports
+        session.queueDocumentForResult(new Document("doc-0", "text"), null);
+        try {
+            new DocumentBatcher(session);
+            fail("The batcher needs the subscription's batch limit");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("status 503"));
+            assertTrue(e.getMessage(), e.getMessage().contains("Unavailable"));
+        }
+    }
+
+    private static void assertResult(int n, CallResult result) {
+        if ((n % 2) == 1) {
+            assertEquals(400, result.getStatus());
+            assertEquals("rejected doc-" + n, result.getErrorMessage());
+        } else {
+            assertEquals(202, result.getStatus());
+            assertNull(result.getErrorMessage());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.semantria.test;
+
+import com.semantria.utils.CallbackDispatcher;
+import com.semantria.utils.CallbackDispatcher.OverflowPolicy;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CallbackDispatcherTest {
+
+    // Names of the callbacks that ran, in order
+    private final List<String> ran = new CopyOnWriteArrayList<>();
+    // The first callback dispatched holds the dispatcher's thread until this opens
+    private volatile CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private CallbackDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        callers.shutdownNow();
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws Exception {
+        dispatcher = new CallbackDispatcher(1, OverflowPolicy.BLOCK);
+        occupyThread();
+        dispatcher.dispatch(record("queued"));
+        Future<?> third = callers.submit(() -> dispatcher.dispatch(record("waiting")));
+        Thread.sleep(100);
+        assertFalse(third.isDone());
+        assertEquals(1, dispatcher.getQueueDepth());
+
+        release.countDown();
+        third.get(10, TimeUnit.SECONDS);
+        waitFor(() -> ran.size() == 3);
+        assertEquals(Arrays.asList("busy", "queued", "waiting"), ran);
+        assertEquals(0, dispatcher.getCallerRunsCount());
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void testBlockedCallbackRunsWhenTheDispatcherClosesMeanwhile() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            ran.clear();
+            release = new CountDownLatch(1);
+            dispatcher = new CallbackDispatcher(1, OverflowPolicy.BLOCK);
+            occupyThread();
+            dispatcher.dispatch(record("queued"));
+            Future<?> third = callers.submit(() -> dispatcher.dispatch(record("waiting")));
+            Thread.sleep(2);
+            dispatcher.close();
+            release.countDown();
+            third.get(10, TimeUnit.SECONDS);
+            // Not left behind in the queue of an executor whose thread has finished
+            waitFor(() -> ran.size() == 3);
+        }
+    }
+
+    @Test
+    public void testDropOldestMakesRoom() throws Exception {
+        dispatcher = new CallbackDispatcher(2, OverflowPolicy.DROP_OLDEST);
+        occupyThread();
+        dispatcher.dispatch(record("first"));
+        dispatcher.dispatch(record("second"));
+        dispatcher.dispatch(record("third"));
+        assertEquals(1, dispatcher.getDroppedCount());
+        assertEquals(2, dispatcher.getQueueDepth());
+
+        release.countDown();
+        waitFor(() -> ran.size() == 3);
+        assertEquals(Arrays.asList("busy", "second", "third"), ran);
+    }
+
+    @Test
+    public void testCallerRunsWhenFull() throws Exception {
+        dispatcher = new CallbackDispatcher(1, OverflowPolicy.CALLER_RUNS);
+        occupyThread();
+        dispatcher.dispatch(record("queued"));
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        dispatcher.dispatch(() -> threads.add(Thread.currentThread()));
+        assertEquals(Arrays.asList(Thread.currentThread()), threads);
+        assertEquals(1, dispatcher.getCallerRunsCount());
+
+        release.countDown();
+        waitFor(() -> ran.size() == 2);
+        assertEquals(Arrays.asList("busy", "queued"), ran);
+    }
+
+    @Test
+    public void testCallbacksRunOnTheCallerAfterClose() throws Exception {
+        dispatcher = new CallbackDispatcher(1, OverflowPolicy.BLOCK);
+        assertTrue(dispatcher.close(10, TimeUnit.SECONDS));
+        dispatcher.dispatch(record("late"));
+        assertEquals(Arrays.asList("late"), ran);
+        assertEquals(1, dispatcher.getCallerRunsCount());
+    }
+
+    @Test
+    public void testQueueDepthIsTracked() throws Exception {
+        dispatcher = new CallbackDispatcher(5, OverflowPolicy.BLOCK);
+        assertEquals(0, dispatcher.getMaxQueueDepth());
+        occupyThread();
+        for (int i = 0; i < 3; i++) {
+            dispatcher.dispatch(record("queued-" + i));
+        }
+        assertEquals(3, dispatcher.getQueueDepth());
+        assertEquals(3, dispatcher.getMaxQueueDepth());
+
+        release.countDown();
+        waitFor(() -> ran.size() == 4);
+        assertEquals(0, dispatcher.getQueueDepth());
+        // The high-water mark stays
+        assertEquals(3, dispatcher.getMaxQueueDepth());
+    }
+
+    // Dispatches a callback that holds the dispatcher's only thread, and waits until it does
+    private void occupyThread() throws InterruptedException {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch held = release;
+        dispatcher.dispatch(() -> {
+            running.countDown();
+            try {
+                held.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.add("busy");
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+    }
+
+    private Runnable record(final String name) {
+        return () -> ran.add(name);
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("Timed out waiting", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+}
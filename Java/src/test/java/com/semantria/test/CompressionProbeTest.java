@@ -0,0 +1,167 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.mapping.Document;
+import com.semantria.utils.Deadline;
+import com.semantria.utils.RequestArgs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class CompressionProbeTest {
+
+    private LocalApiServer server;
+    private Session session;
+    private volatile int statusCode;
+    private volatile String statusBody;
+    private final AtomicInteger statusRequests = new AtomicInteger();
+    // Status requests are held until this opens
+    private final CountDownLatch statusRelease = new CountDownLatch(1);
+    private volatile boolean holdStatus = false;
+    private final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+    private final RecordingHandler handler = new RecordingHandler();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer();
+        server.handle("/status", exchange -> {
+            statusRequests.incrementAndGet();
+            if (holdStatus) {
+                try {
+                    statusRelease.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            respond(exchange, statusCode, statusBody);
+        });
+        server.handle("/document", exchange -> {
+            contentEncodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Content-Encoding")));
+            respond(exchange, 202, "");
+        });
+        session = server.newSession()
+                .withCompression(true)
+                .withCompressionThreshold(0)
+                .withCallbackHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        statusRelease.countDown();
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testFailedProbeIsCachedAndSilent() {
+        statusCode = 503;
+        statusBody = "{\"error\":\"unavailable\"}";
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc" + i, "text"), null));
+        }
+        assertEquals(1, statusRequests.get());
+        assertEquals(3, handler.requests.size());
+        for (String url : handler.requests) {
+            assertTrue(url, url.contains("/document"));
+        }
+        assertTrue(handler.getErrors().isEmpty());
+        assertEquals(3, contentEncodings.size());
+        for (String encoding : contentEncodings) {
+            assertEquals("null", encoding);
+        }
+    }
+
+    @Test
+    public void testFailedProbeIsRetriedAfterTheDelay() throws Exception {
+        statusCode = 503;
+        statusBody = "{\"error\":\"unavailable\"}";
+        session.withRetryDelay(300, TimeUnit.MILLISECONDS);
+        assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc0", "text"), null));
+        assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc1", "text"), null));
+        assertEquals(1, statusRequests.get());
+
+        statusCode = 200;
+        statusBody = "{\"supported_compression\":\"gzip\"}";
+        Thread.sleep(400);
+        assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc2", "text"), null));
+        assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc3", "text"), null));
+        assertEquals(2, statusRequests.get());
+        assertEquals(Arrays.asList("null", "null", "gzip", "gzip"), contentEncodings);
+    }
+
+    @Test
+    public void testWaitingForTheProbeEndsAtTheDeadline() throws Exception {
+        statusCode = 200;
+        statusBody = "{\"supported_compression\":\"gzip\"}";
+        holdStatus = true;
+        ExecutorService first = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> probed = first.submit(() -> session.queueDocument(new Document("doc0", "text"), null));
+            waitFor(() -> statusRequests.get() == 1);
+
+            long start = System.nanoTime();
+            try (Deadline.Scope ignored = Deadline.within(200, TimeUnit.MILLISECONDS)) {
+                session.queueDocument(new Document("doc1", "text"), null);
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Waited " + elapsed + " ms", elapsed < 2000);
+
+            statusRelease.countDown();
+            assertEquals(Integer.valueOf(202), probed.get(10, TimeUnit.SECONDS));
+            assertEquals(1, statusRequests.get());
+            assertEquals("gzip", contentEncodings.get(contentEncodings.size() - 1));
+        } finally {
+            first.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSupportedCompressionIsUsed() {
+        statusCode = 200;
+        statusBody = "{\"supported_compression\":\"gzip\"}";
+        for (int i = 0; i < 2; i++) {
+            assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc" + i, "text"), null));
+        }
+        assertEquals(1, statusRequests.get());
+        assertEquals(2, handler.requests.size());
+        assertEquals(2, contentEncodings.size());
+        for (String encoding : contentEncodings) {
+            assertEquals("gzip", encoding);
+        }
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("Timed out waiting", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static class RecordingHandler extends CallbackHandler {
+        final List<String> requests = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onRequest(Object sender, RequestArgs requestArgs) {
+            requests.add(requestArgs.getUrl());
+        }
+    }
+}
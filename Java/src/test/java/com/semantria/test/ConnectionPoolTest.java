@@ -0,0 +1,238 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.transport.ConnectionPool;
+import com.semantria.transport.PooledTransport;
+import com.semantria.transport.RequestTiming;
+import com.semantria.utils.AuthRequest;
+import com.semantria.utils.Deadline;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static com.semantria.test.LocalApiServer.readAll;
+import static com.semantria.test.LocalApiServer.respond;
+import static com.semantria.test.LocalApiServer.respondChunked;
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+
+    private LocalApiServer server;
+    private String baseUrl;
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer();
+        server.handle("/fixed", exchange -> respond(exchange, 200, "fixed body"));
+        server.handle("/chunked", exchange -> respondChunked(exchange, 200, "chunked body".getBytes(StandardCharsets.UTF_8)));
+        server.handle("/echo", exchange -> respond(exchange, 200, readAll(exchange.getRequestBody())));
+        server.handle("/error", exchange -> respond(exchange, 400, "{\"error\":\"bad\"}"));
+        server.handle("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "slow body");
+        });
+        server.handle("/gzip", exchange -> {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bos)) {
+                gzip.write("compressed body".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            respond(exchange, 200, bos.toByteArray());
+        });
+        baseUrl = server.getUrl();
+        pool = new ConnectionPool(4, 2, 30, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void testConnectionIsReused() {
+        for (int i = 0; i < 5; i++) {
+            AuthRequest req = AuthRequest.getInstance(baseUrl + "/fixed", "GET").transport(new PooledTransport(pool, null));
+            assertEquals(Integer.valueOf(200), req.doRequest());
+            assertEquals("fixed body", req.getResponse());
+            assertEquals(i > 0, req.getTiming().isConnectionReused());
+            assertTrue(req.getTiming().get(RequestTiming.Phase.WAIT, TimeUnit.NANOSECONDS) > 0);
+        }
+        assertEquals(1, pool.getMissCount());
+        assertEquals(4, pool.getHitCount());
+        assertEquals(0, pool.getLeasedCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testSessionPoolsConnectionsByDefault() {
+        server.handle("/subscription.json", exchange -> respond(exchange, 200, "{}"));
+        Session session = server.newSession();
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertNotNull(session.getSubscription());
+            }
+            assertTrue(session.getTransport() instanceof PooledTransport);
+            ConnectionPool own = ((PooledTransport) session.getTransport()).getConnectionPool();
+            assertEquals(1, own.getMissCount());
+            assertEquals(2, own.getHitCount());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testChunkedAndGzipResponses() {
+        AuthRequest req = AuthRequest.getInstance(baseUrl + "/chunked", "GET").transport(new PooledTransport(pool, null));
+        assertEquals(Integer.valueOf(200), req.doRequest());
+        assertEquals("chunked body", req.getResponse());
+
+        req = AuthRequest.getInstance(baseUrl + "/gzip", "GET").useCompression(true).transport(new PooledTransport(pool, null));
+        assertEquals(Integer.valueOf(200), req.doRequest());
+        assertEquals("compressed body", req.getResponse());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void testRequestBodyAndErrorResponse() {
+        AuthRequest req = AuthRequest.getInstance(baseUrl + "/echo", "POST").body("[{\"id\":\"1\"}]").transport(new PooledTransport(pool, null));
+        assertEquals(Integer.valueOf(200), req.doRequest());
+        assertEquals("[{\"id\":\"1\"}]", req.getResponse());
+
+        req = AuthRequest.getInstance(baseUrl + "/error", "GET").transport(new PooledTransport(pool, null));
+        assertEquals(Integer.valueOf(400), req.doRequest());
+        assertEquals("bad", req.getMessageFromJsonErrorMessage("error"));
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void testStaleConnectionIsReplaced() {
+        AuthRequest req = AuthRequest.getInstance(baseUrl + "/fixed", "GET").transport(new PooledTransport(pool, null));
+        assertEquals(Integer.valueOf(200), req.doRequest());
+        restartServer();
+
+        req = AuthRequest.getInstance(baseUrl + "/fixed", "GET").transport(new PooledTransport(pool, null));
+        assertEquals(Integer.valueOf(200), req.doRequest());
+        assertEquals("fixed body", req.getResponse());
+    }
+
+    @Test
+    public void testStreamedBodyOnStaleConnection() {
+        AuthRequest req = AuthRequest.getInstance(baseUrl + "/fixed", "GET").transport(new PooledTransport(pool, null));
+        assertEquals(Integer.valueOf(200), req.doRequest());
+        restartServer();
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            expected.append("document ").append(i).append('\n');
+        }
+        req = AuthRequest.getInstance(baseUrl + "/echo", "POST")
+                .body(out -> out.write(expected.toString().getBytes(StandardCharsets.UTF_8)))
+                .transport(new PooledTransport(pool, null));
+        assertEquals(Integer.valueOf(200), req.doRequest());
+        assertEquals(expected.toString(), req.getResponse());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testDeadlineExceeded() {
+        long start = System.nanoTime();
+        AuthRequest req = AuthRequest.getInstance(baseUrl + "/slow", "GET")
+                .deadline(Deadline.after(200, TimeUnit.MILLISECONDS))
+                .transport(new PooledTransport(pool, null));
+        assertEquals(Integer.valueOf(AuthRequest.STATUS_DEADLINE_EXCEEDED), req.doRequest());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        assertEquals(0, pool.getLeasedCount());
+
+        // An expired deadline fails without sending anything
+        assertEquals(Integer.valueOf(AuthRequest.STATUS_DEADLINE_EXCEEDED), req.doRequest());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void testOnlyGetIsSentAgainAfterConnectionLoss() throws Exception {
+        // Answers the first request on each connection, then takes the next one and hangs up
+        AtomicInteger received = new AtomicInteger();
+        try (ServerSocket stub = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = new Thread(() -> {
+                while (!stub.isClosed()) {
+                    try (Socket socket = stub.accept()) {
+                        InputStream in = socket.getInputStream();
+                        if (readRequest(in) == null) {
+                            continue;
+                        }
+                        received.incrementAndGet();
+                        socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.ISO_8859_1));
+                        if (readRequest(in) != null) {
+                            received.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        // stub closed
+                    }
+                }
+            }, "hang-up-stub");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            String stubUrl = "http://127.0.0.1:" + stub.getLocalPort();
+
+            AuthRequest req = AuthRequest.getInstance(stubUrl + "/a", "GET").transport(new PooledTransport(pool, null));
+            assertEquals(Integer.valueOf(200), req.doRequest());
+            // Lost on the kept connection, then sent again on a new one
+            req = AuthRequest.getInstance(stubUrl + "/b", "GET").transport(new PooledTransport(pool, null));
+            assertEquals(Integer.valueOf(200), req.doRequest());
+            assertEquals(3, received.get());
+            // Lost on the kept connection, and not sent again: it may have been processed
+            req = AuthRequest.getInstance(stubUrl + "/document/batch", "POST").body("[{\"id\":\"1\"}]")
+                    .transport(new PooledTransport(pool, null));
+            assertNotEquals(Integer.valueOf(200), req.doRequest());
+            assertEquals(4, received.get());
+            assertEquals(0, pool.getLeasedCount());
+        }
+    }
+
+    // Restarting the server closes the idle keep-alive connections held by the pool.
+    private void restartServer() {
+        try {
+            server.restart();
+        } catch (IOException e) {
+            fail("Can't restart server: " + e);
+        }
+    }
+
+    // Reads a request head and its Content-Length body; returns the head, or null at the end of the stream
+    private static String readRequest(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int c, matched = 0;
+        while ((c = in.read()) != -1) {
+            head.write(c);
+            matched = ((c == '\r' && (matched % 2 == 0)) || (c == '\n' && (matched % 2 == 1))) ? matched + 1 : 0;
+            if (matched == 4) {
+                String text = new String(head.toByteArray(), StandardCharsets.ISO_8859_1);
+                for (String line : text.split("\r\n")) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        new DataInputStream(in).readFully(new byte[Integer.parseInt(line.substring(15).trim())]);
+                    }
+                }
+                return text;
+            }
+        }
+        return null;
+    }
+}
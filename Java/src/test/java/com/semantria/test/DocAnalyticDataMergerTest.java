@@ -0,0 +1,147 @@
+package com.semantria.test;
+
+import com.semantria.batch.DocAnalyticDataMerger;
+import com.semantria.mapping.output.DocAnalyticData;
+import com.semantria.mapping.output.DocEntity;
+import com.semantria.mapping.output.DocTheme;
+import com.semantria.mapping.output.Location;
+import com.semantria.mapping.output.Mention;
+import com.semantria.mapping.output.Sentence;
+import com.semantria.mapping.output.TaskStatus;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DocAnalyticDataMergerTest {
+
+    private static final int[] OFFSETS = {0, 15};
+    private static final int[] LENGTHS = {15, 21};
+
+    @Test
+    public void testSentimentIsWeightedByLength() {
+        DocAnalyticData merged = DocAnalyticDataMerger.merge("doc",
+                Arrays.asList(part(0.4f, "positive", 1), part(0.2f, "positive", 2)), OFFSETS, LENGTHS);
+        assertEquals("doc", merged.getId());
+        assertEquals(TaskStatus.PROCESSED, merged.getStatus());
+        assertEquals((0.4f * 15 + 0.2f * 21) / 36, merged.getSentimentScore(), 1e-6);
+        assertEquals("positive", merged.getSentimentPolarity());
+        assertEquals(3, merged.getDetails().size());
+    }
+
+    @Test
+    public void testPolarityIsKeptOnlyWhereThePartsAgree() {
+        DocAnalyticData merged = DocAnalyticDataMerger.merge("doc",
+                Arrays.asList(part(0.4f, "positive", 1), part(-0.3f, "negative", 1)), OFFSETS, LENGTHS);
+        assertNull(merged.getSentimentPolarity());
+    }
+
+    @Test
+    public void testEntitiesWithTheSameTitleAndTypeBecomeOne() {
+        DocAnalyticData first = part(0.4f, "positive", 1);
+        first.setEntities(new ArrayList<>(Arrays.asList(
+                entity("Acme", "Company", 2, 0.5f, "positive", 4, 0),
+                entity("Acme", "Person", 1, 0.1f, "neutral", 9, 0))));
+        DocAnalyticData second = part(0.2f, "positive", 2);
+        second.setEntities(new ArrayList<>(Collections.singletonList(
+                entity("acme", "Company", 1, -0.1f, "negative", 2, 1))));
+
+        DocAnalyticData merged = DocAnalyticDataMerger.merge("doc", Arrays.asList(first, second), OFFSETS, LENGTHS);
+        assertEquals(2, merged.getEntities().size());
+        DocEntity company = merged.getEntities().get(0);
+        assertEquals("Company", company.getEntityType());
+        assertEquals(Integer.valueOf(3), company.getEvidence());
+        // Averaged by evidence
+        assertEquals((0.5f * 2 - 0.1f) / 3, company.getSentimentScore(), 1e-6);
+        assertNull(company.getSentimentPolarity());
+        assertEquals(2, company.getMentions().size());
+        assertLocation(company.getMentions().get(0), 4, 0);
+        // Moved to where the second part starts, and past the first part's sentence
+        assertLocation(company.getMentions().get(1), 17, 2);
+        assertEquals("Person", merged.getEntities().get(1).getEntityType());
+    }
+
+    @Test
+    public void testThemesWithTheSameTitleBecomeOne() {
+        DocAnalyticData first = part(0.4f, "positive", 1);
+        first.setThemes(new ArrayList<>(Collections.singletonList(theme("good service", 1, 0.6f, "positive", 0.5f, 2))));
+        DocAnalyticData second = part(0.2f, "positive", 1);
+        second.setThemes(new ArrayList<>(Arrays.asList(
+                theme("Good Service", 3, 0.2f, "positive", 0.8f, 5),
+                theme("slow delivery", 1, -0.5f, "negative", 0.3f, 10))));
+
+        DocAnalyticData merged = DocAnalyticDataMerger.merge("doc", Arrays.asList(first, second), OFFSETS, LENGTHS);
+        assertEquals(2, merged.getThemes().size());
+        DocTheme service = merged.getThemes().get(0);
+        assertEquals(Integer.valueOf(4), service.getEvidence());
+        assertEquals((0.6f + 0.2f * 3) / 4, service.getSentimentScore(), 1e-6);
+        assertEquals("positive", service.getSentimentPolarity());
+        assertEquals(0.8f, service.getStrengthScore(), 1e-6);
+        assertEquals(2, service.getMentions().size());
+        assertLocation(service.getMentions().get(0), 2, 0);
+        assertLocation(service.getMentions().get(1), 20, 1);
+        DocTheme delivery = merged.getThemes().get(1);
+        assertLocation(delivery.getMentions().get(0), 25, 1);
+    }
+
+    @Test
+    public void testFailedPartFailsTheDocument() {
+        DocAnalyticData failed = part(0.2f, "positive", 1);
+        failed.setStatus(TaskStatus.FAILED);
+        DocAnalyticData merged = DocAnalyticDataMerger.merge("doc",
+                Arrays.asList(part(0.4f, "positive", 1), failed), OFFSETS, LENGTHS);
+        assertEquals(TaskStatus.FAILED, merged.getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOffsetsMustMatchTheParts() {
+        DocAnalyticDataMerger.merge("doc", Collections.singletonList(part(0.4f, "positive", 1)), OFFSETS, LENGTHS);
+    }
+
+    private static DocAnalyticData part(float sentiment, String polarity, int sentences) {
+        DocAnalyticData part = new DocAnalyticData();
+        part.setStatus(TaskStatus.PROCESSED);
+        part.setSentimentScore(sentiment);
+        part.setSentimentPolarity(polarity);
+        List<Sentence> details = new ArrayList<>();
+        for (int i = 0; i < sentences; i++) {
+            details.add(new Sentence());
+        }
+        part.setDetails(details);
+        return part;
+    }
+
+    private static DocEntity entity(String title, String type, int evidence, float sentiment, String polarity,
+                                    int offset, int index) {
+        DocEntity entity = new DocEntity();
+        entity.setTitle(title);
+        entity.setEntityType(type);
+        entity.setEvidence(evidence);
+        entity.setSentimentScore(sentiment);
+        entity.setSentimentPolarity(polarity);
+        entity.setMentions(Collections.singletonList(new Mention(title, false, null, new Location(offset, title.length(), index))));
+        return entity;
+    }
+
+    private static DocTheme theme(String title, int evidence, float sentiment, String polarity, float strength,
+                                  int offset) {
+        DocTheme theme = new DocTheme();
+        theme.setTitle(title);
+        theme.setEvidence(evidence);
+        theme.setSentimentScore(sentiment);
+        theme.setSentimentPolarity(polarity);
+        theme.setStrengthScore(strength);
+        theme.setMentions(Collections.singletonList(new Mention(title, false, null, new Location(offset, title.length(), 0))));
+        return theme;
+    }
+
+    private static void assertLocation(Mention mention, int offset, int index) {
+        Location location = mention.getLocations().get(0);
+        assertEquals(Integer.valueOf(offset), location.getOffset());
+        assertEquals(Integer.valueOf(index), location.getIndex());
+    }
+}
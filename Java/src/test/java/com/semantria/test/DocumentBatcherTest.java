@@ -0,0 +1,291 @@
+package com.semantria.test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.semantria.Session;
+import com.semantria.batch.DocumentBatcher;
+import com.semantria.batch.DocumentRejectedException;
+import com.semantria.batch.FlushReason;
+import com.semantria.mapping.Document;
+import com.semantria.utils.AuthRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.semantria.test.LocalApiServer.readBody;
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class DocumentBatcherTest {
+
+    private LocalApiServer server;
+    private Session session;
+    // Ids of the documents in each batch the server received
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    // The server rejects batches holding any of these with status 400
+    private final Set<String> invalid = ConcurrentHashMap.newKeySet();
+    // Whether the server's error for an invalid document doesn't say which one it is
+    private volatile boolean genericError = false;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer();
+        server.handle("/document/batch.json", exchange -> {
+            List<Map<String, Object>> documents = new Gson().fromJson(readBody(exchange),
+                    new TypeToken<List<Map<String, Object>>>() { }.getType());
+            List<String> ids = new ArrayList<>();
+            for (Map<String, Object> document : documents) {
+                ids.add((String) document.get("id"));
+            }
+            batches.add(ids);
+            String query = exchange.getRequestURI().getRawQuery();
+            if ((query != null) && query.contains("config_id=slow")) {
+                respond(exchange, AuthRequest.STATUS_DEADLINE_EXCEEDED, "");
+                return;
+            }
+            if ((query != null) && query.contains("config_id=unknown")) {
+                respond(exchange, 400, "{\"error\":\"Unknown configuration\"}");
+                return;
+            }
+            for (String id : ids) {
+                if (invalid.contains(id)) {
+                    respond(exchange, 400, genericError ? "{\"error\":\"Invalid document\"}"
+                            : "{\"error\":\"Document " + id + " is invalid\"}");
+                    return;
+                }
+            }
+            respond(exchange, 202, "");
+        });
+        session = server.newSession();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testFullBatchIsSentWithoutWaiting() throws Exception {
+        DocumentBatcher batcher = new DocumentBatcher(session, 3).withLinger(1, TimeUnit.HOURS);
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            results.add(batcher.add(new Document("doc-" + i, "text"), null));
+        }
+        for (int i = 0; i < 6; i++) {
+            assertEquals(Integer.valueOf(202), results.get(i).get(10, TimeUnit.SECONDS));
+        }
+        // The seventh waits for its linger time, an hour
+        assertFalse(results.get(6).isDone());
+        assertEquals(2, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals(3, batches.get(1).size());
+        assertEquals(2, batcher.getStats().getCount(FlushReason.FULL));
+
+        batcher.close();
+        assertEquals(Integer.valueOf(202), results.get(6).get(10, TimeUnit.SECONDS));
+        assertEquals(3, batches.size());
+        assertEquals(1, batcher.getStats().getCount(FlushReason.FLUSH));
+        assertEquals(7, batcher.getStats().getDocumentCount());
+    }
+
+    @Test
+    public void testBatchIsSentAfterLinger() throws Exception {
+        DocumentBatcher batcher = new DocumentBatcher(session, 100).withLinger(100, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        CompletableFuture<Integer> first = batcher.add(new Document("doc-0", "text"), null);
+        CompletableFuture<Integer> second = batcher.add(new Document("doc-1", "text"), null);
+        assertEquals(Integer.valueOf(202), first.get(10, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(202), second.get(10, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(1, batcher.getStats().getCount(FlushReason.LINGER));
+        batcher.close();
+    }
+
+    @Test
+    public void testDocumentsAddedDuringCloseAreSentOrRefused() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final DocumentBatcher batcher = new DocumentBatcher(session, 1000).withLinger(1, TimeUnit.HOURS);
+            final List<CompletableFuture<Integer>> accepted = new CopyOnWriteArrayList<>();
+            final CountDownLatch started = new CountDownLatch(4);
+            ExecutorService adders = Executors.newFixedThreadPool(4);
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                adders.execute(() -> {
+                    started.countDown();
+                    for (int i = 0; ; i++) {
+                        try {
+                            accepted.add(batcher.add(new Document("doc-" + thread + "-" + i, "text"), null));
+                        } catch (IllegalStateException e) {
+                            return;
+                        }
+                    }
+                });
+            }
+            started.await();
+            Thread.sleep(2);
+            batcher.close();
+            adders.shutdown();
+            assertTrue(adders.awaitTermination(10, TimeUnit.SECONDS));
+            // Nothing accepted may be left behind in a buffer nobody flushes any more
+            for (CompletableFuture<Integer> result : accepted) {
+                assertEquals(Integer.valueOf(202), result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(accepted.size(), batcher.getStats().getDocumentCount());
+        }
+    }
+
+    @Test
+    public void testSplitterFollowsTheDocumentLength() throws Exception {
+        DocumentBatcher batcher = new DocumentBatcher(session, 10).withLinger(0, TimeUnit.MILLISECONDS)
+                .withDocumentLength(100)
+                .withSplitting(true)
+                .withDocumentLength(20);
+        assertEquals(20, batcher.getSplitter().getMaxLength());
+        assertEquals(Integer.valueOf(202),
+                batcher.add(new Document("doc", "One two three. Four five six. Seven."), null).get(10, TimeUnit.SECONDS));
+        List<String> sent = new ArrayList<>();
+        for (List<String> batch : batches) {
+            sent.addAll(batch);
+        }
+        Collections.sort(sent);
+        assertEquals(Arrays.asList("doc#1", "doc#2", "doc#3"), sent);
+        assertEquals(1, batcher.getSplitter().getPendingCount());
+        batcher.close();
+    }
+
+    @Test
+    public void testSplitIsForgottenWhenAPartIsRejected() throws Exception {
+        invalid.add("doc#2");
+        DocumentBatcher batcher = new DocumentBatcher(session, 1).withDocumentLength(20).withSplitting(true);
+        assertEquals(Integer.valueOf(400),
+                batcher.add(new Document("doc", "One two three. Four five six. Seven."), null).get(10, TimeUnit.SECONDS));
+        assertEquals(3, batches.size());
+        waitFor(() -> batcher.getSplitter().getPendingCount() == 0);
+        batcher.close();
+    }
+
+    @Test
+    public void testBisectingFindsTheRejectedDocuments() throws Exception {
+        invalid.add("doc-2");
+        invalid.add("doc-5");
+        DocumentBatcher batcher = new DocumentBatcher(session, 8).withLinger(1, TimeUnit.HOURS)
+                .withBisectOnRejection(true);
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(batcher.add(new Document("doc-" + i, "text"), null));
+        }
+        for (int i = 0; i < 8; i++) {
+            if ((i == 2) || (i == 5)) {
+                try {
+                    results.get(i).get(10, TimeUnit.SECONDS);
+                    fail("doc-" + i + " should have been rejected");
+                } catch (ExecutionException e) {
+                    DocumentRejectedException rejection = (DocumentRejectedException) e.getCause();
+                    assertEquals(400, rejection.getStatus());
+                    assertEquals("doc-" + i, rejection.getDocumentId());
+                    assertTrue(rejection.getMessage().contains("Document doc-" + i + " is invalid"));
+                }
+            } else {
+                assertEquals(Integer.valueOf(202), results.get(i).get(10, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(2, batcher.getRejectedCount());
+        // 8 -> 4 + 4 -> 2 + 2 + 2 + 2 -> 1 + 1 + 1 + 1
+        assertEquals(11, batches.size());
+        batcher.close();
+    }
+
+    @Test
+    public void testBisectingGoesOnWhenBothHalvesHoldARejectedDocument() throws Exception {
+        genericError = true;
+        invalid.add("doc-1");
+        invalid.add("doc-6");
+        DocumentBatcher batcher = new DocumentBatcher(session, 8).withLinger(1, TimeUnit.HOURS)
+                .withBisectOnRejection(true);
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(batcher.add(new Document("doc-" + i, "text"), null));
+        }
+        for (int i = 0; i < 8; i++) {
+            if ((i == 1) || (i == 6)) {
+                try {
+                    results.get(i).get(10, TimeUnit.SECONDS);
+                    fail("doc-" + i + " should have been rejected");
+                } catch (ExecutionException e) {
+                    assertEquals("doc-" + i, ((DocumentRejectedException) e.getCause()).getDocumentId());
+                }
+            } else {
+                // Both halves fail with the batch's error, but that doesn't make it about the batch
+                assertEquals(Integer.valueOf(202), results.get(i).get(10, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(2, batcher.getRejectedCount());
+        batcher.close();
+    }
+
+    @Test
+    public void testBisectingStopsWhenTheWholeBatchIsAtFault() throws Exception {
+        DocumentBatcher batcher = new DocumentBatcher(session, 16).withLinger(1, TimeUnit.HOURS)
+                .withBisectOnRejection(true);
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            results.add(batcher.add(new Document("doc-" + i, "text"), "unknown"));
+        }
+        for (CompletableFuture<Integer> result : results) {
+            assertEquals(Integer.valueOf(400), result.get(10, TimeUnit.SECONDS));
+        }
+        // The batch, its halves and their halves, rather than 31 requests down to every single document
+        assertEquals(7, batches.size());
+        assertEquals(0, batcher.getRejectedCount());
+        batcher.close();
+    }
+
+    @Test
+    public void testTimedOutBatchShrinksTheBatchSize() throws Exception {
+        DocumentBatcher batcher = new DocumentBatcher(session, 40).withLinger(1, TimeUnit.HOURS)
+                .withAdaptiveSizing(1, TimeUnit.SECONDS);
+        assertEquals(10, batcher.getBatchSize());
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(batcher.add(new Document("doc-" + i, "text"), "slow"));
+        }
+        for (CompletableFuture<Integer> result : results) {
+            assertEquals(Integer.valueOf(AuthRequest.STATUS_DEADLINE_EXCEEDED), result.get(10, TimeUnit.SECONDS));
+        }
+        // A missed deadline counts as a failure of the batch, not of its documents
+        assertTrue(batcher.getSizer().getErrorRate() > 0);
+        assertEquals(5, batcher.getBatchSize());
+        batcher.close();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("Timed out waiting", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+}
@@ -0,0 +1,117 @@
+package com.semantria.test;
+
+import com.semantria.batch.DocumentSplitter;
+import com.semantria.mapping.Document;
+import com.semantria.mapping.output.DocAnalyticData;
+import com.semantria.mapping.output.TaskStatus;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DocumentSplitterTest {
+
+    private static final String TEXT = "One two three. Four five six. Seven.";
+
+    @Test
+    public void testSplitsAtSentenceBoundaries() {
+        DocumentSplitter splitter = new DocumentSplitter(20);
+        Document document = new Document("doc", TEXT, "tag");
+        document.setJobId("job");
+        List<Document> parts = splitter.split(document);
+
+        assertEquals(3, parts.size());
+        assertEquals("One two three. ", parts.get(0).getText());
+        assertEquals("Four five six. ", parts.get(1).getText());
+        assertEquals("Seven.", parts.get(2).getText());
+        for (int i = 0; i < parts.size(); i++) {
+            assertEquals("doc#" + (i + 1), parts.get(i).getId());
+            assertEquals("tag", parts.get(i).getTag());
+            assertEquals("job", parts.get(i).getJobId());
+        }
+        assertEquals(1, splitter.getPendingCount());
+    }
+
+    @Test
+    public void testCutsTooLongSentenceAtWhitespace() {
+        DocumentSplitter splitter = new DocumentSplitter(10);
+        List<Document> parts = splitter.split(new Document("doc", "aaaa bbbb cccc dddd"));
+        assertEquals(Arrays.asList("aaaa bbbb ", "cccc dddd"), texts(parts));
+    }
+
+    @Test
+    public void testLengthIsCountedInCodePoints() {
+        DocumentSplitter splitter = new DocumentSplitter(4);
+        // Four code points in eight chars, as the service and BatchPacker count them
+        Document fits = new Document("fits", "😀😀😀😀");
+        assertFalse(splitter.needsSplit(fits));
+        assertEquals(Collections.singletonList(fits), splitter.split(fits));
+        assertEquals(0, splitter.getPendingCount());
+
+        String text = "😀😀😀😀😀😀";
+        List<Document> parts = splitter.split(new Document("long", text));
+        assertEquals(2, parts.size());
+        for (Document part : parts) {
+            String partText = part.getText();
+            assertTrue(partText.codePointCount(0, partText.length()) <= 4);
+            // No surrogate pair is torn apart
+            assertFalse(Character.isLowSurrogate(partText.charAt(0)));
+            assertFalse(Character.isHighSurrogate(partText.charAt(partText.length() - 1)));
+        }
+        assertEquals(text, String.join("", texts(parts)));
+    }
+
+    @Test
+    public void testMergeWaitsForAllParts() {
+        DocumentSplitter splitter = new DocumentSplitter(20);
+        splitter.split(new Document("doc", TEXT));
+        DocAnalyticData other = result("other");
+
+        List<DocAnalyticData> merged = splitter.merge(Arrays.asList(result("doc#2"), other, result("doc#1")));
+        assertEquals(Collections.singletonList(other), merged);
+        assertEquals(1, splitter.getPendingCount());
+
+        merged = splitter.merge(Collections.singletonList(result("doc#3")));
+        assertEquals(1, merged.size());
+        assertEquals("doc", merged.get(0).getId());
+        assertEquals(TaskStatus.PROCESSED, merged.get(0).getStatus());
+        assertEquals(0, splitter.getPendingCount());
+    }
+
+    @Test
+    public void testDiscardedDocumentsPartsPassThrough() {
+        DocumentSplitter splitter = new DocumentSplitter(20);
+        splitter.split(new Document("doc", TEXT));
+        splitter.discard("doc");
+        assertEquals(0, splitter.getPendingCount());
+        List<DocAnalyticData> merged = splitter.merge(Collections.singletonList(result("doc#1")));
+        assertEquals("doc#1", merged.get(0).getId());
+        // The ID is free to be split again
+        assertEquals(3, splitter.split(new Document("doc", TEXT)).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSameDocumentCantBeSplitTwice() {
+        DocumentSplitter splitter = new DocumentSplitter(20);
+        splitter.split(new Document("doc", TEXT));
+        splitter.split(new Document("doc", TEXT));
+    }
+
+    private static List<String> texts(List<Document> documents) {
+        String[] texts = new String[documents.size()];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = documents.get(i).getText();
+        }
+        return Arrays.asList(texts);
+    }
+
+    private static DocAnalyticData result(String id) {
+        DocAnalyticData result = new DocAnalyticData();
+        result.setId(id);
+        result.setStatus(TaskStatus.PROCESSED);
+        return result;
+    }
+}
@@ -0,0 +1,168 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.interfaces.ICallbackHandler;
+import com.semantria.mapping.configuration.Configuration;
+import com.semantria.mapping.output.CollAnalyticData;
+import com.semantria.mapping.output.DocAnalyticData;
+import com.semantria.utils.AuthRequest;
+import com.semantria.utils.Deadline;
+import com.semantria.utils.RequestArgs;
+import com.semantria.utils.ResponseArgs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class GetCoalescingTest {
+
+    private static final String CONFIGURATIONS = "[{\"id\":\"c1\",\"name\":\"one\"}]";
+
+    private LocalApiServer server;
+    private Session session;
+    private final AtomicInteger gets = new AtomicInteger();
+    private final AtomicInteger posts = new AtomicInteger();
+    // Counted down by each GET when it reaches the server
+    private volatile CountDownLatch arrived = new CountDownLatch(1);
+    // GET requests are held until this opens
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer();
+        server.handle("/configurations.json", exchange -> {
+            if ("POST".equals(exchange.getRequestMethod())) {
+                posts.incrementAndGet();
+                respond(exchange, 200, CONFIGURATIONS);
+                return;
+            }
+            gets.incrementAndGet();
+            arrived.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, CONFIGURATIONS);
+        });
+        session = server.newSession();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        callers.shutdownNow();
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testOffByDefault() throws Exception {
+        arrived = new CountDownLatch(2);
+        Future<List<Configuration>> first = callers.submit(session::getConfigurations);
+        Future<List<Configuration>> second = callers.submit(session::getConfigurations);
+        assertTrue(arrived.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        assertEquals(1, first.get(10, TimeUnit.SECONDS).size());
+        assertEquals(1, second.get(10, TimeUnit.SECONDS).size());
+        assertEquals(2, gets.get());
+    }
+
+    @Test
+    public void testCallersShareOneRequestButNotItsResult() throws Exception {
+        session.withGetCoalescing(true);
+        Future<List<Configuration>> first = callers.submit(session::getConfigurations);
+        assertTrue(arrived.await(10, TimeUnit.SECONDS));
+        Future<List<Configuration>> second = callers.submit(session::getConfigurations);
+        Thread.sleep(100);
+        release.countDown();
+
+        List<Configuration> firstResult = first.get(10, TimeUnit.SECONDS);
+        List<Configuration> secondResult = second.get(10, TimeUnit.SECONDS);
+        assertEquals(1, gets.get());
+        assertNotSame(firstResult, secondResult);
+        assertNotSame(firstResult.get(0), secondResult.get(0));
+        assertEquals("c1", firstResult.get(0).getId());
+        assertEquals("c1", secondResult.get(0).getId());
+    }
+
+    @Test
+    public void testConfigurationChangeIsNotAnsweredByAnEarlierRequest() throws Exception {
+        session.withGetCoalescing(true);
+        Future<List<Configuration>> before = callers.submit(session::getConfigurations);
+        assertTrue(arrived.await(10, TimeUnit.SECONDS));
+        arrived = new CountDownLatch(1);
+
+        session.addConfigurations(Collections.singletonList(new Configuration(null, "two")));
+        assertEquals(1, posts.get());
+        Future<List<Configuration>> after = callers.submit(session::getConfigurations);
+        // Reaches the server while the first GET is still held there
+        assertTrue(arrived.await(10, TimeUnit.SECONDS));
+        release.countDown();
+
+        assertEquals(1, before.get(10, TimeUnit.SECONDS).size());
+        assertEquals(1, after.get(10, TimeUnit.SECONDS).size());
+        assertEquals(2, gets.get());
+    }
+
+    @Test
+    public void testWaiterGivesUpAtItsDeadline() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        session.withGetCoalescing(true).withCallbackHandler(handler);
+        Future<List<Configuration>> leader = callers.submit(session::getConfigurations);
+        assertTrue(arrived.await(10, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        List<Configuration> waited;
+        try (Deadline.Scope ignored = Deadline.within(200, TimeUnit.MILLISECONDS)) {
+            waited = session.getConfigurations();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waited.isEmpty());
+        assertTrue("Waited " + elapsed + " ms", elapsed < 2000);
+        assertEquals(Collections.singletonList(AuthRequest.STATUS_DEADLINE_EXCEEDED), handler.errors);
+
+        release.countDown();
+        assertEquals(1, leader.get(10, TimeUnit.SECONDS).size());
+        assertEquals(1, gets.get());
+    }
+
+    private static class RecordingHandler implements ICallbackHandler {
+        final List<Integer> errors = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onResponse(Object sender, ResponseArgs responseArgs) {
+        }
+
+        @Override
+        public void onRequest(Object sender, RequestArgs requestArgs) {
+        }
+
+        @Override
+        public void onError(Object sender, ResponseArgs errorArgs) {
+            errors.add(errorArgs.getStatus());
+        }
+
+        @Override
+        public void onDocsAutoResponse(Object sender, List<DocAnalyticData> processedData) {
+        }
+
+        @Override
+        public void onCollsAutoResponse(Object sender, List<CollAnalyticData> processedData) {
+        }
+    }
+}
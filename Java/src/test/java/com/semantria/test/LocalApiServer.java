@@ -0,0 +1,157 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stands in for the Semantria API in tests, so that they need no credentials: an HTTP server
+ * on a free local port. Handlers are registered by path prefix, as with {@link HttpServer},
+ * and run on a pool of threads, so a handler may block without holding up other requests.
+ */
+public class LocalApiServer implements Closeable {
+
+    private final Map<String, HttpHandler> handlers = new LinkedHashMap<>();
+    private ExecutorService threads;
+    private HttpServer server;
+
+    public LocalApiServer() throws IOException {
+        start(0);
+    }
+
+    public LocalApiServer handle(String path, HttpHandler handler) {
+        handlers.put(path, handler);
+        server.createContext(path, handler);
+        return this;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    /**
+     * Returns a session with the key {@code "key"} that talks to this server.
+     */
+    public Session newSession() {
+        return newSession("key");
+    }
+
+    public Session newSession(String key) {
+        return Session.createSession(key, "secret").withServiceUrl(getUrl());
+    }
+
+    /**
+     * Starts the server again on the same port, which drops all connections to it.
+     */
+    public void restart() throws IOException {
+        int port = getPort();
+        stop();
+        start(port);
+        for (Map.Entry<String, HttpHandler> handler : handlers.entrySet()) {
+            server.createContext(handler.getKey(), handler.getValue());
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    private void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        threads = Executors.newCachedThreadPool();
+        server.setExecutor(threads);
+        server.start();
+    }
+
+    private void stop() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    /**
+     * Returns the value of a query parameter of the request, or null.
+     */
+    public static String getParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        Matcher m = Pattern.compile("(?:^|&)" + Pattern.quote(name) + "=([^&]*)").matcher(query);
+        return m.find() ? m.group(1) : null;
+    }
+
+    /**
+     * Returns the key the request was signed with.
+     */
+    public static String getKey(HttpExchange exchange) {
+        return getParameter(exchange, "oauth_consumer_key");
+    }
+
+    public static String readBody(HttpExchange exchange) throws IOException {
+        return new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+    }
+
+    // Reads to the end without closing, so that a request body can be read more than once
+    public static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    public static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        respond(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends the response, having read what is left of the request body so that the
+     * connection can be kept alive.
+     */
+    public static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        readAll(exchange.getRequestBody());
+        if (body.length == 0) {
+            // Writing even nothing to a response sent without a body makes the server drop the connection
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Sends the response with chunked transfer encoding.
+     */
+    public static void respondChunked(HttpExchange exchange, int status, byte[] body) throws IOException {
+        readAll(exchange.getRequestBody());
+        exchange.sendResponseHeaders(status, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
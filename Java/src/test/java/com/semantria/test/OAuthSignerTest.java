@@ -0,0 +1,40 @@
+package com.semantria.test;
+
+import com.semantria.auth.OAuthSigner;
+import com.semantria.benchmark.LegacySigning;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OAuthSignerTest {
+
+    private static final String KEY = "3c1a7a8f-19d7-4b4c-9f6e-0f5f3c0f2d11";
+    private static final String SECRET = "b8e1f2a4-6c3d-47e9-8a5b-2d9c1e7f4a60";
+
+    @Test
+    public void testHeaderMatchesLegacySigning() throws Exception {
+        OAuthSigner signer = new OAuthSigner(KEY, SECRET);
+        String[] urls = {
+                "https://api.semantria.com/status.json",
+                "https://api.semantria.com/document/processed.json?oauth_nonce=123&oauth_consumer_key=" + KEY,
+                "https://api.semantria.com/document/id%201.json?job_id=a b~c!&tag=(x)'y'",
+                "https://api.semantria.com/document/été.json?q=☃😀",
+        };
+        for (String url : urls) {
+            assertEquals(url, LegacySigning.authorizationHeader(KEY, SECRET, url), signer.getAuthorizationHeader(url));
+        }
+        // Enough distinct URLs for every Base64 character that needs escaping to show up
+        for (int i = 0; i < 200; i++) {
+            String url = "https://api.semantria.com/document.json?oauth_nonce=" + OAuthSigner.newNonce();
+            assertEquals(LegacySigning.authorizationHeader(KEY, SECRET, url), signer.getAuthorizationHeader(url));
+        }
+    }
+
+    @Test
+    public void testNonceIsUnsigned32Bit() {
+        for (int i = 0; i < 1000; i++) {
+            long nonce = Long.parseLong(OAuthSigner.newNonce());
+            assertTrue(nonce >= 0 && nonce <= 0xffffffffL);
+        }
+    }
+}
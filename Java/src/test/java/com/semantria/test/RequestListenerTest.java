@@ -0,0 +1,118 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.interfaces.IRequestEvent;
+import com.semantria.transport.RequestTiming;
+import com.semantria.utils.AuthRequest;
+import com.semantria.utils.CallbackDispatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class RequestListenerTest {
+
+    private static final String CONFIGURATIONS = "[{\"id\":\"c1\",\"name\":\"one\"}]";
+
+    private LocalApiServer server;
+    private Session session;
+    private final List<IRequestEvent> events = new CopyOnWriteArrayList<>();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer()
+                .handle("/configurations.json", exchange -> respond(exchange, 200, CONFIGURATIONS))
+                .handle("/subscription.json", exchange -> respond(exchange, 500, "{\"error\":\"Broken\"}"));
+        session = server.newSession();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testEventIsASnapshotOfTheRequest() throws Exception {
+        session.withRequestListener((sender, event) -> events.add(event));
+        assertEquals(1, session.getConfigurations().size());
+
+        assertEquals(1, events.size());
+        IRequestEvent event = events.get(0);
+        assertFalse(event instanceof AuthRequest);
+        assertEquals("GET configurations", event.getEndpoint());
+        assertEquals("GET", event.getMethod());
+        assertEquals(Integer.valueOf(200), event.getStatus());
+        assertNull(event.getErrorMessage());
+        assertEquals(CONFIGURATIONS.length(), event.getResponseSize());
+        assertEquals(CONFIGURATIONS, event.getResponse());
+        // Deserializing the response after the listener was called doesn't change the event
+        assertEquals(0, event.getTiming().get(RequestTiming.Phase.PARSE, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testFailedRequestHasNoResponse() throws Exception {
+        session.withRequestListener((sender, event) -> events.add(event));
+        assertNull(session.getSubscription());
+
+        assertEquals(1, events.size());
+        IRequestEvent event = events.get(0);
+        assertEquals(Integer.valueOf(500), event.getStatus());
+        assertTrue(event.getErrorMessage().contains("Broken"));
+        assertNull(event.getResponse());
+    }
+
+    @Test
+    public void testListenerRunsOnTheDispatcher() throws Exception {
+        CallbackDispatcher dispatcher = new CallbackDispatcher(10, CallbackDispatcher.OverflowPolicy.BLOCK);
+        try {
+            session.withCallbackDispatcher(dispatcher).withRequestListener((sender, event) -> {
+                threads.add(Thread.currentThread());
+                events.add(event);
+            });
+            session.getConfigurations();
+            waitFor(() -> events.size() == 1);
+            assertNotSame(Thread.currentThread(), threads.get(0));
+            assertEquals(CONFIGURATIONS, events.get(0).getResponse());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testNothingIsHandedOnWithoutAListener() throws Exception {
+        // A closed dispatcher runs what it is given on the caller, and counts it
+        CallbackDispatcher dispatcher = new CallbackDispatcher(10, CallbackDispatcher.OverflowPolicy.BLOCK);
+        dispatcher.close();
+        session.withCallbackDispatcher(dispatcher);
+        for (int i = 0; i < 3; i++) {
+            session.getConfigurations();
+        }
+        assertEquals(0, dispatcher.getCallerRunsCount());
+
+        session.withRequestListener((sender, event) -> events.add(event));
+        session.getConfigurations();
+        assertEquals(1, dispatcher.getCallerRunsCount());
+        assertEquals(1, events.size());
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("Timed out waiting", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+}
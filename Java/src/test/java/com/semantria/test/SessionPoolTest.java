@@ -0,0 +1,253 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.SessionPool;
+import com.semantria.interfaces.ICallbackHandler;
+import com.semantria.mapping.Document;
+import com.semantria.mapping.output.CollAnalyticData;
+import com.semantria.mapping.output.DocAnalyticData;
+import com.semantria.utils.AuthRequest;
+import com.semantria.utils.Deadline;
+import com.semantria.utils.RequestArgs;
+import com.semantria.utils.ResponseArgs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.semantria.test.LocalApiServer.getKey;
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class SessionPoolTest {
+
+    private LocalApiServer server;
+    private final Map<String, AtomicInteger> queued = new ConcurrentHashMap<>();
+    private final List<String> inFlight = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch hold = new CountDownLatch(0);
+    private volatile CountDownLatch polls = new CountDownLatch(0);
+    private final List<Session> sessions = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer();
+        server.handle("/document.json", exchange -> {
+            String key = getKey(exchange);
+            inFlight.add(key);
+            await(hold);
+            queued.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            respond(exchange, 202, "");
+        });
+        // Answers only once every session's poll has arrived, which a pool polling one
+        // session after the other never gets to
+        server.handle("/document/processed.json", exchange -> {
+            polls.countDown();
+            if (!await(polls)) {
+                respond(exchange, 500, "{\"error\":\"polls were not made side by side\"}");
+                return;
+            }
+            String key = getKey(exchange);
+            if ("broken".equals(key)) {
+                respond(exchange, 200, "[{\"id\":");
+                return;
+            }
+            respond(exchange, 200, "[{\"id\":\"" + key + "-1\",\"status\":\"PROCESSED\"},"
+                    + "{\"id\":\"" + key + "-2\",\"status\":\"PROCESSED\"}]");
+        });
+    }
+
+    @After
+    public void tearDown() {
+        hold.countDown();
+        for (Session session : sessions) {
+            session.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void testLeastOutstandingSpreadsConcurrentCalls() throws Exception {
+        final SessionPool pool = new SessionPool(SessionPool.Balancing.LEAST_OUTSTANDING)
+                .withSession(newSession("a"))
+                .withSession(newSession("b"));
+        hold = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> calls = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                final int n = i;
+                calls.add(callers.submit(() -> pool.queueDocument(new Document("doc-" + n, "text"), null)));
+            }
+            // All four calls are in flight at once, so each session must have got two
+            waitFor(() -> inFlight.size() == 4);
+            assertEquals(2, pool.getMembers().get(0).getOutstanding());
+            assertEquals(2, pool.getMembers().get(1).getOutstanding());
+            hold.countDown();
+            for (Future<Integer> call : calls) {
+                assertEquals(Integer.valueOf(202), call.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(2, queued.get("a").get());
+        assertEquals(2, queued.get("b").get());
+        assertEquals(0, pool.getMembers().get(0).getOutstanding());
+        assertEquals(0, pool.getMembers().get(1).getOutstanding());
+    }
+
+    @Test
+    public void testWeightedRoundRobinFollowsTheWeights() {
+        SessionPool pool = new SessionPool(SessionPool.Balancing.WEIGHTED_ROUND_ROBIN)
+                .withSession(newSession("a"), 2, 0)
+                .withSession(newSession("b"), 1, 0);
+        for (int i = 0; i < 9; i++) {
+            assertEquals(Integer.valueOf(202), pool.queueDocument(new Document("doc-" + i, "text"), null));
+        }
+        assertEquals(6, queued.get("a").get());
+        assertEquals(3, queued.get("b").get());
+        // Smooth: the heavier session never takes more than two turns in a row
+        assertEquals("[a, b, a, a, b, a, a, b, a]", inFlight.toString());
+        assertEquals(6, pool.getMembers().get(0).getRequestCount());
+        assertEquals(3, pool.getMembers().get(1).getRequestCount());
+    }
+
+    @Test
+    public void testCallGoesToAnotherSessionWhenTheBudgetIsUsedUp() {
+        SessionPool pool = new SessionPool(SessionPool.Balancing.WEIGHTED_ROUND_ROBIN)
+                .withSession(newSession("a"), 100, 0.1)
+                .withSession(newSession("b"), 1, 0);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Integer.valueOf(202), pool.queueDocument(new Document("doc-" + i, "text"), null));
+        }
+        // "a" is always preferred but its budget only allows one request in ten seconds
+        assertEquals(1, queued.get("a").get());
+        assertEquals(2, queued.get("b").get());
+    }
+
+    @Test
+    public void testBudgetTimeoutFailsWithDeadlineExceeded() {
+        RecordingHandler handler = new RecordingHandler();
+        Session session = newSession("a").withCallbackHandler(handler);
+        SessionPool pool = new SessionPool().withSession(session, 1, 0.1);
+        assertEquals(Integer.valueOf(202), pool.queueDocument(new Document("doc-0", "text"), null));
+        long start = System.nanoTime();
+        try (Deadline.Scope scope = Deadline.within(200, TimeUnit.MILLISECONDS)) {
+            assertEquals(Integer.valueOf(AuthRequest.STATUS_DEADLINE_EXCEEDED),
+                    pool.queueDocument(new Document("doc-1", "text"), null));
+            // Polls can't wait for the budget either; the session is left out
+            assertTrue(pool.getProcessedDocuments(null).isEmpty());
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertEquals(1, queued.get("a").get());
+        assertEquals(1, inFlight.size());
+        assertEquals(2, handler.errors.size());
+        for (Integer status : handler.errors) {
+            assertEquals(Integer.valueOf(AuthRequest.STATUS_DEADLINE_EXCEEDED), status);
+        }
+        assertEquals(0, pool.getMembers().get(0).getOutstanding());
+    }
+
+    @Test
+    public void testSessionsArePolledSideBySide() {
+        polls = new CountDownLatch(3);
+        SessionPool pool = new SessionPool()
+                .withSession(newSession("a"))
+                .withSession(newSession("b"))
+                .withSession(newSession("c"));
+        List<DocAnalyticData> results = pool.getProcessedDocuments(null);
+        Set<String> ids = new HashSet<>();
+        for (DocAnalyticData result : results) {
+            ids.add(result.getId());
+        }
+        assertEquals(6, results.size());
+        assertTrue(ids.contains("a-1") && ids.contains("b-2") && ids.contains("c-1"));
+        for (SessionPool.Member member : pool.getMembers()) {
+            assertEquals(1, member.getRequestCount());
+            assertEquals(0, member.getOutstanding());
+        }
+    }
+
+    @Test
+    public void testFailedPollKeepsTheOtherResults() {
+        polls = new CountDownLatch(3);
+        RecordingHandler handler = new RecordingHandler();
+        SessionPool pool = new SessionPool()
+                .withSession(newSession("a"))
+                .withSession(newSession("broken").withCallbackHandler(handler))
+                .withSession(newSession("c"));
+        List<DocAnalyticData> results = pool.getProcessedDocuments(null);
+        Set<String> ids = new HashSet<>();
+        for (DocAnalyticData result : results) {
+            ids.add(result.getId());
+        }
+        assertEquals(4, results.size());
+        assertTrue(ids.contains("a-1") && ids.contains("c-2"));
+        assertEquals(1, handler.errors.size());
+    }
+
+    private Session newSession(String key) {
+        Session session = server.newSession(key);
+        sessions.add(session);
+        return session;
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("Timed out waiting", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static class RecordingHandler implements ICallbackHandler {
+        final List<Integer> errors = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onResponse(Object sender, ResponseArgs responseArgs) {
+        }
+
+        @Override
+        public void onRequest(Object sender, RequestArgs requestArgs) {
+        }
+
+        @Override
+        public void onError(Object sender, ResponseArgs errorArgs) {
+            errors.add(errorArgs.getStatus());
+        }
+
+        @Override
+        public void onDocsAutoResponse(Object sender, List<DocAnalyticData> processedData) {
+        }
+
+        @Override
+        public void onCollsAutoResponse(Object sender, List<CollAnalyticData> processedData) {
+        }
+    }
+}
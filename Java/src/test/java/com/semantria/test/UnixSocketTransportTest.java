@@ -0,0 +1,177 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.transport.ConnectionPool;
+import com.semantria.transport.UnixSocketTransport;
+import com.semantria.utils.AuthRequest;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// Runs against a small HTTP/1.1 stub on a local Unix domain socket; needs Java 16+.
+public class UnixSocketTransportTest {
+
+    private Path dir;
+    private String socketPath;
+    private ServerSocketChannel server;
+    private Thread acceptor;
+    private final List<String> requestHeads = new CopyOnWriteArrayList<>();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(UnixSocketTransport.isSupported());
+        dir = Files.createTempDirectory("semantria-uds");
+        socketPath = dir.resolve("proxy.sock").toString();
+        // Built reflectively so that the tests compile on Java 8
+        ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+        SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", String.class).invoke(null, socketPath);
+        server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        server.bind(address);
+        acceptor = new Thread(this::acceptLoop, "uds-stub");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        pool = new ConnectionPool(4, 2, 30, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (server == null) {
+            return;
+        }
+        pool.close();
+        server.close();
+        Files.deleteIfExists(dir.resolve("proxy.sock"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void testSignedRequestsOverPooledSocket() {
+        for (int i = 0; i < 3; i++) {
+            AuthRequest req = AuthRequest.getInstance("https://api.example.com/status.json", "GET")
+                    .key("key").secret("secret")
+                    .transport(new UnixSocketTransport(socketPath, pool));
+            assertEquals(Integer.valueOf(200), req.doRequest());
+            assertEquals("GET /status.json", req.getResponse());
+        }
+        assertEquals(1, accepted.get());
+        assertEquals(2, pool.getHitCount());
+
+        String head = requestHeads.get(0);
+        assertTrue(head.startsWith("GET /status.json?"));
+        assertTrue(head.contains("oauth_consumer_key=key"));
+        assertTrue(head.contains("\r\nHost: api.example.com\r\n"));
+        assertTrue(head.contains("\r\nAuthorization: OAuth,oauth_consumer_key=\"key\",oauth_signature="));
+    }
+
+    @Test
+    public void testRequestBody() {
+        AuthRequest req = AuthRequest.getInstance("https://api.example.com/document/batch.json", "POST")
+                .body("[{\"id\":\"1\"}]")
+                .transport(new UnixSocketTransport(socketPath, pool));
+        assertEquals(Integer.valueOf(200), req.doRequest());
+        assertEquals("[{\"id\":\"1\"}]", req.getResponse());
+    }
+
+    @Test
+    public void testAuthRequestsGoOverTheSessionsSocket() throws Exception {
+        Session session = Session.createUserSession("user", "password", false)
+                .withAuthUrl("https://auth.example.com")
+                .withConnectionPool(pool)
+                .withUnixSocket(socketPath);
+        session.authenticate();
+        assertEquals(1, accepted.get());
+        String head = requestHeads.get(0);
+        assertTrue(head.startsWith("POST /auth/session.json?appkey="));
+        assertTrue(head.contains("\r\nHost: auth.example.com\r\n"));
+        assertEquals(0, pool.getLeasedCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                accepted.incrementAndGet();
+                Thread handler = new Thread(() -> serve(channel), "uds-stub-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    // Answers GET requests with their request line and echoes request bodies.
+    private void serve(SocketChannel channel) {
+        try (SocketChannel c = channel) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(c));
+            OutputStream out = Channels.newOutputStream(c);
+            String head;
+            while ((head = readHead(in)) != null) {
+                requestHeads.add(head);
+                byte[] body = new byte[contentLength(head)];
+                in.readFully(body);
+                if (body.length == 0) {
+                    // Method and path, without the query string
+                    int end = head.indexOf('?');
+                    if ((end < 0) || (end > head.indexOf('\r'))) {
+                        end = head.lastIndexOf(' ', head.indexOf('\r'));
+                    }
+                    body = head.substring(0, end).getBytes(StandardCharsets.UTF_8);
+                }
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.write(body);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int c, matched = 0;
+        while ((c = in.read()) != -1) {
+            head.write(c);
+            matched = ((c == '\r' && (matched % 2 == 0)) || (c == '\n' && (matched % 2 == 1))) ? matched + 1 : 0;
+            if (matched == 4) {
+                return new String(head.toByteArray(), StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    private static int contentLength(String head) {
+        for (String line : head.split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                return Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        return 0;
+    }
+}
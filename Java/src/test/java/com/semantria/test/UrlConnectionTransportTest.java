@@ -0,0 +1,116 @@
+package com.semantria.test;
+
+import com.semantria.transport.RequestTiming;
+import com.semantria.transport.TlsContext;
+import com.semantria.transport.UrlConnectionTransport;
+import com.semantria.utils.AuthRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UrlConnectionTransportTest {
+
+    private LocalApiServer server;
+    private String baseUrl;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final List<String> connectionHeaders = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer()
+                .handle("/fixed", exchange -> respond(exchange, 200, "fixed body"))
+                .handle("/error", exchange -> respond(exchange, 400, "{\"error\":\"bad\"}"));
+        baseUrl = server.getUrl();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testConnectionsAreKeptAlive() {
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        for (int i = 0; i < 3; i++) {
+            AuthRequest req = AuthRequest.getInstance(baseUrl + "/fixed", "GET").transport(transport);
+            assertEquals(Integer.valueOf(200), req.doRequest());
+            assertEquals("fixed body", req.getResponse());
+            // An error body is read to the end too, so the connection stays usable
+            req = AuthRequest.getInstance(baseUrl + "/error", "POST").body("{}").transport(transport);
+            assertEquals(Integer.valueOf(400), req.doRequest());
+        }
+        assertEquals(1, clientPorts.size());
+        for (String header : connectionHeaders) {
+            assertNotEquals("close", header);
+        }
+    }
+
+    @Test
+    public void testHttpsHandshakeIsTimedAndCounted() throws Exception {
+        HttpsServer https = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        https.setHttpsConfigurator(new HttpsConfigurator(serverContext()));
+        https.createContext("/fixed", exchange -> respond(exchange, 200, "fixed body"));
+        https.start();
+        try {
+            TlsContext tlsContext = new TlsContext();
+            UrlConnectionTransport transport = new UrlConnectionTransport(tlsContext);
+            String url = "https://127.0.0.1:" + https.getAddress().getPort() + "/fixed";
+
+            AuthRequest req = AuthRequest.getInstance(url, "GET").transport(transport);
+            assertEquals(Integer.valueOf(200), req.doRequest());
+            assertFalse(req.getTiming().isConnectionReused());
+            assertTrue(req.getTiming().get(RequestTiming.Phase.TLS, TimeUnit.NANOSECONDS) > 0);
+
+            req = AuthRequest.getInstance(url, "GET").transport(transport);
+            assertEquals(Integer.valueOf(200), req.doRequest());
+            assertTrue(req.getTiming().isConnectionReused());
+            assertEquals(0, req.getTiming().get(RequestTiming.Phase.TLS, TimeUnit.NANOSECONDS));
+
+            // Handshakes are counted once the JDK has told the listener, on a thread of its own
+            long end = System.currentTimeMillis() + 5000;
+            while ((tlsContext.getFullHandshakeCount() == 0) && (System.currentTimeMillis() < end)) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, tlsContext.getFullHandshakeCount() + tlsContext.getResumedHandshakeCount());
+            assertEquals(1, clientPorts.size());
+        } finally {
+            https.stop(0);
+        }
+    }
+
+    // Has the certificate for 127.0.0.1 in localhost.p12, which the trust-all TlsContext accepts
+    private static SSLContext serverContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = UrlConnectionTransportTest.class.getResourceAsStream("/localhost.p12")) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, "changeit".toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        connectionHeaders.add(String.valueOf(exchange.getRequestHeaders().getFirst("Connection")));
+        LocalApiServer.respond(exchange, status, body);
+    }
+}
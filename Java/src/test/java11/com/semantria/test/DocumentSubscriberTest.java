@@ -0,0 +1,188 @@
+package com.semantria.test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.semantria.Session;
+import com.semantria.flow.DocumentSubscriber;
+import com.semantria.mapping.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static com.semantria.test.LocalApiServer.readBody;
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class DocumentSubscriberTest {
+
+    private LocalApiServer server;
+    private Session session;
+    // Ids of the documents in each batch the server received
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    private volatile int batchStatus = 202;
+    // While set, batches are held until release opens
+    private volatile boolean hold = false;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final RecordingSubscription subscription = new RecordingSubscription();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer();
+        server.handle("/document/batch.json", exchange -> {
+            List<Map<String, Object>> documents = new Gson().fromJson(readBody(exchange),
+                    new TypeToken<List<Map<String, Object>>>() { }.getType());
+            List<String> ids = new ArrayList<>();
+            for (Map<String, Object> document : documents) {
+                ids.add((String) document.get("id"));
+            }
+            batches.add(ids);
+            if (hold) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (batchStatus == 200) {
+                // Answered with the results, as for a configuration with auto-response
+                respond(exchange, 200, "[{\"id\":\"" + ids.get(0) + "\",\"status\":\"PROCESSED\"}]");
+                return;
+            }
+            respond(exchange, batchStatus, "");
+        });
+        session = server.newSession();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testNextBatchIsRequestedAfterTheAnswer() throws Exception {
+        hold = true;
+        DocumentSubscriber subscriber = new DocumentSubscriber(session, null, 3);
+        subscriber.onSubscribe(subscription);
+        assertEquals(Collections.singletonList(3L), subscription.requests);
+        for (int i = 0; i < 3; i++) {
+            subscriber.onNext(new Document("doc-" + i, "text"));
+        }
+        waitFor(() -> batches.size() == 1);
+        Thread.sleep(100);
+        // Still waiting for the service to answer the first batch
+        assertEquals(Collections.singletonList(3L), subscription.requests);
+
+        release.countDown();
+        waitFor(() -> subscription.requests.size() == 2);
+        assertEquals(Arrays.asList(3L, 3L), subscription.requests);
+        assertEquals(3, subscriber.getQueuedCount());
+        assertEquals(Arrays.asList("doc-0", "doc-1", "doc-2"), batches.get(0));
+    }
+
+    @Test
+    public void testBatchAnsweredWithResultsCountsAsQueued() throws Exception {
+        batchStatus = 200;
+        DocumentSubscriber subscriber = new DocumentSubscriber(session, null, 2);
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(new Document("doc-0", "text"));
+        subscriber.onNext(new Document("doc-1", "text"));
+        subscriber.onComplete();
+        subscriber.getCompletion().get(10, TimeUnit.SECONDS);
+        assertEquals(2, subscriber.getQueuedCount());
+        assertEquals(0, subscriber.getFailedCount());
+    }
+
+    @Test
+    public void testRejectedBatchIsCountedAndTheStreamGoesOn() throws Exception {
+        batchStatus = 400;
+        DocumentSubscriber subscriber = new DocumentSubscriber(session, null, 2);
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(new Document("doc-0", "text"));
+        subscriber.onNext(new Document("doc-1", "text"));
+        waitFor(() -> subscription.requests.size() == 2);
+        assertEquals(2, subscriber.getFailedCount());
+        assertEquals(0, subscriber.getQueuedCount());
+    }
+
+    @Test
+    public void testPartialBatchIsQueuedOnComplete() throws Exception {
+        DocumentSubscriber subscriber = new DocumentSubscriber(session, null, 5);
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(new Document("doc-0", "text"));
+        subscriber.onNext(new Document("doc-1", "text"));
+        subscriber.onComplete();
+        subscriber.getCompletion().get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList(Arrays.asList("doc-0", "doc-1")), batches);
+        assertEquals(2, subscriber.getQueuedCount());
+    }
+
+    @Test
+    public void testPartialBatchIsQueuedOnError() throws Exception {
+        DocumentSubscriber subscriber = new DocumentSubscriber(session, null, 5);
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(new Document("doc-0", "text"));
+        IOException failure = new IOException("source went away");
+        subscriber.onError(failure);
+        try {
+            subscriber.getCompletion().get(10, TimeUnit.SECONDS);
+            fail("The completion should have failed");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertEquals(1, batches.size());
+        assertEquals(1, subscriber.getQueuedCount());
+    }
+
+    @Test
+    public void testCancelStopsRequesting() throws Exception {
+        DocumentSubscriber subscriber = new DocumentSubscriber(session, null, 2);
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(new Document("doc-0", "text"));
+        subscriber.cancel();
+        subscriber.getCompletion().get(10, TimeUnit.SECONDS);
+        assertTrue(subscription.cancelled);
+        assertTrue(batches.isEmpty());
+        assertEquals(Collections.singletonList(2L), subscription.requests);
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("Timed out waiting", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static class RecordingSubscription implements Flow.Subscription {
+        final List<Long> requests = new CopyOnWriteArrayList<>();
+        volatile boolean cancelled = false;
+
+        @Override
+        public void request(long n) {
+            requests.add(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.mapping.Document;
+import com.semantria.transport.HttpClientTransport;
+import com.semantria.transport.TransportRequest;
+import com.semantria.transport.TransportResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.semantria.test.LocalApiServer.readAll;
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class HttpClientTransportTest {
+
+    private LocalApiServer server;
+    private HttpClientTransport transport;
+    // The /hold handler waits for this before reading the request body
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer()
+                .handle("/echo", exchange -> respond(exchange, 200, readAll(exchange.getRequestBody())))
+                .handle("/hold", exchange -> {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    byte[] body = readAll(exchange.getRequestBody());
+                    respond(exchange, 200, String.valueOf(body.length));
+                })
+                .handle("/document.json", exchange -> respond(exchange, 202, ""));
+        transport = new HttpClientTransport();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.close();
+    }
+
+    @Test
+    public void testBufferedBody() throws Exception {
+        TransportRequest request = new TransportRequest("POST", server.getUrl() + "/echo")
+                .body("buffered body".getBytes(StandardCharsets.UTF_8));
+        try (TransportResponse response = transport.execute(request)) {
+            assertEquals(200, response.getStatus());
+            assertEquals("buffered body", new String(readAll(response.getBody()), StandardCharsets.UTF_8));
+        }
+        try (TransportResponse response = transport.executeAsync(request).get(10, TimeUnit.SECONDS)) {
+            assertEquals(200, response.getStatus());
+            assertEquals("buffered body", new String(readAll(response.getBody()), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testStreamedBodyArrivesWhole() throws Exception {
+        final byte[] part = new byte[1000];
+        for (int i = 0; i < part.length; i++) {
+            part[i] = (byte) ('a' + (i % 26));
+        }
+        TransportRequest request = new TransportRequest("POST", server.getUrl() + "/echo")
+                .body(out -> {
+                    for (int i = 0; i < 100; i++) {
+                        out.write(part);
+                    }
+                    out.write('!');
+                });
+        try (TransportResponse response = transport.execute(request)) {
+            assertEquals(200, response.getStatus());
+            byte[] body = readAll(response.getBody());
+            assertEquals(100 * part.length + 1, body.length);
+            assertArrayEquals(part, Arrays.copyOfRange(body, 99 * part.length, 100 * part.length));
+            assertEquals('!', body[body.length - 1]);
+        }
+    }
+
+    @Test
+    public void testWriterWaitsForTheClient() throws Exception {
+        final long total = 64L * 1024 * 1024;
+        final AtomicLong written = new AtomicLong();
+        TransportRequest request = new TransportRequest("POST", server.getUrl() + "/hold")
+                .body(out -> {
+                    byte[] chunk = new byte[64 * 1024];
+                    while (written.get() < total) {
+                        out.write(chunk);
+                        written.addAndGet(chunk.length);
+                    }
+                });
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        try {
+            Future<TransportResponse> sent = sender.submit(() -> transport.execute(request));
+            Thread.sleep(500);
+            // Held up by the server not reading, rather than buffered in memory
+            assertTrue("Wrote " + written.get() + " bytes", written.get() < total);
+            release.countDown();
+            try (TransportResponse response = sent.get(30, TimeUnit.SECONDS)) {
+                assertEquals(200, response.getStatus());
+                assertEquals(String.valueOf(total), new String(readAll(response.getBody()), StandardCharsets.UTF_8));
+            }
+        } finally {
+            sender.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailingWriterFailsTheRequest() {
+        TransportRequest request = new TransportRequest("POST", server.getUrl() + "/echo")
+                .body(out -> {
+                    out.write(new byte[20000]);
+                    throw new IOException("source went away");
+                });
+        try {
+            transport.execute(request).close();
+            fail("The request should have failed");
+        } catch (IOException e) {
+            assertEquals("source went away", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSessionOverHttpClient() {
+        Session session = server.newSession().withTransport(transport);
+        try {
+            assertEquals(Integer.valueOf(202), session.queueDocument(new Document("doc", "text"), null));
+            assertEquals(Integer.valueOf(202),
+                    session.queueDocumentAsync(new Document("doc", "text"), null).join());
+        } finally {
+            session.close();
+        }
+    }
+}
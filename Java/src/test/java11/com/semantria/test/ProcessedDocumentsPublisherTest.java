@@ -0,0 +1,224 @@
+package com.semantria.test;
+
+import com.semantria.Session;
+import com.semantria.flow.ProcessedDocumentsPublisher;
+import com.semantria.interfaces.ICallbackHandler;
+import com.semantria.mapping.output.CollAnalyticData;
+import com.semantria.mapping.output.DocAnalyticData;
+import com.semantria.utils.RequestArgs;
+import com.semantria.utils.ResponseArgs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.semantria.test.LocalApiServer.respond;
+import static org.junit.Assert.*;
+
+public class ProcessedDocumentsPublisherTest {
+
+    private static final int RESULTS_PER_POLL = 5;
+
+    private LocalApiServer server;
+    private Session session;
+    private final AtomicInteger polls = new AtomicInteger();
+    // How the server answers the poll with this number; later polls get results
+    private volatile int failingPoll = 0;
+    private volatile int failingStatus = 0;
+    private volatile boolean malformed = false;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalApiServer();
+        server.handle("/document/processed.json", exchange -> {
+            int poll = polls.incrementAndGet();
+            if (malformed) {
+                respond(exchange, 200, "[{\"id\":");
+                return;
+            }
+            if (poll == failingPoll) {
+                respond(exchange, failingStatus, "");
+                return;
+            }
+            StringBuilder results = new StringBuilder("[");
+            for (int i = 0; i < RESULTS_PER_POLL; i++) {
+                results.append((i == 0) ? "" : ",")
+                        .append("{\"id\":\"doc-").append(poll).append('-').append(i).append("\",\"status\":\"PROCESSED\"}");
+            }
+            respond(exchange, 200, results.append(']').toString());
+        });
+        session = server.newSession();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void testPollsOnlyForDemand() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ProcessedDocumentsPublisher.forConfiguration(session, null).subscribe(subscriber);
+        Thread.sleep(200);
+        assertEquals(0, polls.get());
+
+        subscriber.subscription.request(3);
+        waitFor(() -> subscriber.results.size() == 3);
+        Thread.sleep(100);
+        // The other two results of the poll wait for demand rather than a second poll being made
+        assertEquals(3, subscriber.results.size());
+        assertEquals(1, polls.get());
+
+        subscriber.subscription.request(2);
+        waitFor(() -> subscriber.results.size() == 5);
+        assertEquals(1, polls.get());
+
+        subscriber.subscription.request(1);
+        waitFor(() -> subscriber.results.size() == 6);
+        assertEquals(2, polls.get());
+        assertEquals("doc-2-0", subscriber.results.get(5).getId());
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testCompletesAtTheExpectedCount() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ProcessedDocumentsPublisher.forConfiguration(session, null).withExpectedCount(7).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        waitFor(() -> subscriber.completed);
+        // The second poll returned more than was still expected; those are delivered too
+        assertEquals(2 * RESULTS_PER_POLL, subscriber.results.size());
+        assertEquals(2, polls.get());
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testCancelStopsPollingAndDelivery() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ProcessedDocumentsPublisher.forConfiguration(session, null).subscribe(subscriber);
+        subscriber.subscription.request(3);
+        waitFor(() -> subscriber.results.size() == 3);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+        Thread.sleep(200);
+        assertEquals(3, subscriber.results.size());
+        assertEquals(1, polls.get());
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testFailedPollEndsTheStream() throws Exception {
+        malformed = true;
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ProcessedDocumentsPublisher.forConfiguration(session, null).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        waitFor(() -> subscriber.error != null);
+        assertTrue(subscriber.results.isEmpty());
+        assertFalse(subscriber.completed);
+        Thread.sleep(100);
+        assertEquals(1, polls.get());
+    }
+
+    @Test
+    public void testErrorStatusCountsAsAnEmptyPoll() throws Exception {
+        failingPoll = 1;
+        failingStatus = 500;
+        RecordingHandler handler = new RecordingHandler();
+        session.withCallbackHandler(handler);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ProcessedDocumentsPublisher.forConfiguration(session, null)
+                .withPollInterval(300, TimeUnit.MILLISECONDS)
+                .subscribe(subscriber);
+        long start = System.nanoTime();
+        subscriber.subscription.request(1);
+        waitFor(() -> subscriber.results.size() == 1);
+        // The poll after the failed one waited for the poll interval
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+        assertEquals(2, polls.get());
+        assertEquals(Collections.singletonList(500), handler.errors);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testSecondSubscriberIsRefused() throws Exception {
+        ProcessedDocumentsPublisher publisher = ProcessedDocumentsPublisher.forConfiguration(session, null);
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+        assertNull(first.error);
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("Timed out waiting", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<DocAnalyticData> {
+        final List<DocAnalyticData> results = new CopyOnWriteArrayList<>();
+        volatile Flow.Subscription subscription;
+        volatile boolean completed = false;
+        volatile Throwable error = null;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(DocAnalyticData item) {
+            results.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    private static class RecordingHandler implements ICallbackHandler {
+        final List<Integer> errors = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onResponse(Object sender, ResponseArgs responseArgs) {
+        }
+
+        @Override
+        public void onRequest(Object sender, RequestArgs requestArgs) {
+        }
+
+        @Override
+        public void onError(Object sender, ResponseArgs errorArgs) {
+            errors.add(errorArgs.getStatus());
+        }
+
+        @Override
+        public void onDocsAutoResponse(Object sender, List<DocAnalyticData> processedData) {
+        }
+
+        @Override
+        public void onCollsAutoResponse(Object sender, List<CollAnalyticData> processedData) {
+        }
+    }
+}